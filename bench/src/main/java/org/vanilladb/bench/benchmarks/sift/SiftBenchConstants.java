@@ -7,6 +7,10 @@ public class SiftBenchConstants {
     public static final int NUM_ITEMS;
     public static final int NUM_DIMENSION;
     public static final String DATASET_FILE;
+    // Optional .fvecs/.bvecs queries and the .ivecs ids of their true nearest
+    // neighbors among the loaded items
+    public static final String QUERY_FILE;
+    public static final String GROUND_TRUTH_FILE;
     public static final double READ_INSERT_TX_RATE;
 
     static {
@@ -16,6 +20,10 @@ public class SiftBenchConstants {
                 SiftBenchConstants.class.getName() + ".NUM_DIMENSIONS", 128);
         DATASET_FILE = BenchProperties.getLoader().getPropertyAsString(
                 SiftBenchConstants.class.getName() + ".DATASET_FILE", "sift.txt");
+        QUERY_FILE = BenchProperties.getLoader().getPropertyAsString(
+                SiftBenchConstants.class.getName() + ".QUERY_FILE", "");
+        GROUND_TRUTH_FILE = BenchProperties.getLoader().getPropertyAsString(
+                SiftBenchConstants.class.getName() + ".GROUND_TRUTH_FILE", "");
         READ_INSERT_TX_RATE = BenchProperties.getLoader().getPropertyAsDouble(
                 SiftBenchConstants.class.getName() + ".READ_INSERT_TX_RATE", 0.7);
         
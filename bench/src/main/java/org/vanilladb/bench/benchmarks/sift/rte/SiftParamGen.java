@@ -5,11 +5,16 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.lang.reflect.Array;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.vanilladb.bench.benchmarks.sift.SiftBenchConstants;
 import org.vanilladb.bench.benchmarks.sift.SiftTransactionType;
 import org.vanilladb.bench.rte.TxParamGenerator;
 import org.vanilladb.bench.util.RandomValueGenerator;
+import org.vanilladb.bench.util.VecsReader;
 import org.vanilladb.core.sql.VectorConstant;
 
 public class SiftParamGen implements TxParamGenerator<SiftTransactionType> {
@@ -20,21 +25,66 @@ public class SiftParamGen implements TxParamGenerator<SiftTransactionType> {
 
     protected static final ArrayList<VectorConstant> queryList = new ArrayList<>();
 
+    // The queries of the query file, each mapped to its row in the ground truth
+    private static final List<VectorConstant> fileQueries = new ArrayList<>();
+    private static final Map<VectorConstant, Integer> fileQueryIds = new IdentityHashMap<>();
+    private static VecsReader groundTruth;
+
     static {
         System.out.println("start loading sift dataset...");
         int line = 1000000;
         String vectorString;
-        try (BufferedReader br = new BufferedReader(new FileReader(SiftBenchConstants.DATASET_FILE))) {
-            for (int i = 0; i < line; i++) {
-                vectorString = br.readLine();
-                queryList.add((VectorConstant) (new VectorConstant(vectorString)));
+        if (VecsReader.isVecsFile(SiftBenchConstants.DATASET_FILE)) {
+            try (VecsReader reader = new VecsReader(SiftBenchConstants.DATASET_FILE)) {
+                for (int i = 0; i < Math.min(line, reader.size()); i++)
+                    queryList.add(new VectorConstant(reader.getFloats(i)));
+            } catch (IOException e) {
+                e.printStackTrace();
+                throw new RuntimeException(SiftBenchConstants.DATASET_FILE + " cannot be read.");
+            }
+        } else {
+            try (BufferedReader br = new BufferedReader(new FileReader(SiftBenchConstants.DATASET_FILE))) {
+                for (int i = 0; i < line; i++) {
+                    vectorString = br.readLine();
+                    queryList.add((VectorConstant) (new VectorConstant(vectorString)));
+                }
+            }
+            catch (IOException e) {
+                e.printStackTrace();
+                throw new RuntimeException(SiftBenchConstants.DATASET_FILE + " not found.");
             }
-        }
-        catch (IOException e) {
-            e.printStackTrace();
-            throw new RuntimeException(SiftBenchConstants.DATASET_FILE + " not found.");
         }
         System.out.println("SiftParamGen: " + queryList.size() + " vectors loaded.");
+
+        if (!SiftBenchConstants.QUERY_FILE.isEmpty() && !SiftBenchConstants.GROUND_TRUTH_FILE.isEmpty()) {
+            try (VecsReader reader = new VecsReader(SiftBenchConstants.QUERY_FILE)) {
+                groundTruth = new VecsReader(SiftBenchConstants.GROUND_TRUTH_FILE);
+                for (int i = 0; i < Math.min(reader.size(), groundTruth.size()); i++) {
+                    VectorConstant query = new VectorConstant(reader.getFloats(i));
+                    fileQueries.add(query);
+                    fileQueryIds.put(query, i);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                throw new RuntimeException(SiftBenchConstants.QUERY_FILE + " or "
+                        + SiftBenchConstants.GROUND_TRUTH_FILE + " cannot be read.");
+            }
+            System.out.println("SiftParamGen: " + fileQueries.size() + " queries with ground truth loaded.");
+        }
+    }
+
+    /**
+     * Returns the ids of the k true nearest neighbors of a query drawn from
+     * the query file, or null if the query has no ground truth.
+     */
+    public static int[] trueNeighbors(VectorConstant query, int k) {
+        Integer id = fileQueryIds.get(query);
+        if (id == null)
+            return null;
+        int[] neighbors = groundTruth.getInts(id);
+        if (neighbors.length < k)
+            return null;
+        return Arrays.copyOf(neighbors, k);
     }
 
     @Override
@@ -57,7 +107,10 @@ public class SiftParamGen implements TxParamGenerator<SiftTransactionType> {
         paramList.add(SiftBenchConstants.NUM_DIMENSION);
 
         // Generate a query vector
-        query = getSingleVector(randomGenerator.number(0, 1000000 - 1));
+        if (!fileQueries.isEmpty())
+            query = fileQueries.get(randomGenerator.number(0, fileQueries.size() - 1));
+        else
+            query = getSingleVector(randomGenerator.number(0, 1000000 - 1));
         
         for (int i = 0; i < SiftBenchConstants.NUM_DIMENSION; i++) {
             paramList.add(query.get(i));
@@ -17,6 +17,7 @@ import org.vanilladb.bench.remote.sp.VanillaDbSpResultSet;
 import org.vanilladb.bench.rte.RemoteTerminalEmulator;
 import org.vanilladb.bench.rte.TransactionExecutor;
 import org.vanilladb.bench.rte.TxParamGenerator;
+import org.vanilladb.bench.server.param.sift.SiftBenchParamHelper;
 import org.vanilladb.bench.util.RandomValueGenerator;
 import org.vanilladb.core.sql.Schema;
 import org.vanilladb.core.sql.VectorConstant;
@@ -26,6 +27,8 @@ public class SiftRte extends RemoteTerminalEmulator<SiftTransactionType> {
 
     private SiftTxExecutor executor;
     private static final int precision = 100;
+    // The number of neighbors asked by a query
+    private static final int RECALL_K = new SiftBenchParamHelper().getK();
 
     static Map<VectorConstant, Set<Integer>> resultMap = new ConcurrentHashMap<>();
     static Map<VectorConstant, Integer> insertMap = new ConcurrentHashMap<>();
@@ -85,6 +88,19 @@ public class SiftRte extends RemoteTerminalEmulator<SiftTransactionType> {
             int insertCount = entry.getValue();
             Set<Integer> approximateNeighbors = resultMap.get(query);
 
+            // Skip the brute-force search if the ground truth of the query
+            // is known and no item has been inserted before the query
+            int[] knownNeighbors = insertCount == 0
+                    ? SiftParamGen.trueNeighbors(query, RECALL_K) : null;
+            if (knownNeighbors != null) {
+                int hits = 0;
+                for (int id : knownNeighbors)
+                    if (approximateNeighbors.contains(id))
+                        hits++;
+                recallList.add((double) hits / knownNeighbors.length);
+                continue;
+            }
+
             ArrayList<Object> paramList = new ArrayList<>();
             paramList.add(SiftBenchConstants.NUM_DIMENSION);
             for (int i = 0; i < SiftBenchConstants.NUM_DIMENSION; i++) {
@@ -16,19 +16,21 @@
 package org.vanilladb.bench.server.procedure;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.PriorityQueue;
+import java.util.Random;
 
 import static org.vanilladb.core.sql.RecordComparator.DIR_DESC;
 
-import org.vanilladb.bench.benchmarks.sift.SiftBenchConstants;
-import org.vanilladb.bench.util.RandomNonRepeatGenerator;
 import org.vanilladb.core.query.algebra.Plan;
 import org.vanilladb.core.query.algebra.Scan;
 import org.vanilladb.core.query.algebra.TablePlan;
 import org.vanilladb.core.query.algebra.UpdateScan;
+import org.vanilladb.core.query.algebra.vector.BatchNearestNeighborPlan;
+import org.vanilladb.core.query.algebra.vector.RerankPlan;
 import org.vanilladb.core.query.parse.InsertData;
 import org.vanilladb.core.server.VanillaDb;
 import org.vanilladb.core.sql.Constant;
@@ -40,21 +42,24 @@ import org.vanilladb.core.sql.VectorType;
 import org.vanilladb.core.sql.distfn.DistanceFn;
 import org.vanilladb.core.sql.distfn.EuclideanFn;
 import org.vanilladb.core.storage.buffer.EmptyPageFormatter;
+import org.vanilladb.core.storage.index.IndexType;
 import org.vanilladb.core.storage.index.SearchKey;
 import org.vanilladb.core.storage.index.SearchKeyType;
+import org.vanilladb.core.storage.index.ivf.IVFPQIndex;
 import org.vanilladb.core.storage.index.ivf.IVFSq8DirectIndex;
+import org.vanilladb.core.storage.index.ivf.KMeansTrainer;
+import org.vanilladb.core.storage.metadata.index.IndexInfo;
 import org.vanilladb.core.storage.record.RecordId;
 import org.vanilladb.core.storage.tx.Transaction;
 
 public class StoredProcedureUtils {
-	
-	public static Scan executeQuery(String sql, Transaction tx) {
-		Plan p = VanillaDb.newPlanner().createQueryPlan(sql, tx);
+	public static Scan executeQuery(String sql, Transaction tx, Constant... params) {
+		Plan p = VanillaDb.newPlanner().createQueryPlan(sql, tx, params);
 		return p.open();
 	}
 	
-	public static int executeUpdate(String sql, Transaction tx) {
-		return VanillaDb.newPlanner().executeUpdate(sql, tx);
+	public static int executeUpdate(String sql, Transaction tx, Constant... params) {
+		return VanillaDb.newPlanner().executeUpdate(sql, tx, params);
 	}
 
 	public static void executeTrainIndex(String tableName, List<String> idxFields, String idxName, Transaction tx) {
@@ -65,110 +70,27 @@ public class StoredProcedureUtils {
 		Type idxType = (VectorType)VanillaDb.catalogMgr().getTableInfo(tableName, tx).schema().type(field);
 		int dim = idxType.getArgument();
 
-		for (int i = 0; i < IVFSq8DirectIndex.numCentroidBlocks(new SearchKeyType(idxType)); ++i)
-			tx.bufferMgr().pinNew(idx.centroidName(), new EmptyPageFormatter());
-
-		//Initialize centroids------------------------------------------------------------------------
-		RandomNonRepeatGenerator RNRG = new RandomNonRepeatGenerator(SiftBenchConstants.NUM_ITEMS);
-		Map<Integer, Integer> M = new HashMap<>();
-		for (int i = 0; i < IVFSq8DirectIndex.NUM_CENTROIDS; ++i){
-			int random_number = RNRG.next();
-			M.put(random_number,i);
-		}
-		
-		Plan test_tp = new TablePlan(tableName, tx);
-		Scan test_ts = test_tp.open();
-		test_ts.beforeFirst();
-		while(test_ts.next()){
-			int index = (Integer)test_ts.getVal("i_id").asJavaVal();
-			if(M.containsKey(index)){
-				VectorConstant v = new VectorConstant((float[])test_ts.getVal("i_emb").asJavaVal());
-				idx.setCentroidVector(M.get(index), v);
-			}
-		}
-		test_ts.close();
-		//----------------------------------------------------------------------------------------------
-
-		//Refine centroids------------------------------------------------------------------------------
-		int iteration = 1;
-
-		for (int i = 0; i < iteration; i++){
-			System.err.print("Iteration " + i + "\n");
-			Plan tp = new TablePlan(tableName, tx);
-			Scan ts = tp.open();
-			
-			VectorConstant[] sum = new VectorConstant[IVFSq8DirectIndex.NUM_CENTROIDS];
-			for (int j = 0; j < IVFSq8DirectIndex.NUM_CENTROIDS; j++){
-				sum[j] =  VectorConstant.zeros(dim);
-			}
-
-			int [] num_of_points = new int[IVFSq8DirectIndex.NUM_CENTROIDS];
-
-			//cluster the data points
-			ts.beforeFirst();
-			while(ts.next()){
-				VectorConstant temp;	// a copy of a record of the table
-
-				// Two field:
-				// 1: i_emb(VectorConstant) 
-				// 2: i_id(IntegerConstant)
-
-				temp = (VectorConstant)ts.getVal("i_emb");
-
-				float min_dist = Float.MAX_VALUE;
-				int belongsTo = 0;
-
-				EuclideanFn fn = new EuclideanFn("i_emb"); //i don't know wtf
-				fn.setQueryVector(temp);
-				for (int j  = 0; j < IVFSq8DirectIndex.NUM_CENTROIDS; j++){
-					VectorConstant center = idx.getCentroidVector(j);
-					float distance = (float)fn.distance(center);
- 					if( distance < min_dist){
-						min_dist = distance;
-						belongsTo = j;
-					}
-				}
-
-				num_of_points[belongsTo]++;
-				sum[belongsTo] = (VectorConstant)sum[belongsTo].add(temp);
-
-				//Update centroid (Mini-batch kmeans)
-				if (((Integer)ts.getVal("i_id").asJavaVal()) % 10000 == 0){
-					VectorConstant[] avg = new VectorConstant[IVFSq8DirectIndex.NUM_CENTROIDS];
-					for(int j = 0; j < IVFSq8DirectIndex.NUM_CENTROIDS; j++){
-						System.err.print("number of points: " + num_of_points[j] + " in" + " cluster " + j + "\n");
-						avg[j] = (VectorConstant)sum[j].div_by_int(num_of_points[j]);
-					}
-					for(int j = 0; j < IVFSq8DirectIndex.NUM_CENTROIDS; j++){
-						if(num_of_points[j] != 0){
-							idx.setCentroidVector(j, avg[j]);
-						}
-					}
-				}
-
-			}
-
-			// Update centroid
-			// for(int j = 0; j < IVFSq8DirectIndex.NUM_CENTROIDS; j++){
-			// 	// System.err.print("number of points: " + num_of_points[j] + " in" + " cluster " + j + "\n");
-			// 	sum[j] = (VectorConstant)sum[j].div_by_int(num_of_points[j]);
-			// }
-			// for(int j = 0; j < IVFSq8DirectIndex.NUM_CENTROIDS; j++){
-			// 	idx.setCentroidVector(j, sum[j]);
-			// }
-			
-			ts.close();
-		}
-		//----------------------------------------------------------------------------------------------
-
+		// Train the centroids over a sample kept in memory
+		int sampleSize = KMeansTrainer.sampleSize(IVFSq8DirectIndex.NUM_CENTROIDS);
+		if (idx instanceof IVFPQIndex)
+			sampleSize = Math.max(sampleSize, KMeansTrainer.sampleSize(IVFPQIndex.NUM_CODEWORDS));
+		List<float[]> samples = sampleVectors(tableName, field, sampleSize, tx);
+		if (samples.isEmpty())
+			return;
+		KMeansTrainer trainer = new KMeansTrainer(IVFSq8DirectIndex.NUM_CENTROIDS, dim);
+		float[] centroids = trainer.train(samples.subList(0,
+				Math.min(samples.size(), KMeansTrainer.sampleSize(IVFSq8DirectIndex.NUM_CENTROIDS))));
+		idx.setCentroidVectors(centroids);
+
+		if (idx instanceof IVFPQIndex)
+			trainCodebooks((IVFPQIndex) idx, samples, dim, tx);
 
 		// Build the index
-		// Write the records into their corresponding clusters (tables)
+		// Write the records into their corresponding clusters (tables) page by page
+		IVFSq8DirectIndex.BulkLoader loader = idx.bulkLoader();
 		Plan p = new TablePlan(tableName, tx);
 		UpdateScan s = (UpdateScan)p.open();
 		s.beforeFirst();
-		// int i = 0;
-		// System.err.print(i + "/900000\r");
 		while (s.next()) {
 			// Construct a map from field names to values
 			Map<String, Constant> fldValMap = new HashMap<String, Constant>();
@@ -176,11 +98,60 @@ public class StoredProcedureUtils {
 				fldValMap.put(fldname, s.getVal(fldname));
 			RecordId rid = s.getRecordId();
 
-			idx.insert(new SearchKey(p.schema().fields(), fldValMap), rid, false);
-			// if (++i % 900 == 0)
-			// 	System.err.print(i + "/900000\r");
+			loader.insert(new SearchKey(p.schema().fields(), fldValMap), rid);
+		}
+		s.close();
+		loader.close();
+	}
+
+	/**
+	 * Draws a uniform sample of the vectors of a field by reservoir sampling.
+	 */
+	private static List<float[]> sampleVectors(String tableName, String field, int sampleSize,
+			Transaction tx) {
+		Random random = new Random();
+		List<float[]> samples = new ArrayList<float[]>(sampleSize);
+		Plan p = new TablePlan(tableName, tx);
+		Scan s = p.open();
+		s.beforeFirst();
+		for (int seen = 0; s.next(); ++seen) {
+			if (samples.size() < sampleSize)
+				samples.add((float[]) s.getVal(field).asJavaVal());
+			else {
+				int j = random.nextInt(seen + 1);
+				if (j < sampleSize)
+					samples.set(j, (float[]) s.getVal(field).asJavaVal());
+			}
 		}
 		s.close();
+		return samples;
+	}
+
+	/**
+	 * Trains the codebook of every subspace of a PQ index by running k-means
+	 * over the subvectors of the samples.
+	 */
+	private static void trainCodebooks(IVFPQIndex idx, List<float[]> samples, int dim,
+			Transaction tx) {
+		SearchKeyType keyType = new SearchKeyType(Type.VECTOR(dim));
+		for (int i = 0; i < IVFPQIndex.numCodebookBlocks(keyType); ++i)
+			tx.bufferMgr().pinNew(idx.codebookName(), new EmptyPageFormatter());
+
+		int subDim = dim / IVFPQIndex.NUM_SUBSPACES;
+		int k = IVFPQIndex.NUM_CODEWORDS;
+		int sampleSize = Math.min(samples.size(), KMeansTrainer.sampleSize(k));
+		KMeansTrainer trainer = new KMeansTrainer(k, subDim);
+		for (int m = 0; m < IVFPQIndex.NUM_SUBSPACES; m++) {
+			int from = m * subDim;
+			List<float[]> subvectors = new ArrayList<float[]>(sampleSize);
+			for (int n = 0; n < sampleSize; n++)
+				subvectors.add(Arrays.copyOfRange(samples.get(n), from, from + subDim));
+
+			float[] codewords = trainer.train(subvectors);
+			for (int j = 0; j < k; j++)
+				idx.setCodeword(m, j, new VectorConstant(
+						Arrays.copyOfRange(codewords, j * subDim, (j + 1) * subDim)));
+		}
 	}
 
 	static class MapRecord implements Record{
@@ -274,6 +245,34 @@ public class StoredProcedureUtils {
 		return s;
 	}
 
+	/**
+	 * Answers the k-nearest-neighbor queries of a batch together. The IVF
+	 * index on the field is used if there is one; the table is scanned once
+	 * otherwise. The returned scan holds the results query by query, nearest
+	 * first, with the position of the query in the field
+	 * {@link BatchNearestNeighborPlan#QUERY_ID_FIELD}.
+	 */
+	public static Scan executeBatchNearestNeighbors(String tableName, String field,
+			List<VectorConstant> queries, int limit, Transaction tx) {
+		List<DistanceFn> distFns = new ArrayList<DistanceFn>(queries.size());
+		for (VectorConstant query : queries) {
+			DistanceFn distFn = new EuclideanFn(field);
+			distFn.setQueryVector(query);
+			distFns.add(distFn);
+		}
+
+		IndexInfo ivf = null;
+		for (IndexInfo ii : VanillaDb.catalogMgr().getIndexInfo(tableName, field, tx))
+			if (ii.indexType() == IndexType.IVF_FLAT || ii.indexType() == IndexType.IVF_PQ)
+				ivf = ii;
+
+		Plan p = new BatchNearestNeighborPlan(new TablePlan(tableName, tx), ivf, distFns,
+				limit, Math.max(RerankPlan.RERANK_FACTOR, 1), tx);
+		Scan s = p.open();
+		s.beforeFirst();
+		return s;
+	}
+
 	public static int executeInsert(InsertData sql, Transaction tx) {
 		return VanillaDb.newPlanner().executeInsert(sql, tx);
 	}
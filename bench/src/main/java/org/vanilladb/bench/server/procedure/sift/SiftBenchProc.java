@@ -6,6 +6,7 @@ import java.util.Set;
 import org.vanilladb.bench.server.param.sift.SiftBenchParamHelper;
 import org.vanilladb.bench.server.procedure.StoredProcedureUtils;
 import org.vanilladb.core.query.algebra.Scan;
+import org.vanilladb.core.sql.IntegerConstant;
 import org.vanilladb.core.sql.VectorConstant;
 import org.vanilladb.core.sql.storedprocedure.StoredProcedure;
 import org.vanilladb.core.storage.tx.Transaction;
@@ -23,10 +24,11 @@ public class SiftBenchProc extends StoredProcedure<SiftBenchParamHelper> {
         Transaction tx = getTransaction();
 
         String nnQuery = "SELECT i_id FROM " + paramHelper.getTableName() + 
-            " ORDER BY " + paramHelper.getEmbeddingField() + " <EUC> " + query.toString() + " LIMIT " + paramHelper.getK();
+            " ORDER BY " + paramHelper.getEmbeddingField() + " <EUC> ? LIMIT ?";
 
         // Execute nearest neighbor search
-        Scan nearestNeighborScan = StoredProcedureUtils.executeQuery(nnQuery, tx);
+        Scan nearestNeighborScan = StoredProcedureUtils.executeQuery(nnQuery, tx, query,
+            new IntegerConstant(paramHelper.getK()));
         
         nearestNeighborScan.beforeFirst();
         
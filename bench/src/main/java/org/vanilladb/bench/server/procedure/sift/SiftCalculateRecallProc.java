@@ -8,6 +8,7 @@ import org.vanilladb.bench.benchmarks.sift.SiftBenchConstants;
 import org.vanilladb.bench.server.param.sift.SiftBenchParamHelper;
 import org.vanilladb.bench.server.procedure.StoredProcedureUtils;
 import org.vanilladb.core.query.algebra.Scan;
+import org.vanilladb.core.sql.IntegerConstant;
 import org.vanilladb.core.sql.VectorConstant;
 import org.vanilladb.core.sql.storedprocedure.StoredProcedure;
 import org.vanilladb.core.storage.tx.Transaction;
@@ -41,9 +42,8 @@ public class SiftCalculateRecallProc extends StoredProcedure<SiftBenchParamHelpe
             for (int i = 0; i < numDimension; i++) {
                 rawVector[i] = (Float) insertItem[i];
             }
-            String sql = String.format("INSERT INTO %s (i_id, %s) VALUES (%d, %s)", paramHelper.getTableName(), paramHelper.getEmbeddingField(), id, new VectorConstant(rawVector).toString());
-            // System.out.println(sql);
-            StoredProcedureUtils.executeUpdate(sql, tx);
+            String sql = String.format("INSERT INTO %s (i_id, %s) VALUES (?, ?)", paramHelper.getTableName(), paramHelper.getEmbeddingField());
+            StoredProcedureUtils.executeUpdate(sql, tx, new IntegerConstant(id), new VectorConstant(rawVector));
         }
 
         // Execute true nearest neighbor search
@@ -2,6 +2,7 @@ package org.vanilladb.bench.server.procedure.sift;
 
 import org.vanilladb.bench.server.param.sift.SiftInsertParamHelper;
 import org.vanilladb.bench.server.procedure.StoredProcedureUtils;
+import org.vanilladb.core.sql.IntegerConstant;
 import org.vanilladb.core.sql.VectorConstant;
 import org.vanilladb.core.sql.storedprocedure.StoredProcedure;
 
@@ -15,7 +16,7 @@ public class SiftInsertProc extends StoredProcedure<SiftInsertParamHelper> {
     protected void executeSql() {
         SiftInsertParamHelper paramHelper = getHelper();
         VectorConstant v = paramHelper.getNewVector();
-        String sql = "INSERT INTO sift(i_id, i_emb) VALUES (" + paramHelper.getId() + ", " + v.toString() + ")";
-        StoredProcedureUtils.executeUpdate(sql, getTransaction());
+        String sql = "INSERT INTO sift(i_id, i_emb) VALUES (?, ?)";
+        StoredProcedureUtils.executeUpdate(sql, getTransaction(), new IntegerConstant(paramHelper.getId()), v);
     }   
 }
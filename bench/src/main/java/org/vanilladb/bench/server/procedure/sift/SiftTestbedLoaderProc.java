@@ -3,20 +3,36 @@ package org.vanilladb.bench.server.procedure.sift;
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.vanilladb.bench.benchmarks.sift.SiftBenchConstants;
 import org.vanilladb.bench.server.param.sift.SiftTestbedLoaderParamHelper;
 import org.vanilladb.bench.server.procedure.StoredProcedureUtils;
+import org.vanilladb.bench.util.VecsReader;
 import org.vanilladb.core.server.VanillaDb;
+import org.vanilladb.core.sql.Constant;
+import org.vanilladb.core.sql.IntegerConstant;
+import org.vanilladb.core.sql.VectorConstant;
 import org.vanilladb.core.sql.storedprocedure.StoredProcedure;
+import org.vanilladb.core.storage.metadata.TableInfo;
+import org.vanilladb.core.storage.record.BulkLoader;
 import org.vanilladb.core.storage.tx.Transaction;
 import org.vanilladb.core.storage.tx.recovery.CheckpointTask;
 import org.vanilladb.core.storage.tx.recovery.RecoveryMgr;
 
 public class SiftTestbedLoaderProc extends StoredProcedure<SiftTestbedLoaderParamHelper> {
     private static Logger logger = Logger.getLogger(SiftTestbedLoaderProc.class.getName());
+    // The number of vectors parsed at a time, and the number of parsed
+    // batches waiting to be loaded
+    private static final int BATCH_SIZE = 1024;
+    private static final int QUEUED_BATCHES = 16;
     
     public SiftTestbedLoaderProc() {
         super(new SiftTestbedLoaderParamHelper());
@@ -29,24 +45,25 @@ public class SiftTestbedLoaderProc extends StoredProcedure<SiftTestbedLoaderPara
 
         // turn off logging set value to speed up loading process
         RecoveryMgr.enableLogging(false);
+        try {
+            dropOldData();
+            createSchemas();
 
-        dropOldData();
-        createSchemas();
+            // Generate item records
+            generateItems(0);
 
-        // Generate item records
-        generateItems(0);
+            if (logger.isLoggable(Level.INFO))
+                logger.info("Training IVF index...");
 
-        if (logger.isLoggable(Level.INFO))
-            logger.info("Training IVF index...");
-
-        StoredProcedureUtils.executeTrainIndex(getHelper().getTableName(), getHelper().getIdxFields(), 
-            getHelper().getIdxName(), getTransaction());
+            StoredProcedureUtils.executeTrainIndex(getHelper().getTableName(), getHelper().getIdxFields(), 
+                getHelper().getIdxName(), getTransaction());
+        } finally {
+            RecoveryMgr.enableLogging(true);
+        }
 
         if (logger.isLoggable(Level.INFO))
             logger.info("Loading completed. Flush all loading data to disks...");
 
-        RecoveryMgr.enableLogging(true);
-
         // Create a checkpoint
         CheckpointTask cpt = new CheckpointTask();
         cpt.createCheckpoint();
@@ -88,22 +105,117 @@ public class SiftTestbedLoaderProc extends StoredProcedure<SiftTestbedLoaderPara
         if (logger.isLoggable(Level.FINE))
             logger.info("Start populating items from SIFT1M dataset");
 
+        SiftTestbedLoaderParamHelper paramHelper = getHelper();
         Transaction tx = getTransaction();
-
-        try (BufferedReader br = new BufferedReader(new FileReader(SiftBenchConstants.DATASET_FILE))) {
+        TableInfo ti = VanillaDb.catalogMgr().getTableInfo(paramHelper.getTableName(), tx);
+
+        // Parse the dataset on another thread, while this thread fills the pages
+        BlockingQueue<List<float[]>> batches = new ArrayBlockingQueue<List<float[]>>(QUEUED_BATCHES);
+        DatasetReader reader = new DatasetReader(batches, SiftBenchConstants.NUM_ITEMS - startIId);
+        Thread readerThread = new Thread(reader, "sift-dataset-reader");
+        readerThread.setDaemon(true);
+        readerThread.start();
+
+        // The index is built by the training afterwards
+        BulkLoader loader = new BulkLoader(ti, tx);
+        try {
             int iid = startIId;
-            String vectorString;
-
-            while (iid < SiftBenchConstants.NUM_ITEMS && (vectorString = br.readLine()) != null) {
-                String sql = "INSERT INTO sift(i_id, i_emb) VALUES (" + iid + ", [" + vectorString + "])";
-                // logger.info(sql);
-                iid++;
-                StoredProcedureUtils.executeUpdate(sql, tx);
+            List<float[]> batch;
+            while (!(batch = batches.take()).isEmpty()) {
+                for (float[] vec : batch) {
+                    Map<String, Constant> fldVals = new HashMap<String, Constant>();
+                    fldVals.put("i_id", new IntegerConstant(iid++));
+                    fldVals.put("i_emb", new VectorConstant(vec));
+                    loader.insert(fldVals);
+                }
             }
-        } catch (IOException e) {
-            e.printStackTrace();
+            readerThread.join();
+        } catch (InterruptedException e) {
+            readerThread.interrupt();
+            throw new RuntimeException(e);
+        }
+        loader.close();
+        // Do not commit a partial testbed
+        if (reader.failure != null) {
+            if (logger.isLoggable(Level.SEVERE))
+                logger.log(Level.SEVERE, "Failed to read the dataset", reader.failure);
+            abort("failed to read the dataset: " + reader.failure.getMessage());
         }
+
         if (logger.isLoggable(Level.FINE))
             logger.info("Finish populating items.");
     }
+
+    /**
+     * Reads and parses the vectors of the dataset in batches. An empty batch
+     * marks the end of the dataset.
+     */
+    private static class DatasetReader implements Runnable {
+        private BlockingQueue<List<float[]>> batches;
+        private int maxItems;
+        Exception failure;
+
+        DatasetReader(BlockingQueue<List<float[]>> batches, int maxItems) {
+            this.batches = batches;
+            this.maxItems = maxItems;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (VecsReader.isVecsFile(SiftBenchConstants.DATASET_FILE))
+                    readVecs();
+                else
+                    readText();
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException | RuntimeException e) {
+                // e.g., a malformed number in a text dataset
+                failure = e;
+            }
+            try {
+                batches.put(new ArrayList<float[]>());
+            } catch (InterruptedException e) {
+                // the loader has given up
+            }
+        }
+
+        private void readVecs() throws IOException, InterruptedException {
+            try (VecsReader reader = new VecsReader(SiftBenchConstants.DATASET_FILE)) {
+                int count = Math.min(maxItems, reader.size());
+                List<float[]> batch = new ArrayList<float[]>(BATCH_SIZE);
+                for (int i = 0; i < count; i++) {
+                    batch.add(reader.getFloats(i));
+                    if (batch.size() == BATCH_SIZE) {
+                        batches.put(batch);
+                        batch = new ArrayList<float[]>(BATCH_SIZE);
+                    }
+                }
+                if (!batch.isEmpty())
+                    batches.put(batch);
+            }
+        }
+
+        private void readText() throws IOException, InterruptedException {
+            try (BufferedReader br = new BufferedReader(new FileReader(SiftBenchConstants.DATASET_FILE))) {
+                int count = 0;
+                String vectorString;
+                List<float[]> batch = new ArrayList<float[]>(BATCH_SIZE);
+                while (count < maxItems && (vectorString = br.readLine()) != null) {
+                    String[] vals = vectorString.trim().split("[,\\s]+");
+                    float[] vec = new float[vals.length];
+                    for (int i = 0; i < vals.length; i++)
+                        vec[i] = Float.parseFloat(vals[i]);
+                    batch.add(vec);
+                    count++;
+                    if (batch.size() == BATCH_SIZE) {
+                        batches.put(batch);
+                        batch = new ArrayList<float[]>(BATCH_SIZE);
+                    }
+                }
+                if (!batch.isEmpty())
+                    batches.put(batch);
+            }
+        }
+    }
 }
@@ -0,0 +1,187 @@
+/*******************************************************************************
+ * Copyright 2016, 2017 vanilladb.org contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.vanilladb.bench.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads the vectors of a file in the <code>.fvecs</code>,
+ * <code>.bvecs</code> or <code>.ivecs</code> format of the ANN benchmark
+ * datasets. Every vector is stored as its dimension, a little-endian int,
+ * followed by its components, which are little-endian floats, unsigned bytes
+ * or little-endian ints respectively. The file is memory-mapped, so the
+ * vectors are read by their indices without parsing text.
+ */
+public class VecsReader implements Closeable {
+
+	public enum Format {
+		FVECS(Float.BYTES), BVECS(1), IVECS(Integer.BYTES);
+
+		private int componentSize;
+
+		Format(int componentSize) {
+			this.componentSize = componentSize;
+		}
+	}
+
+	/**
+	 * Returns true if the file name has the extension of a binary vector
+	 * file.
+	 */
+	public static boolean isVecsFile(String fileName) {
+		return formatOf(fileName) != null;
+	}
+
+	private static Format formatOf(String fileName) {
+		String name = fileName.toLowerCase();
+		if (name.endsWith(".fvecs"))
+			return Format.FVECS;
+		if (name.endsWith(".bvecs"))
+			return Format.BVECS;
+		if (name.endsWith(".ivecs"))
+			return Format.IVECS;
+		return null;
+	}
+
+	private FileChannel channel;
+	private Format format;
+	private int dimension, size;
+	private long recordSize;
+	// A file larger than 2 GB is mapped in several regions of whole vectors
+	private int vectorsPerRegion;
+	private MappedByteBuffer[] regions;
+
+	/**
+	 * Opens a vector file. The format is given by the extension of the file.
+	 *
+	 * @param fileName
+	 *            the path of the file
+	 * @throws IOException
+	 *             if the file cannot be read or is not a vector file
+	 */
+	public VecsReader(String fileName) throws IOException {
+		format = formatOf(fileName);
+		if (format == null)
+			throw new IOException(fileName + " is not a .fvecs, .bvecs or .ivecs file");
+		channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+		long fileSize = channel.size();
+		if (fileSize == 0)
+			return;
+
+		MappedByteBuffer head = channel.map(MapMode.READ_ONLY, 0, Integer.BYTES);
+		head.order(ByteOrder.LITTLE_ENDIAN);
+		dimension = head.getInt(0);
+		recordSize = Integer.BYTES + (long) dimension * format.componentSize;
+		if (dimension <= 0 || fileSize % recordSize != 0)
+			throw new IOException(fileName + " is corrupted or not in the "
+					+ format.name().toLowerCase() + " format");
+		size = (int) (fileSize / recordSize);
+
+		vectorsPerRegion = (int) Math.min(size, Integer.MAX_VALUE / recordSize);
+		regions = new MappedByteBuffer[(size + vectorsPerRegion - 1) / vectorsPerRegion];
+	}
+
+	public Format format() {
+		return format;
+	}
+
+	/**
+	 * Returns the dimension of the vectors.
+	 */
+	public int dimension() {
+		return dimension;
+	}
+
+	/**
+	 * Returns the number of vectors in the file.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the vector at the specified index as floats. The components of
+	 * a <code>.bvecs</code> or <code>.ivecs</code> file are converted.
+	 */
+	public float[] getFloats(int index) {
+		MappedByteBuffer region = region(index);
+		int pos = position(index);
+		float[] vec = new float[dimension];
+		for (int i = 0; i < dimension; i++, pos += format.componentSize) {
+			switch (format) {
+			case FVECS:
+				vec[i] = region.getFloat(pos);
+				break;
+			case BVECS:
+				vec[i] = region.get(pos) & 0xFF;
+				break;
+			default:
+				vec[i] = region.getInt(pos);
+			}
+		}
+		return vec;
+	}
+
+	/**
+	 * Returns the vector at the specified index of an <code>.ivecs</code>
+	 * file, e.g., the ids of the true nearest neighbors of a query.
+	 */
+	public int[] getInts(int index) {
+		if (format != Format.IVECS)
+			throw new UnsupportedOperationException("not an .ivecs file");
+		MappedByteBuffer region = region(index);
+		int pos = position(index);
+		int[] vec = new int[dimension];
+		for (int i = 0; i < dimension; i++, pos += Integer.BYTES)
+			vec[i] = region.getInt(pos);
+		return vec;
+	}
+
+	@Override
+	public void close() throws IOException {
+		regions = null;
+		channel.close();
+	}
+
+	private synchronized MappedByteBuffer region(int index) {
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("" + index);
+		int r = index / vectorsPerRegion;
+		if (regions[r] == null) {
+			long start = (long) r * vectorsPerRegion * recordSize;
+			long length = Math.min(vectorsPerRegion, size - (long) r * vectorsPerRegion) * recordSize;
+			try {
+				regions[r] = channel.map(MapMode.READ_ONLY, start, length);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+			regions[r].order(ByteOrder.LITTLE_ENDIAN);
+		}
+		return regions[r];
+	}
+
+	// The position of the first component of a vector in its region
+	private int position(int index) {
+		return (int) ((index % vectorsPerRegion) * recordSize) + Integer.BYTES;
+	}
+}
@@ -17,7 +17,9 @@ package org.vanilladb.core.query.algebra;
 
 import java.util.Collection;
 
+import org.vanilladb.core.sql.ByteVectorConstant;
 import org.vanilladb.core.sql.Constant;
+import org.vanilladb.core.sql.VectorView;
 
 /**
  * The scan class corresponding to the <em>project</em> relational algebra
@@ -65,6 +67,22 @@ public class ProjectScan implements Scan {
 			throw new RuntimeException("field " + fldName + " not found.");
 	}
 
+	@Override
+	public VectorView getVectorView(String fldName) {
+		if (hasField(fldName))
+			return s.getVectorView(fldName);
+		else
+			throw new RuntimeException("field " + fldName + " not found.");
+	}
+
+	@Override
+	public ByteVectorConstant getQuantizedCode(String fldName) {
+		if (hasField(fldName))
+			return s.getQuantizedCode(fldName);
+		else
+			throw new RuntimeException("field " + fldName + " not found.");
+	}
+
 	/**
 	 * Returns true if the specified field is in the projection list.
 	 * 
@@ -15,7 +15,9 @@
  *******************************************************************************/
 package org.vanilladb.core.query.algebra;
 
+import org.vanilladb.core.sql.ByteVectorConstant;
 import org.vanilladb.core.sql.Record;
+import org.vanilladb.core.sql.VectorView;
 
 /**
  * The interface will be implemented by each query scan. There is a Scan class
@@ -52,4 +54,31 @@ public interface Scan extends Record {
 	 * @return true if the scan has that field
 	 */
 	boolean hasField(String fldName);
+
+	/**
+	 * Returns a read-only view of the vector in the specified field of the
+	 * current record, or null if the scan cannot hand out the vector without
+	 * copying it. The view is only valid until the scan moves.
+	 * 
+	 * @param fldName
+	 *            the name of the vector field
+	 * @return a view of the vector, or null
+	 */
+	default VectorView getVectorView(String fldName) {
+		return null;
+	}
+
+	/**
+	 * Returns the SQ8 code of the vector in the specified field of the
+	 * current record, or null if the scan does not read the vector from SQ8
+	 * codes. The code can be scored by a distance function without decoding
+	 * it, while {@link #getVal(String)} returns the decoded vector.
+	 * 
+	 * @param fldName
+	 *            the name of the vector field
+	 * @return the code of the vector, or null
+	 */
+	default ByteVectorConstant getQuantizedCode(String fldName) {
+		return null;
+	}
 }
@@ -15,7 +15,9 @@
  *******************************************************************************/
 package org.vanilladb.core.query.algebra;
 
+import org.vanilladb.core.sql.ByteVectorConstant;
 import org.vanilladb.core.sql.Constant;
+import org.vanilladb.core.sql.VectorView;
 import org.vanilladb.core.sql.predicate.Predicate;
 import org.vanilladb.core.storage.record.RecordId;
 
@@ -72,6 +74,16 @@ public class SelectScan implements UpdateScan {
 		return s.getVal(fldName);
 	}
 
+	@Override
+	public VectorView getVectorView(String fldName) {
+		return s.getVectorView(fldName);
+	}
+
+	@Override
+	public ByteVectorConstant getQuantizedCode(String fldName) {
+		return s.getQuantizedCode(fldName);
+	}
+
 	@Override
 	public boolean hasField(String fldName) {
 		return s.hasField(fldName);
@@ -17,6 +17,8 @@ package org.vanilladb.core.query.algebra;
 
 import org.vanilladb.core.sql.Constant;
 import org.vanilladb.core.sql.Schema;
+import org.vanilladb.core.sql.VectorType;
+import org.vanilladb.core.sql.VectorView;
 import org.vanilladb.core.storage.metadata.TableInfo;
 import org.vanilladb.core.storage.record.RecordFile;
 import org.vanilladb.core.storage.record.RecordId;
@@ -71,6 +73,14 @@ public class TableScan implements UpdateScan {
 		return rf.getVal(fldName);
 	}
 
+	@Override
+	public VectorView getVectorView(String fldName) {
+		// Only float vectors are stored in the layout of a view
+		if (!(schema.type(fldName) instanceof VectorType))
+			return null;
+		return rf.getVectorView(fldName);
+	}
+
 	@Override
 	public boolean hasField(String fldName) {
 		return schema.hasField(fldName);
@@ -24,9 +24,12 @@ import org.vanilladb.core.query.algebra.TablePlan;
 import org.vanilladb.core.query.algebra.TableScan;
 import org.vanilladb.core.sql.ConstantRange;
 import org.vanilladb.core.sql.Schema;
+import org.vanilladb.core.sql.predicate.Predicate;
 import org.vanilladb.core.storage.index.Index;
 import org.vanilladb.core.storage.index.SearchKeyType;
 import org.vanilladb.core.storage.index.SearchRange;
+import org.vanilladb.core.storage.index.hnsw.HNSWIndex;
+import org.vanilladb.core.storage.index.ivf.IVFSq8DirectIndex;
 import org.vanilladb.core.storage.metadata.index.IndexInfo;
 import org.vanilladb.core.storage.metadata.statistics.Histogram;
 import org.vanilladb.core.storage.tx.Transaction;
@@ -41,6 +44,8 @@ public class IndexSelectPlan implements Plan {
 	private Map<String, ConstantRange> searchRanges;
 	private Transaction tx;
 	private Histogram hist;
+	private int searchLimit, probeCount;
+	private Predicate filter;
 
 	/**
 	 * Creates a new index-select node in the query tree for the specified index
@@ -64,6 +69,53 @@ public class IndexSelectPlan implements Plan {
 		hist = SelectPlan.constantRangeHistogram(tp.histogram(), searchRanges);
 	}
 
+	/**
+	 * Returns the information of the index used by this plan.
+	 * 
+	 * @return the index information
+	 */
+	public IndexInfo indexInfo() {
+		return ii;
+	}
+
+	/**
+	 * Asks the index to return only the specified number of entries nearest
+	 * to the query, if it supports such a limit. The caller must not filter
+	 * the entries of an IVF index before ranking them. An HNSW index takes the
+	 * limit as the least number of entries to search for.
+	 * 
+	 * @param searchLimit
+	 *            the number of nearest entries to keep
+	 */
+	public void setSearchLimit(int searchLimit) {
+		this.searchLimit = searchLimit;
+	}
+
+	/**
+	 * Asks the index to probe the specified number of clusters, if it is
+	 * organized in clusters, instead of its default.
+	 * 
+	 * @param probeCount
+	 *            the number of clusters to probe
+	 */
+	public void setProbeCount(int probeCount) {
+		this.probeCount = probeCount;
+	}
+
+	/**
+	 * Pushes the specified predicate into the index scan, which must be an
+	 * IVF index storing the fields of the predicate. The predicate is
+	 * evaluated before the distances are computed, so a search limit keeps
+	 * the nearest entries satisfying it.
+	 * 
+	 * @param filter
+	 *            the predicate over the non-vector fields of the table
+	 */
+	public void setFilter(Predicate filter) {
+		this.filter = filter;
+		hist = SelectPlan.predHistogram(hist, filter);
+	}
+
 	/**
 	 * Creates a new index-select scan for this query
 	 * 
@@ -74,6 +126,14 @@ public class IndexSelectPlan implements Plan {
 		// throws an exception if p is not a tableplan.
 		TableScan ts = (TableScan) tp.open();
 		Index idx = ii.open(tx);
+		if (searchLimit > 0 && idx instanceof IVFSq8DirectIndex)
+			((IVFSq8DirectIndex) idx).setSearchLimit(searchLimit);
+		else if (searchLimit > 0 && idx instanceof HNSWIndex)
+			((HNSWIndex) idx).setSearchLimit(searchLimit);
+		if (probeCount > 0 && idx instanceof IVFSq8DirectIndex)
+			((IVFSq8DirectIndex) idx).setProbeCount(probeCount);
+		if (filter != null)
+			((IVFSq8DirectIndex) idx).setFilter(filter);
 		return new IndexSelectScan(idx, 
 				new SearchRange(ii.fieldNames(), schema(), searchRanges), ts);
 	}
@@ -123,7 +183,8 @@ public class IndexSelectPlan implements Plan {
 		String[] cs = c.split("\n");
 		StringBuilder sb = new StringBuilder();
 		sb.append("->");
-		sb.append("IndexSelectPlan cond:" + searchRanges.toString() + " (#blks="
+		sb.append("IndexSelectPlan cond:" + searchRanges.toString()
+				+ (filter == null ? "" : " filter:" + filter) + " (#blks="
 				+ blocksAccessed() + ", #recs=" + recordsOutput() + ")\n");
 		for (String child : cs)
 			sb.append("\t").append(child).append("\n");
@@ -18,6 +18,7 @@ package org.vanilladb.core.query.algebra.index;
 import org.vanilladb.core.query.algebra.Scan;
 import org.vanilladb.core.query.algebra.TableScan;
 import org.vanilladb.core.query.algebra.UpdateScan;
+import org.vanilladb.core.sql.ByteVectorConstant;
 import org.vanilladb.core.sql.Constant;
 import org.vanilladb.core.storage.index.Index;
 import org.vanilladb.core.storage.index.SearchRange;
@@ -103,6 +104,18 @@ public class IndexSelectScan implements UpdateScan {
 		return ts.getVal(fldName);
 	}
 
+	/**
+	 * Returns the SQ8 code of the vector field of the current entry of an IVF
+	 * index.
+	 * 
+	 * @see Scan#getQuantizedCode(java.lang.String)
+	 */
+	@Override
+	public ByteVectorConstant getQuantizedCode(String fldName) {
+		if (readIdx) return ((IVFSq8DirectIndex)idx).getCode(fldName);
+		return null;
+	}
+
 	/**
 	 * Returns whether the data record has the specified field.
 	 * 
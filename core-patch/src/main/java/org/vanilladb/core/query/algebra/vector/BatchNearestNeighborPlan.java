@@ -0,0 +1,123 @@
+package org.vanilladb.core.query.algebra.vector;
+
+import java.util.List;
+
+import org.vanilladb.core.query.algebra.Plan;
+import org.vanilladb.core.query.algebra.Scan;
+import org.vanilladb.core.query.algebra.TablePlan;
+import org.vanilladb.core.sql.Schema;
+import org.vanilladb.core.sql.Type;
+import org.vanilladb.core.sql.distfn.DistanceFn;
+import org.vanilladb.core.storage.index.SearchKeyType;
+import org.vanilladb.core.storage.index.ivf.IVFSq8DirectIndex;
+import org.vanilladb.core.storage.metadata.index.IndexInfo;
+import org.vanilladb.core.storage.metadata.statistics.Histogram;
+import org.vanilladb.core.storage.tx.Transaction;
+
+/**
+ * The {@link Plan} class that answers the k-nearest-neighbor queries of a
+ * batch together. With an IVF index, the clusters probed by several queries
+ * are scanned once for all of them, and the quantized candidates of all
+ * queries are re-ranked in one pass over their records. Without an index, the
+ * table is scanned once and every record is scored against all queries.
+ *
+ * <p>
+ * The records are returned query by query, nearest first, each with the
+ * position of its query in the batch in the field {@link #QUERY_ID_FIELD}.
+ * </p>
+ */
+public class BatchNearestNeighborPlan implements Plan {
+    /**
+     * The field holding the position of the query of a record in the batch.
+     */
+    public static final String QUERY_ID_FIELD = "query_id";
+
+    private TablePlan tp;
+    private IndexInfo ii;
+    private List<DistanceFn> distFns;
+    private int limit, factor;
+    private Transaction tx;
+    private Schema schema = new Schema();
+
+    /**
+     * Creates a plan for a batch of queries over a table.
+     *
+     * @param tp
+     *            the plan of the table
+     * @param ii
+     *            the information of an IVF index on the vector field, or null
+     *            to scan the table
+     * @param distFns
+     *            the distance functions, one per query, holding the query
+     *            vectors
+     * @param limit
+     *            the number of results per query, k
+     * @param factor
+     *            the number of quantized candidates per result, R, when an
+     *            index is used
+     * @param tx
+     *            the calling transaction
+     */
+    public BatchNearestNeighborPlan(TablePlan tp, IndexInfo ii, List<DistanceFn> distFns,
+            int limit, int factor, Transaction tx) {
+        if (limit < 1 || factor < 1)
+            throw new IllegalArgumentException("limit and factor must be positive");
+        this.tp = tp;
+        this.ii = ii;
+        this.distFns = distFns;
+        this.limit = limit;
+        this.factor = factor;
+        this.tx = tx;
+        schema.addAll(tp.schema());
+        schema.addField(QUERY_ID_FIELD, Type.INTEGER);
+    }
+
+    @Override
+    public Scan open() {
+        return new BatchNearestNeighborScan(tp, ii, distFns, limit,
+                ii == null ? limit : limit * factor, schema, tx);
+    }
+
+    /**
+     * Returns the blocks of one table scan, or, with an index, the blocks of
+     * the cluster scans plus one random access for every candidate.
+     */
+    @Override
+    public long blocksAccessed() {
+        if (ii == null)
+            return tp.blocksAccessed();
+        SearchKeyType keyType = new SearchKeyType(tp.schema(), ii.fieldNames());
+        long perQuery = IVFSq8DirectIndex.searchCost(keyType, tp.recordsOutput(), 0)
+                + (long) limit * factor;
+        return perQuery * distFns.size();
+    }
+
+    @Override
+    public Schema schema() {
+        return schema;
+    }
+
+    @Override
+    public Histogram histogram() {
+        return tp.histogram();
+    }
+
+    @Override
+    public long recordsOutput() {
+        return (long) limit * distFns.size();
+    }
+
+    @Override
+    public String toString() {
+        String c = tp.toString();
+        String[] cs = c.split("\n");
+        StringBuilder sb = new StringBuilder();
+        sb.append("->");
+        sb.append("BatchNearestNeighborPlan (#queries=" + distFns.size()
+                + (ii == null ? "" : ", index=" + ii.indexName())
+                + ", #recs=" + recordsOutput() + ")\n");
+        for (String child : cs)
+            sb.append("\t").append(child).append("\n");
+        return sb.toString();
+    }
+}
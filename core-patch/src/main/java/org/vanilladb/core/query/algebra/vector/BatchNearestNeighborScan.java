@@ -0,0 +1,189 @@
+package org.vanilladb.core.query.algebra.vector;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+import org.vanilladb.core.query.algebra.Scan;
+import org.vanilladb.core.query.algebra.TablePlan;
+import org.vanilladb.core.query.algebra.TableScan;
+import org.vanilladb.core.sql.Constant;
+import org.vanilladb.core.sql.IntegerConstant;
+import org.vanilladb.core.sql.Schema;
+import org.vanilladb.core.sql.VectorConstant;
+import org.vanilladb.core.sql.VectorView;
+import org.vanilladb.core.sql.distfn.DistanceFn;
+import org.vanilladb.core.storage.index.ivf.IVFSq8DirectIndex;
+import org.vanilladb.core.storage.metadata.index.IndexInfo;
+import org.vanilladb.core.storage.record.RecordId;
+import org.vanilladb.core.storage.tx.Transaction;
+
+/**
+ * The scan class corresponding to {@link BatchNearestNeighborPlan}. The
+ * results of all queries are computed on the first call of
+ * {@link #beforeFirst()}.
+ */
+public class BatchNearestNeighborScan implements Scan {
+
+    private static class Entry implements Comparable<Entry> {
+        double dist;
+        Constant[] vals;
+
+        Entry(double dist, Constant[] vals) {
+            this.dist = dist;
+            this.vals = vals;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            return Double.compare(dist, other.dist);
+        }
+    }
+
+    private TablePlan tp;
+    private IndexInfo ii;
+    private DistanceFn[] distFns;
+    private int limit, numCandidates;
+    private Schema schema;
+    private Transaction tx;
+    private String[] fields;
+    private Map<String, Integer> fieldIds = new HashMap<String, Integer>();
+    // A max-heap per query that evicts the farthest record
+    private List<PriorityQueue<Entry>> heaps;
+    private List<Entry> results;
+    private List<Integer> resultQueries;
+    private int current;
+
+    public BatchNearestNeighborScan(TablePlan tp, IndexInfo ii, List<DistanceFn> distFns,
+            int limit, int numCandidates, Schema schema, Transaction tx) {
+        this.tp = tp;
+        this.ii = ii;
+        this.distFns = distFns.toArray(new DistanceFn[0]);
+        this.limit = limit;
+        this.numCandidates = numCandidates;
+        this.schema = schema;
+        this.tx = tx;
+        this.fields = tp.schema().fields().toArray(new String[0]);
+        for (int i = 0; i < fields.length; i++)
+            fieldIds.put(fields[i], i);
+    }
+
+    @Override
+    public void beforeFirst() {
+        if (results == null)
+            search();
+        current = -1;
+    }
+
+    @Override
+    public boolean next() {
+        return ++current < results.size();
+    }
+
+    @Override
+    public void close() {
+        // the underlying scans are closed once the results are computed
+    }
+
+    @Override
+    public boolean hasField(String fldName) {
+        return schema.hasField(fldName);
+    }
+
+    @Override
+    public Constant getVal(String fldName) {
+        if (fldName.equals(BatchNearestNeighborPlan.QUERY_ID_FIELD))
+            return new IntegerConstant(resultQueries.get(current));
+        Integer id = fieldIds.get(fldName);
+        if (id == null)
+            throw new RuntimeException("field " + fldName + " not found.");
+        return results.get(current).vals[id];
+    }
+
+    private void search() {
+        heaps = new ArrayList<PriorityQueue<Entry>>(distFns.length);
+        for (int q = 0; q < distFns.length; q++)
+            heaps.add(new PriorityQueue<Entry>(limit + 1, Collections.reverseOrder()));
+        if (ii != null)
+            rerankCandidates();
+        else
+            scanTable();
+
+        results = new ArrayList<Entry>();
+        resultQueries = new ArrayList<Integer>();
+        for (int q = 0; q < distFns.length; q++) {
+            List<Entry> entries = new ArrayList<Entry>(heaps.get(q));
+            Collections.sort(entries);
+            results.addAll(entries);
+            for (int i = 0; i < entries.size(); i++)
+                resultQueries.add(q);
+        }
+        heaps = null;
+    }
+
+    /**
+     * Scores every record of the table against all queries.
+     */
+    private void scanTable() {
+        int[] allQueries = new int[distFns.length];
+        for (int q = 0; q < allQueries.length; q++)
+            allQueries[q] = q;
+        Scan s = tp.open();
+        s.beforeFirst();
+        while (s.next())
+            score(s, allQueries);
+        s.close();
+    }
+
+    /**
+     * Collects the quantized candidates of all queries from the index, and
+     * scores each candidate record once it is fetched against every query
+     * that selected it. The records are visited in their physical order.
+     */
+    private void rerankCandidates() {
+        List<VectorConstant> queries = new ArrayList<VectorConstant>(distFns.length);
+        for (DistanceFn distFn : distFns)
+            queries.add(distFn.getQueryVector());
+        IVFSq8DirectIndex idx = (IVFSq8DirectIndex) ii.open(tx);
+        List<List<RecordId>> candidates = idx.searchBatch(queries, numCandidates);
+        idx.close();
+
+        TreeMap<RecordId, List<Integer>> ridQueries = new TreeMap<RecordId, List<Integer>>();
+        for (int q = 0; q < candidates.size(); q++)
+            for (RecordId rid : candidates.get(q))
+                ridQueries.computeIfAbsent(rid, r -> new ArrayList<Integer>()).add(q);
+
+        TableScan ts = (TableScan) tp.open();
+        for (Map.Entry<RecordId, List<Integer>> e : ridQueries.entrySet()) {
+            ts.moveToRecordId(e.getKey());
+            score(ts, e.getValue().stream().mapToInt(Integer::intValue).toArray());
+        }
+        ts.close();
+    }
+
+    private void score(Scan s, int[] queries) {
+        String fld = distFns[0].fieldName();
+        VectorView view = s.getVectorView(fld);
+        Constant vec = view == null ? s.getVal(fld) : null;
+        Constant[] vals = null;
+        for (int q : queries) {
+            double dist = view != null ? distFns[q].distance(view) : distFns[q].distance(vec);
+            PriorityQueue<Entry> heap = heaps.get(q);
+            if (heap.size() == limit && dist >= heap.peek().dist)
+                continue;
+            // The record is read once for all the queries keeping it
+            if (vals == null) {
+                vals = new Constant[fields.length];
+                for (int i = 0; i < fields.length; i++)
+                    vals[i] = s.getVal(fields[i]);
+            }
+            heap.add(new Entry(dist, vals));
+            if (heap.size() > limit)
+                heap.poll();
+        }
+    }
+}
@@ -1,7 +1,7 @@
 package org.vanilladb.core.query.algebra.vector;
 
 import org.vanilladb.core.query.algebra.Plan;
-import org.vanilladb.core.query.algebra.materialize.InsertionSortPlan;
+import org.vanilladb.core.query.algebra.materialize.SortPlan;
 import org.vanilladb.core.query.algebra.Scan;
 import org.vanilladb.core.sql.distfn.DistanceFn;
 import org.vanilladb.core.sql.Schema;
@@ -12,7 +12,10 @@ public class NearestNeighborPlan implements Plan {
     private Plan child;
 
     public NearestNeighborPlan(Plan p, DistanceFn distFn, int limit, Transaction tx) {
-        this.child = new InsertionSortPlan(p, distFn, limit, tx);
+        if (limit > 0 && limit <= TopKPlan.MAX_K)
+            this.child = new TopKPlan(p, distFn, limit);
+        else
+            this.child = new SortPlan(p, distFn, tx);
     }
 
     @Override
@@ -40,4 +43,9 @@ public class NearestNeighborPlan implements Plan {
     public long recordsOutput() {
         return child.recordsOutput();
     }
+
+    @Override
+    public String toString() {
+        return child.toString();
+    }
 }       
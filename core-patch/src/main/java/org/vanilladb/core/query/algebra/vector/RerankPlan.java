@@ -0,0 +1,105 @@
+package org.vanilladb.core.query.algebra.vector;
+
+import org.vanilladb.core.query.algebra.Plan;
+import org.vanilladb.core.query.algebra.Scan;
+import org.vanilladb.core.query.algebra.TablePlan;
+import org.vanilladb.core.query.algebra.UpdateScan;
+import org.vanilladb.core.sql.Schema;
+import org.vanilladb.core.sql.distfn.DistanceFn;
+import org.vanilladb.core.storage.metadata.statistics.Histogram;
+import org.vanilladb.core.util.CoreProperties;
+
+/**
+ * The {@link Plan} class for re-ranking quantized nearest-neighbor candidates.
+ * It keeps the top k&times;R records of the child by their quantized vectors,
+ * fetches the original records from the base table, and returns the exact
+ * top k.
+ */
+public class RerankPlan implements Plan {
+    /**
+     * The default number of candidates per result, R.
+     */
+    public static final int RERANK_FACTOR;
+
+    static {
+        RERANK_FACTOR = CoreProperties.getLoader().getPropertyAsInteger(
+                RerankPlan.class.getName() + ".RERANK_FACTOR", 4);
+    }
+
+    private Plan child;
+    private TablePlan tp;
+    private DistanceFn candidateFn, exactFn;
+    private int limit, factor;
+
+    /**
+     * Creates a re-rank plan over the candidates produced by the child.
+     *
+     * @param p
+     *            the child plan, whose scan reports the record ids of the
+     *            base table
+     * @param tp
+     *            the plan of the base table
+     * @param candidateFn
+     *            the distance function scoring the values of the child
+     * @param exactFn
+     *            the distance function scoring the original vectors
+     * @param limit
+     *            the number of results, k
+     * @param factor
+     *            the number of candidates per result, R
+     */
+    public RerankPlan(Plan p, TablePlan tp, DistanceFn candidateFn, DistanceFn exactFn,
+            int limit, int factor) {
+        if (limit < 1 || factor < 1)
+            throw new IllegalArgumentException("limit and factor must be positive");
+        this.child = p;
+        this.tp = tp;
+        this.candidateFn = candidateFn;
+        this.exactFn = exactFn;
+        this.limit = limit;
+        this.factor = factor;
+    }
+
+    @Override
+    public Scan open() {
+        UpdateScan s = (UpdateScan) child.open();
+        return new RerankScan(s, tp, candidateFn, exactFn, limit, limit * factor);
+    }
+
+    /**
+     * Returns the accesses of the child plus one random access for every
+     * candidate fetched from the base table.
+     */
+    @Override
+    public long blocksAccessed() {
+        return child.blocksAccessed() + (long) limit * factor;
+    }
+
+    @Override
+    public Schema schema() {
+        return tp.schema();
+    }
+
+    @Override
+    public Histogram histogram() {
+        return child.histogram();
+    }
+
+    @Override
+    public long recordsOutput() {
+        return limit;
+    }
+
+    @Override
+    public String toString() {
+        String c = child.toString();
+        String[] cs = c.split("\n");
+        StringBuilder sb = new StringBuilder();
+        sb.append("->");
+        sb.append("RerankPlan (#candidates=" + (limit * factor) + ", #recs="
+                + recordsOutput() + ")\n");
+        for (String child : cs)
+            sb.append("\t").append(child).append("\n");
+        return sb.toString();
+    }
+}
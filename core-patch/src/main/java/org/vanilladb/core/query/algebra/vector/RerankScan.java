@@ -0,0 +1,131 @@
+package org.vanilladb.core.query.algebra.vector;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.vanilladb.core.query.algebra.Scan;
+import org.vanilladb.core.query.algebra.TablePlan;
+import org.vanilladb.core.query.algebra.TableScan;
+import org.vanilladb.core.query.algebra.UpdateScan;
+import org.vanilladb.core.sql.ByteVectorConstant;
+import org.vanilladb.core.sql.Constant;
+import org.vanilladb.core.sql.distfn.DistanceFn;
+import org.vanilladb.core.storage.record.RecordId;
+
+/**
+ * The scan class corresponding to {@link RerankPlan}. The candidates are
+ * collected and re-ranked on the first call of {@link #beforeFirst()}.
+ */
+public class RerankScan implements Scan {
+
+    private static class Candidate implements Comparable<Candidate> {
+        double dist;
+        RecordId rid;
+        Map<String, Constant> vals;
+
+        Candidate(double dist, RecordId rid) {
+            this.dist = dist;
+            this.rid = rid;
+        }
+
+        @Override
+        public int compareTo(Candidate other) {
+            return Double.compare(dist, other.dist);
+        }
+    }
+
+    private UpdateScan s;
+    private TablePlan tp;
+    private DistanceFn candidateFn, exactFn;
+    private int limit, numCandidates;
+    private List<Candidate> results;
+    private int current;
+
+    public RerankScan(UpdateScan s, TablePlan tp, DistanceFn candidateFn, DistanceFn exactFn,
+            int limit, int numCandidates) {
+        this.s = s;
+        this.tp = tp;
+        this.candidateFn = candidateFn;
+        this.exactFn = exactFn;
+        this.limit = limit;
+        this.numCandidates = numCandidates;
+    }
+
+    @Override
+    public void beforeFirst() {
+        if (results == null)
+            results = rerank(collectCandidates());
+        current = -1;
+    }
+
+    @Override
+    public boolean next() {
+        return ++current < results.size();
+    }
+
+    @Override
+    public void close() {
+        s.close();
+    }
+
+    @Override
+    public boolean hasField(String fldName) {
+        return tp.schema().hasField(fldName);
+    }
+
+    @Override
+    public Constant getVal(String fldName) {
+        return results.get(current).vals.get(fldName);
+    }
+
+    private List<Candidate> collectCandidates() {
+        // A max-heap that evicts the farthest candidate
+        PriorityQueue<Candidate> heap = new PriorityQueue<Candidate>(numCandidates + 1,
+                Collections.reverseOrder());
+        String fld = candidateFn.fieldName();
+        s.beforeFirst();
+        while (s.next()) {
+            // The candidates are scored by their codes if the index has them
+            ByteVectorConstant code = s.getQuantizedCode(fld);
+            double dist = code != null ? candidateFn.distance(code)
+                    : candidateFn.distance(s.getVal(fld));
+            if (heap.size() == numCandidates && dist >= heap.peek().dist)
+                continue;
+            heap.add(new Candidate(dist, s.getRecordId()));
+            if (heap.size() > numCandidates)
+                heap.poll();
+        }
+        return new ArrayList<Candidate>(heap);
+    }
+
+    private List<Candidate> rerank(List<Candidate> candidates) {
+        // Visit the records in their physical order to reduce random I/Os
+        Collections.sort(candidates, (a, b) -> {
+            int c = a.rid.block().fileName().compareTo(b.rid.block().fileName());
+            if (c != 0)
+                return c;
+            c = Long.compare(a.rid.block().number(), b.rid.block().number());
+            return c != 0 ? c : Integer.compare(a.rid.id(), b.rid.id());
+        });
+
+        TableScan ts = (TableScan) tp.open();
+        String fld = exactFn.fieldName();
+        for (Candidate cand : candidates) {
+            ts.moveToRecordId(cand.rid);
+            cand.dist = exactFn.distance(ts.getVal(fld));
+            cand.vals = new HashMap<String, Constant>();
+            for (String fldName : tp.schema().fields())
+                cand.vals.put(fldName, ts.getVal(fldName));
+        }
+        ts.close();
+
+        Collections.sort(candidates);
+        if (candidates.size() > limit)
+            return new ArrayList<Candidate>(candidates.subList(0, limit));
+        return candidates;
+    }
+}
@@ -0,0 +1,74 @@
+package org.vanilladb.core.query.algebra.vector;
+
+import org.vanilladb.core.query.algebra.Plan;
+import org.vanilladb.core.query.algebra.Scan;
+import org.vanilladb.core.sql.Schema;
+import org.vanilladb.core.sql.distfn.DistanceFn;
+import org.vanilladb.core.storage.metadata.statistics.Histogram;
+import org.vanilladb.core.util.CoreProperties;
+
+/**
+ * The {@link Plan} class that keeps the k records nearest to the query of a
+ * distance function in an in-memory bounded heap, without temp tables.
+ */
+public class TopKPlan implements Plan {
+    /**
+     * The largest k kept in memory. Larger limits fall back to sorting.
+     */
+    public static final int MAX_K;
+
+    static {
+        MAX_K = CoreProperties.getLoader().getPropertyAsInteger(
+                TopKPlan.class.getName() + ".MAX_K", 100000);
+    }
+
+    private Plan child;
+    private DistanceFn distFn;
+    private int k;
+
+    public TopKPlan(Plan p, DistanceFn distFn, int k) {
+        if (k < 1)
+            throw new IllegalArgumentException("k must be positive");
+        this.child = p;
+        this.distFn = distFn;
+        this.k = k;
+    }
+
+    @Override
+    public Scan open() {
+        return new TopKScan(child.open(), child.schema(), distFn, k);
+    }
+
+    @Override
+    public long blocksAccessed() {
+        return child.blocksAccessed();
+    }
+
+    @Override
+    public Schema schema() {
+        return child.schema();
+    }
+
+    @Override
+    public Histogram histogram() {
+        return child.histogram();
+    }
+
+    @Override
+    public long recordsOutput() {
+        return Math.min(k, child.recordsOutput());
+    }
+
+    @Override
+    public String toString() {
+        String c = child.toString();
+        String[] cs = c.split("\n");
+        StringBuilder sb = new StringBuilder();
+        sb.append("->");
+        sb.append("TopKPlan (#blks=" + blocksAccessed() + ", #recs="
+                + recordsOutput() + ")\n");
+        for (String child : cs)
+            sb.append("\t").append(child).append("\n");
+        return sb.toString();
+    }
+}
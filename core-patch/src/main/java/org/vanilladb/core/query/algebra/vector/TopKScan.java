@@ -0,0 +1,115 @@
+package org.vanilladb.core.query.algebra.vector;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.vanilladb.core.query.algebra.Scan;
+import org.vanilladb.core.sql.ByteVectorConstant;
+import org.vanilladb.core.sql.Constant;
+import org.vanilladb.core.sql.Schema;
+import org.vanilladb.core.sql.VectorView;
+import org.vanilladb.core.sql.distfn.DistanceFn;
+
+/**
+ * The scan class corresponding to {@link TopKPlan}. The child is consumed on
+ * the first call of {@link #beforeFirst()}. Only the distance is computed for
+ * a record that cannot enter the heap, over a {@link VectorView} of the page
+ * when the child scan offers one; the field values are read for the records
+ * kept.
+ */
+public class TopKScan implements Scan {
+
+    private static class Entry implements Comparable<Entry> {
+        double dist;
+        Constant[] vals;
+
+        Entry(double dist, Constant[] vals) {
+            this.dist = dist;
+            this.vals = vals;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            return Double.compare(dist, other.dist);
+        }
+    }
+
+    private Scan s;
+    private DistanceFn distFn;
+    private int k;
+    private String[] fields;
+    private Map<String, Integer> fieldIds = new HashMap<String, Integer>();
+    private Schema schema;
+    private List<Entry> results;
+    private int current;
+
+    public TopKScan(Scan s, Schema schema, DistanceFn distFn, int k) {
+        this.s = s;
+        this.schema = schema;
+        this.distFn = distFn;
+        this.k = k;
+        this.fields = schema.fields().toArray(new String[0]);
+        for (int i = 0; i < fields.length; i++)
+            fieldIds.put(fields[i], i);
+    }
+
+    @Override
+    public void beforeFirst() {
+        if (results == null)
+            results = topK();
+        current = -1;
+    }
+
+    @Override
+    public boolean next() {
+        return ++current < results.size();
+    }
+
+    @Override
+    public void close() {
+        s.close();
+    }
+
+    @Override
+    public boolean hasField(String fldName) {
+        return schema.hasField(fldName);
+    }
+
+    @Override
+    public Constant getVal(String fldName) {
+        Integer id = fieldIds.get(fldName);
+        if (id == null)
+            throw new RuntimeException("field " + fldName + " not found.");
+        return results.get(current).vals[id];
+    }
+
+    private List<Entry> topK() {
+        // A max-heap that evicts the farthest record
+        PriorityQueue<Entry> heap = new PriorityQueue<Entry>(k + 1, Collections.reverseOrder());
+        String fld = distFn.fieldName();
+        s.beforeFirst();
+        while (s.next()) {
+            // Score the vector in place if the page memory is exposed, or
+            // its code if it is read from SQ8 codes
+            VectorView view = s.getVectorView(fld);
+            ByteVectorConstant code = view == null ? s.getQuantizedCode(fld) : null;
+            double dist = view != null ? distFn.distance(view)
+                    : code != null ? distFn.distance(code) : distFn.distance(s.getVal(fld));
+            if (heap.size() == k && dist >= heap.peek().dist)
+                continue;
+            Constant[] vals = new Constant[fields.length];
+            for (int i = 0; i < fields.length; i++)
+                vals[i] = s.getVal(fields[i]);
+            heap.add(new Entry(dist, vals));
+            if (heap.size() > k)
+                heap.poll();
+        }
+        List<Entry> entries = new ArrayList<Entry>(heap);
+        Collections.sort(entries);
+        return entries;
+    }
+}
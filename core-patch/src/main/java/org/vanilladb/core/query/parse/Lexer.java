@@ -22,13 +22,69 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.vanilladb.core.util.CoreProperties;
 
 /**
  * The lexical analyzer.
  */
 public class Lexer {
+	/**
+	 * The maximum number of parameterized statements whose tokens are kept.
+	 */
+	public static final int MAX_CACHED_STATEMENTS;
+
+	static {
+		MAX_CACHED_STATEMENTS = CoreProperties.getLoader().getPropertyAsInteger(
+				Lexer.class.getName() + ".MAX_CACHED_STATEMENTS", 256);
+	}
+
+	private static class Token {
+		int ttype;
+		String sval;
+		double nval;
+	}
+
+	private static final Map<String, Token[]> statements = new ConcurrentHashMap<String, Token[]>();
+
+	/**
+	 * Returns a lexical analyzer for a parameterized statement. The statement
+	 * is tokenized once and its tokens are replayed by later analyzers of the
+	 * same statement, so a statement executed with different parameters is
+	 * lexed only once.
+	 * 
+	 * @param s
+	 *            the SQL statement
+	 * @return the lexical analyzer
+	 */
+	public static Lexer prepared(String s) {
+		Token[] tokens = statements.get(s);
+		if (tokens == null) {
+			Lexer lex = new Lexer(s);
+			List<Token> list = new ArrayList<Token>();
+			while (lex.ttype != StreamTokenizer.TT_EOF) {
+				list.add(lex.currentToken());
+				lex.nextToken();
+			}
+			tokens = list.toArray(new Token[list.size()]);
+			// Start over rather than track the usage of the statements
+			if (statements.size() >= MAX_CACHED_STATEMENTS)
+				statements.clear();
+			statements.put(s, tokens);
+		}
+		return new Lexer(tokens);
+	}
+
 	private Collection<String> keywords;
 	private StreamTokenizer tok;
+	private Token[] tokens;
+	private int nextTokenId;
+	// The current token
+	private int ttype;
+	private String sval;
+	private double nval;
 
 	/**
 	 * Creates a new lexical analyzer for the specified SQL statement.
@@ -49,6 +105,12 @@ public class Lexer {
 		nextToken();
 	}
 
+	private Lexer(Token[] tokens) {
+		initKeywords();
+		this.tokens = tokens;
+		nextToken();
+	}
+
 	/*
 	 * Methods to check the status of the current token.
 	 */
@@ -61,7 +123,7 @@ public class Lexer {
 	 * @return true if the delimiter is the current token
 	 */
 	public boolean matchDelim(char delimiter) {
-		return delimiter == (char) tok.ttype;
+		return delimiter == (char) ttype;
 	}
 
 	/**
@@ -70,7 +132,7 @@ public class Lexer {
 	 * @return true if the current token is a numeric value
 	 */
 	public boolean matchNumericConstant() {
-		return tok.ttype == StreamTokenizer.TT_NUMBER;
+		return ttype == StreamTokenizer.TT_NUMBER;
 	}
 
 	/**
@@ -79,11 +141,20 @@ public class Lexer {
 	 * @return true if the current token is a string
 	 */
 	public boolean matchStringConstant() {
-		return '\'' == (char) tok.ttype;
+		return '\'' == (char) ttype;
 	}
 
 	public boolean matchVectorConstant() {
-		return '[' == (char) tok.ttype;
+		return '[' == (char) ttype;
+	}
+
+	/**
+	 * Returns true if the current token is a parameter marker.
+	 * 
+	 * @return true if the current token is '?'
+	 */
+	public boolean matchParameter() {
+		return '?' == (char) ttype;
 	}
 
 	/**
@@ -94,8 +165,8 @@ public class Lexer {
 	 * @return true if that keyword is the current token
 	 */
 	public boolean matchKeyword(String keyword) {
-		return tok.ttype == StreamTokenizer.TT_WORD && tok.sval.equals(keyword)
-				&& keywords.contains(tok.sval);
+		return ttype == StreamTokenizer.TT_WORD && sval.equals(keyword)
+				&& keywords.contains(sval);
 	}
 
 	/**
@@ -104,8 +175,8 @@ public class Lexer {
 	 * @return true if the current token is an identifier
 	 */
 	public boolean matchId() {
-		return tok.ttype == StreamTokenizer.TT_WORD
-				&& !keywords.contains(tok.sval);
+		return ttype == StreamTokenizer.TT_WORD
+				&& !keywords.contains(sval);
 	}
 
 	/*
@@ -134,7 +205,7 @@ public class Lexer {
 	public double eatNumericConstant() {
 		if (!matchNumericConstant())
 			throw new BadSyntaxException();
-		double d = tok.nval;
+		double d = nval;
 		nextToken();
 		return d;
 	}
@@ -153,7 +224,7 @@ public class Lexer {
 		 * its token type (ttype) is the quote character. So the string
 		 * constants are not converted to lower case.
 		 */
-		String s = tok.sval;
+		String s = sval;
 		nextToken();
 		return s;
 	}
@@ -163,8 +234,8 @@ public class Lexer {
 			throw new BadSyntaxException();
 		List<Float> vector = new ArrayList<Float>();
 		nextToken();
-		while (tok.ttype != ']') {
-			vector.add((float) tok.nval);
+		while (ttype != ']') {
+			vector.add((float) nval);
 			nextToken();
 			if (matchDelim(','))
 				eatDelim(',');
@@ -173,6 +244,16 @@ public class Lexer {
 		return vector; 
 	}
 
+	/**
+	 * Throws an exception if the current token is not a parameter marker.
+	 * Otherwise, moves to the next token.
+	 */
+	public void eatParameter() {
+		if (!matchParameter())
+			throw new BadSyntaxException();
+		nextToken();
+	}
+
 	/**
 	 * Throws an exception if the current token is not the specified keyword.
 	 * Otherwise, moves to the next token.
@@ -195,17 +276,38 @@ public class Lexer {
 	public String eatId() {
 		if (!matchId())
 			throw new BadSyntaxException();
-		String s = tok.sval;
+		String s = sval;
 		nextToken();
 		return s;
 	}
 
 	private void nextToken() {
+		if (tokens != null) {
+			if (nextTokenId < tokens.length) {
+				Token t = tokens[nextTokenId++];
+				ttype = t.ttype;
+				sval = t.sval;
+				nval = t.nval;
+			} else
+				ttype = StreamTokenizer.TT_EOF;
+			return;
+		}
 		try {
 			tok.nextToken();
 		} catch (IOException e) {
 			throw new BadSyntaxException();
 		}
+		ttype = tok.ttype;
+		sval = tok.sval;
+		nval = tok.nval;
+	}
+
+	private Token currentToken() {
+		Token t = new Token();
+		t.ttype = ttype;
+		t.sval = sval;
+		t.nval = nval;
+		return t;
 	}
 
 	private void initKeywords() {
@@ -214,6 +316,6 @@ public class Lexer {
 				"int", "double", "vector", "varchar", "view", "as", "index", "on",
 				"long", "order", "by", "asc", "desc", "limit", "sum", "count", "avg",
 				"min", "max", "distinct", "group", "add", "sub", "mul", "div",
-				"explain", "using", "hash", "btree", "lsh", "ivf", "cos", "euc");
+				"explain", "using", "hash", "btree", "lsh", "ivf", "hnsw", "ivf_pq", "cos", "euc", "with");
 	}
 }
@@ -191,9 +191,23 @@ public class Parser {
 	 */
 
 	private Lexer lex;
-
-	public Parser(String s) {
-		lex = new Lexer(s);
+	private Constant[] params;
+	private int nextParam;
+
+	/**
+	 * Creates a parser for the specified statement. Each parameter marker
+	 * '?' in the statement takes the next of the specified parameters, in
+	 * place of a constant.
+	 * 
+	 * @param s
+	 *            the SQL statement
+	 * @param params
+	 *            the values of the parameter markers
+	 */
+	public Parser(String s, Constant... params) {
+		// Only parameterized statements are worth lexing once
+		lex = params.length > 0 ? Lexer.prepared(s) : new Lexer(s);
+		this.params = params;
 	}
 
 	/*
@@ -204,8 +218,27 @@ public class Parser {
 		return lex.eatId();
 	}
 
+	private Constant parameter() {
+		lex.eatParameter();
+		if (nextParam >= params.length)
+			throw new BadSyntaxException("no value bound to parameter " + (nextParam + 1));
+		return params[nextParam++];
+	}
+
+	/**
+	 * Checks that every value bound to the statement has been consumed by a
+	 * parameter marker. This method should be called after the statement is
+	 * parsed.
+	 */
+	public void checkAllParamsBound() {
+		if (nextParam < params.length)
+			throw new BadSyntaxException(params.length + " values bound to " + nextParam + " parameters");
+	}
+
 	private Constant constant() {
-		if (lex.matchStringConstant())
+		if (lex.matchParameter())
+			return parameter();
+		else if (lex.matchStringConstant())
 			return new VarcharConstant(lex.eatStringConstant());
 		else if (lex.matchVectorConstant())
 			return new VectorConstant(lex.eatVectorConstant());
@@ -213,6 +246,20 @@ public class Parser {
 			return new DoubleConstant(lex.eatNumericConstant());
 	}
 
+	/**
+	 * Parses a numeric constant, or a parameter bound to a number, as an
+	 * integer.
+	 */
+	private int intConstant() {
+		if (!lex.matchParameter())
+			return (int) lex.eatNumericConstant();
+		Object val = parameter().asJavaVal();
+		if (!(val instanceof Number))
+			throw new BadSyntaxException("a number is expected, but " + val + " is bound to parameter "
+					+ nextParam);
+		return (int) ((Number) val).doubleValue();
+	}
+
 	private Set<String> idSet() {
 		Set<String> list = new HashSet<String>();
 		do {
@@ -290,11 +337,33 @@ public class Parser {
 		int limit = -1;
 		if (lex.matchKeyword("limit")) {
 			lex.eatKeyword("limit");
-			limit = (int) lex.eatNumericConstant();
+			limit = intConstant();
+		}
+
+		// The options of the nearest-neighbor search, e.g. "with (nprobe=8, rerank=4)"
+		int probeCount = -1, rerankFactor = -1;
+		if (lex.matchKeyword("with")) {
+			lex.eatKeyword("with");
+			lex.eatDelim('(');
+			do {
+				if (lex.matchDelim(','))
+					lex.eatDelim(',');
+				String option = id();
+				lex.eatDelim('=');
+				int val = intConstant();
+				if (option.equals("nprobe") && val > 0)
+					probeCount = val;
+				else if (option.equals("rerank") && val >= 0)
+					rerankFactor = val;
+				else
+					throw new BadSyntaxException("invalid search option: " + option + "=" + val);
+			} while (lex.matchDelim(','));
+			lex.eatDelim(')');
 		}
 		
 		return new QueryData(isExplain, projs.asStringSet(), tables, pred,
-				groupFields, projs.aggregationFns(), sortFields, sortDirs, embFields, limit);
+				groupFields, projs.aggregationFns(), sortFields, sortDirs, embFields, limit,
+				probeCount, rerankFactor);
 	}
 
 	/*
@@ -424,7 +493,14 @@ public class Parser {
 					}
 					lex.eatDelim('>');
 
-					VectorConstant queryVec = new VectorConstant(lex.eatVectorConstant());
+					VectorConstant queryVec;
+					if (lex.matchParameter()) {
+						Constant param = parameter();
+						if (!(param instanceof VectorConstant))
+							throw new BadSyntaxException("the query of " + fld + " must be a vector");
+						queryVec = (VectorConstant) param;
+					} else
+						queryVec = new VectorConstant(lex.eatVectorConstant());
 					distFn.setQueryVector(queryVec);
 					embFields.add(distFn);
 				} else {
@@ -658,6 +734,12 @@ public class Parser {
 			} else if (lex.matchKeyword("ivf")) {
 				lex.eatKeyword("ivf");
 				idxType = IndexType.IVF_FLAT;
+			} else if (lex.matchKeyword("hnsw")) {
+				lex.eatKeyword("hnsw");
+				idxType = IndexType.HNSW;
+			} else if (lex.matchKeyword("ivf_pq")) {
+				lex.eatKeyword("ivf_pq");
+				idxType = IndexType.IVF_PQ;
 			} else
 				throw new UnsupportedOperationException();
 		}
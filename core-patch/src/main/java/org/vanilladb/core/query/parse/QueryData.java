@@ -40,6 +40,7 @@ public class QueryData {
 	private List<DistanceFn> embFields;
 	private boolean isExplain;
 	private int limit;
+	private int probeCount, rerankFactor;
 
 	/**
 	 * Saves the information of a SQL query.
@@ -63,6 +64,24 @@ public class QueryData {
 	 */
 	public QueryData(boolean isExplain, Set<String> projFields, Set<String> tables, Predicate pred,
 			Set<String> groupFields, Set<AggregationFn> aggFn, List<String> sortFields, List<Integer> sortDirs, List<DistanceFn> embFields, int limit) {
+		this(isExplain, projFields, tables, pred, groupFields, aggFn, sortFields, sortDirs,
+				embFields, limit, -1, -1);
+	}
+
+	/**
+	 * Saves the information of a SQL query together with the options of its
+	 * nearest-neighbor search given in the <em>with</em> clause.
+	 * 
+	 * @param probeCount
+	 *            the number of clusters probed in an IVF index, or -1 for the
+	 *            default of the index
+	 * @param rerankFactor
+	 *            the number of quantized candidates re-ranked per result, 0 to
+	 *            skip re-ranking, or -1 for the default
+	 */
+	public QueryData(boolean isExplain, Set<String> projFields, Set<String> tables, Predicate pred,
+			Set<String> groupFields, Set<AggregationFn> aggFn, List<String> sortFields, List<Integer> sortDirs,
+			List<DistanceFn> embFields, int limit, int probeCount, int rerankFactor) {
 		this.isExplain = isExplain;
 		this.projFields = projFields;
 		this.tables = tables;
@@ -73,6 +92,8 @@ public class QueryData {
 		this.sortDirs = sortDirs;
 		this.embFields = embFields;
 		this.limit = limit;
+		this.probeCount = probeCount;
+		this.rerankFactor = rerankFactor;
 	}
 
 	/**
@@ -147,6 +168,24 @@ public class QueryData {
 	public int limit() {
 		return limit;
 	}
+
+	/**
+	 * Returns the number of clusters to probe in an IVF index.
+	 * 
+	 * @return the number of clusters, or -1 if not specified
+	 */
+	public int probeCount() {
+		return probeCount;
+	}
+
+	/**
+	 * Returns the number of quantized candidates to re-rank per result.
+	 * 
+	 * @return the re-rank factor, or -1 if not specified
+	 */
+	public int rerankFactor() {
+		return rerankFactor;
+	}
 	
 	/**
 	 * Returns true if the query is an explain statement.
@@ -196,6 +235,16 @@ public class QueryData {
 			result.append(" limit " + limit);
 		}
 
+		if (probeCount != -1 || rerankFactor != -1) {
+			result.append(" with (");
+			if (probeCount != -1)
+				result.append("nprobe=" + probeCount + ", ");
+			if (rerankFactor != -1)
+				result.append("rerank=" + rerankFactor + ", ");
+			result.delete(result.length() - 2, result.length());
+			result.append(")");
+		}
+
 		return result.toString();
 	}
 }
@@ -17,6 +17,7 @@ package org.vanilladb.core.query.planner;
 
 import org.vanilladb.core.query.algebra.Plan;
 import org.vanilladb.core.query.parse.*;
+import org.vanilladb.core.sql.Constant;
 import org.vanilladb.core.storage.tx.Transaction;
 
 /**
@@ -35,16 +36,21 @@ public class Planner {
 
 	/**
 	 * Creates a plan for an SQL select statement, using the supplied planner.
+	 * The values of the parameter markers '?' are bound as they are, so that
+	 * vectors need not be formatted into and parsed out of the statement.
 	 * 
 	 * @param qry
 	 *            the SQL query string
 	 * @param tx
 	 *            the transaction
+	 * @param params
+	 *            the values of the parameter markers in the query
 	 * @return the scan corresponding to the query plan
 	 */
-	public Plan createQueryPlan(String qry, Transaction tx) {
-		Parser parser = new Parser(qry);
+	public Plan createQueryPlan(String qry, Transaction tx, Constant... params) {
+		Parser parser = new Parser(qry, params);
 		QueryData data = parser.queryCommand();
+		parser.checkAllParamsBound();
 		Verifier.verifyQueryData(data, tx);
 		return qPlanner.createPlan(data, tx);
 	}
@@ -58,13 +64,16 @@ public class Planner {
 	 *            the SQL update string
 	 * @param tx
 	 *            the transaction
+	 * @param params
+	 *            the values of the parameter markers in the command
 	 * @return an integer denoting the number of affected records
 	 */
-	public int executeUpdate(String cmd, Transaction tx) {
+	public int executeUpdate(String cmd, Transaction tx, Constant... params) {
 		if (tx.isReadOnly())
 			throw new UnsupportedOperationException();
-		Parser parser = new Parser(cmd);
+		Parser parser = new Parser(cmd, params);
 		Object obj = parser.updateCommand();
+		parser.checkAllParamsBound();
 		if (obj.getClass().equals(InsertData.class)) {
 			Verifier.verifyInsertData((InsertData) obj, tx);
 			return uPlanner.executeInsert((InsertData) obj, tx);
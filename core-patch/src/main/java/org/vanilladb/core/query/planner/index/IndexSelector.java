@@ -98,10 +98,14 @@ public class IndexSelector {
 					searchRange = pred.constantRange(fieldName);
 				else
 					searchRange = new VectorConstantRange(embField.getQueryVector().asJavaVal());
+				// A nearest-neighbor search only matches the vector indexes;
+				// a filter on scalar fields is planned by the table planner
 				if (searchRange != null && (
-						(ii.indexType() == IndexType.HASH && searchRange.isConstant())
+						(ii.indexType() == IndexType.HASH && embField == null && searchRange.isConstant())
 						|| (ii.indexType() == IndexType.IVF_FLAT && embField != null)
-						|| ii.indexType() == IndexType.BTREE))
+						|| (ii.indexType() == IndexType.HNSW && embField != null)
+						|| (ii.indexType() == IndexType.IVF_PQ && embField != null)
+						|| (ii.indexType() == IndexType.BTREE && embField == null)))
 					ranges.put(fieldName, searchRange);
 			}
 			
@@ -15,6 +15,8 @@
  *******************************************************************************/
 package org.vanilladb.core.query.planner.index;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -40,6 +42,7 @@ import org.vanilladb.core.query.planner.UpdatePlanner;
 import org.vanilladb.core.server.VanillaDb;
 import org.vanilladb.core.sql.Constant;
 import org.vanilladb.core.storage.index.Index;
+import org.vanilladb.core.storage.index.IndexType;
 import org.vanilladb.core.storage.index.SearchKey;
 import org.vanilladb.core.storage.index.ivf.IVFSq8DirectIndex;
 import org.vanilladb.core.storage.metadata.index.IndexInfo;
@@ -176,13 +179,17 @@ public class IndexUpdatePlanner implements UpdatePlanner {
 		else
 			selectPlan = new SelectPlan(selectPlan, data.pred());
 		
-		// Open all indexes associate with target fields
+		// Open all indexes associate with target fields. An IVF index keeps
+		// a copy of every field in its clusters, so it is updated whichever
+		// fields are modified.
+		Set<IndexInfo> indexes = new HashSet<IndexInfo>();
+		for (String fieldName : VanillaDb.catalogMgr().getIndexedFields(tblName, tx))
+			indexes.addAll(VanillaDb.catalogMgr().getIndexInfo(tblName, fieldName, tx));
 		Set<Index> modifiedIndexes = new HashSet<Index>();
-		for (String fieldName : data.targetFields()) {
-			List<IndexInfo> iiList = VanillaDb.catalogMgr().getIndexInfo(tblName, fieldName, tx);
-			for (IndexInfo ii : iiList)
+		for (IndexInfo ii : indexes)
+			if (ii.indexType() == IndexType.IVF_FLAT || ii.indexType() == IndexType.IVF_PQ
+					|| !Collections.disjoint(ii.fieldNames(), data.targetFields()))
 				modifiedIndexes.add(ii.open(tx));
-		}
 		
 		// Open the scan
 		UpdateScan s = (UpdateScan) selectPlan.open();
@@ -219,15 +226,18 @@ public class IndexUpdatePlanner implements UpdatePlanner {
 				// Delete the old value from the index
 				index.delete(oldKey, rid, true);
 				
-				// Construct a SearchKey for the new value
+				// Construct a SearchKey for the new value; an IVF index takes
+				// all the fields, as on insertions
+				Collection<String> keyFields = index instanceof IVFSq8DirectIndex
+						? tp.schema().fields() : index.getIndexInfo().fieldNames();
 				fldValMap = new HashMap<String, Constant>();
-				for (String fldName : index.getIndexInfo().fieldNames()) {
+				for (String fldName : keyFields) {
 					Constant newVal = newValMap.get(fldName);
 					if (newVal == null)
 						newVal = s.getVal(fldName);
 					fldValMap.put(fldName, newVal);
 				}
-				SearchKey newKey = new SearchKey(index.getIndexInfo().fieldNames(), fldValMap);
+				SearchKey newKey = new SearchKey(keyFields, fldValMap);
 				
 				// Insert the new value to the index
 				index.insert(newKey, rid, true);
@@ -25,13 +25,22 @@ import org.vanilladb.core.query.algebra.Plan;
 import org.vanilladb.core.query.algebra.SelectPlan;
 import org.vanilladb.core.query.algebra.TablePlan;
 import org.vanilladb.core.query.algebra.index.IndexJoinPlan;
+import org.vanilladb.core.query.algebra.index.IndexSelectPlan;
 import org.vanilladb.core.query.algebra.multibuffer.MultiBufferProductPlan;
 import org.vanilladb.core.query.algebra.vector.NearestNeighborPlan;
+import org.vanilladb.core.query.algebra.vector.RerankPlan;
 import org.vanilladb.core.query.planner.index.IndexSelector;
 import org.vanilladb.core.server.VanillaDb;
 import org.vanilladb.core.sql.Schema;
+import org.vanilladb.core.sql.VectorType;
 import org.vanilladb.core.sql.distfn.DistanceFn;
+import org.vanilladb.core.sql.distfn.EuclideanFn;
+import org.vanilladb.core.sql.distfn.Sq8EuclideanFn;
 import org.vanilladb.core.sql.predicate.Predicate;
+import org.vanilladb.core.storage.index.Index;
+import org.vanilladb.core.storage.index.IndexType;
+import org.vanilladb.core.storage.index.SearchKeyType;
+import org.vanilladb.core.storage.index.ivf.IVFSq8DirectIndex;
 import org.vanilladb.core.storage.metadata.index.IndexInfo;
 import org.vanilladb.core.storage.tx.Transaction;
 
@@ -48,7 +57,7 @@ class TablePlanner {
 	private int hashCode;
 
 	private DistanceFn embField;
-	private int limit;
+	private int limit, probeCount, rerankFactor;
 
 	/**
 	 * Creates a new table planner. The specified predicate applies to the
@@ -69,17 +78,33 @@ class TablePlanner {
 		this.tx = tx;
 		this.id = id;
 		this.limit = -1;
+		this.probeCount = -1;
+		this.rerankFactor = -1;
 		this.hashCode = (int) Math.pow(2, id);
 		tp = new TablePlan(tblName, tx);
 		sch = tp.schema();
 	}
 
-	public TablePlanner(String tblName, Predicate pred, List<DistanceFn> embFields, int limit, Transaction tx, int id) {
+	/**
+	 * Creates a new table planner for a nearest-neighbor query with the
+	 * specified search options.
+	 * 
+	 * @param probeCount
+	 *            the number of clusters probed in an IVF index, or -1 for the
+	 *            default of the index
+	 * @param rerankFactor
+	 *            the number of quantized candidates re-ranked per result, 0 to
+	 *            skip re-ranking, or -1 for {@link RerankPlan#RERANK_FACTOR}
+	 */
+	public TablePlanner(String tblName, Predicate pred, List<DistanceFn> embFields, int limit,
+			int probeCount, int rerankFactor, Transaction tx, int id) {
 		this.tblName = tblName;
 		this.pred = pred;
 		this.tx = tx;
 		this.id = id;
 		this.limit = limit;
+		this.probeCount = probeCount;
+		this.rerankFactor = rerankFactor;
 		this.hashCode = (int) Math.pow(2, id);
 		tp = new TablePlan(tblName, tx);
 		sch = tp.schema();
@@ -110,6 +135,27 @@ class TablePlanner {
 		return hashCode;
 	}
 
+	/**
+	 * The ways to answer a nearest-neighbor query that filters the table.
+	 */
+	private enum FilterStrategy {
+		/**
+		 * Evaluate the filter inside the scan of an IVF index, before the
+		 * distances are computed.
+		 */
+		IN_INDEX,
+		/**
+		 * Select the matching records through an index on a filtered field, and
+		 * rank them by their exact distances.
+		 */
+		PRE_FILTER,
+		/**
+		 * Scan the whole table, and rank the matching records by their exact
+		 * distances.
+		 */
+		BRUTE_FORCE
+	}
+
 	/**
 	 * Constructs a select plan for the table. The plan will use an indexselect,
 	 * if possible.
@@ -118,15 +164,127 @@ class TablePlanner {
 	 */
 	public Plan makeSelectPlan() {
 		Plan p = makeIndexSelectPlan();
+		Predicate selectPred = pred.selectPredicate(sch);
+		int factor = rerankFactor >= 0 ? rerankFactor : RerankPlan.RERANK_FACTOR;
+		boolean pushed = false;
+		if (embField != null && selectPred != null && (p == null || isIvf((IndexSelectPlan) p))) {
+			Plan scalarPlan = IndexSelector.selectByBestMatchedIndex(tblName, tp, pred, null, tx);
+			switch (chooseFilterStrategy((IndexSelectPlan) p, scalarPlan, selectPred, factor)) {
+			case IN_INDEX:
+				((IndexSelectPlan) p).setFilter(selectPred);
+				pushed = true;
+				break;
+			case PRE_FILTER:
+				p = scalarPlan;
+				break;
+			default:
+				p = null;
+			}
+		}
+
+		DistanceFn distFn = embField;
+		boolean quantized = false;
+		if (p instanceof IndexSelectPlan) {
+			IndexType idxType = ((IndexSelectPlan) p).indexInfo().indexType();
+			quantized = isIvf((IndexSelectPlan) p);
+			// An IVF index hands out SQ8 codes, which are scored without decoding
+			if (idxType == IndexType.IVF_FLAT && embField instanceof EuclideanFn)
+				distFn = new Sq8EuclideanFn(embField);
+		}
+		boolean rerank = quantized && limit > 0 && factor > 0;
+		if (quantized && probeCount > 0)
+			((IndexSelectPlan) p).setProbeCount(probeCount);
+		// The index scan can stop at the k-th best distance only when it
+		// ranks by the distance of the query and nothing is filtered after it
+		if (quantized && limit > 0 && embField instanceof EuclideanFn
+				&& (selectPred == null || pushed))
+			((IndexSelectPlan) p).setSearchLimit(rerank ? limit * factor : limit);
+		// An HNSW index searches at least as many candidates as the limit,
+		// widened by the selectivity of the predicate filtering its output
+		if (p instanceof IndexSelectPlan && limit > 0
+				&& ((IndexSelectPlan) p).indexInfo().indexType() == IndexType.HNSW)
+			((IndexSelectPlan) p).setSearchLimit(hnswSearchLimit(selectPred, factor));
 		if (p == null)
 			p = tp;
-		p =  addSelectPredicate(p);
+		if (!pushed)
+			p = addSelectPredicate(p);
 		if (embField != null) {
-			p = new NearestNeighborPlan(p, embField, limit, tx);
+			// Re-rank the quantized candidates with the original vectors
+			if (rerank)
+				p = new RerankPlan(p, tp, distFn, embField, limit, factor);
+			else
+				p = new NearestNeighborPlan(p, distFn, limit, tx);
 		}
 		return p;
 	}
 
+	/**
+	 * Returns the number of candidates an HNSW index should search for, so
+	 * that the specified predicate evaluated on them still leaves the limit.
+	 * Without the statistics of the table, the candidates are widened by the
+	 * rerank factor instead.
+	 */
+	private int hnswSearchLimit(Predicate selectPred, int factor) {
+		if (selectPred == null)
+			return limit;
+		long totRecs = tp.recordsOutput();
+		double matchRecs = SelectPlan.predHistogram(tp.histogram(), selectPred).recordsOutput();
+		if (totRecs == 0 || matchRecs < 1)
+			return limit * Math.max(factor, 1);
+		return (int) Math.min(totRecs, Math.ceil(limit * totRecs / matchRecs));
+	}
+
+	private static boolean isIvf(IndexSelectPlan p) {
+		IndexType idxType = p.indexInfo().indexType();
+		return idxType == IndexType.IVF_FLAT || idxType == IndexType.IVF_PQ;
+	}
+
+	/**
+	 * Chooses the cheapest way to answer a nearest-neighbor query with the
+	 * specified filter, based on the selectivity of the filter estimated from
+	 * the statistics of the table. Filtering inside an IVF index is only
+	 * considered if the probed clusters are expected to hold enough matching
+	 * entries to fill the candidates; otherwise its recall would suffer.
+	 */
+	private FilterStrategy chooseFilterStrategy(IndexSelectPlan ivfPlan, Plan scalarPlan,
+			Predicate selectPred, int factor) {
+		// The clusters store the vector fields only as codes
+		Schema scalarSch = new Schema();
+		for (String fldName : sch.fields())
+			if (!(sch.type(fldName) instanceof VectorType))
+				scalarSch.addField(fldName, sch.type(fldName));
+		boolean pushable = ivfPlan != null && selectPred.isApplicableTo(scalarSch);
+		long totRecs = tp.recordsOutput();
+		if (totRecs == 0)
+			// Without statistics of the table, filtering inside the index is
+			// never worse than filtering its output
+			return pushable ? FilterStrategy.IN_INDEX : FilterStrategy.BRUTE_FORCE;
+
+		FilterStrategy best = FilterStrategy.BRUTE_FORCE;
+		long bestCost = tp.blocksAccessed();
+		if (scalarPlan != null && scalarPlan.blocksAccessed() < bestCost) {
+			best = FilterStrategy.PRE_FILTER;
+			bestCost = scalarPlan.blocksAccessed();
+		}
+		if (!pushable)
+			return best;
+
+		double matchRecs = SelectPlan.predHistogram(tp.histogram(), selectPred).recordsOutput();
+		int probes = Math.min(probeCount > 0 ? probeCount : IVFSq8DirectIndex.NUM_PROBE_BUCKETS,
+				IVFSq8DirectIndex.NUM_CENTROIDS);
+		int candidates = Math.max(limit, 1) * Math.max(factor, 1);
+		if (matchRecs * probes / IVFSq8DirectIndex.NUM_CENTROIDS < candidates)
+			return best;
+
+		// The index reads its centroids once and then every probed cluster
+		IndexInfo ii = ivfPlan.indexInfo();
+		SearchKeyType keyType = new SearchKeyType(sch, ii.fieldNames());
+		long fixedCost = Index.searchCost(ii.indexType(), keyType, 0, 0);
+		long clusterCost = Math.max(Index.searchCost(ii.indexType(), keyType, totRecs, 0) - fixedCost, 1);
+		long cost = fixedCost + probes * clusterCost + (limit > 0 && factor > 0 ? candidates : 0);
+		return cost <= bestCost ? FilterStrategy.IN_INDEX : best;
+	}
+
 	/**
 	 * Constructs a join plan of the specified trunk and this table. The plan
 	 * will use an indexjoin, if possible; otherwise a multi-buffer product
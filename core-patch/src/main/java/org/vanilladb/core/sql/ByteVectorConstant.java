@@ -132,6 +132,8 @@ public class ByteVectorConstant extends Constant implements Serializable {
     public Constant castTo(Type type) {
         if (getType().equals(type))
             return this;
+        if (type instanceof VectorType)
+            return new VectorConstant(this);
         switch (type.getSqlType()) {
             case VARCHAR:
                 return new VarcharConstant(toString(), type);
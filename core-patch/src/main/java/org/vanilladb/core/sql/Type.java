@@ -59,6 +59,8 @@ public abstract class Type {
 			return VARCHAR(arg);
 		case (java.sql.Types.ARRAY):
 			return VECTOR(arg);
+		case (java.sql.Types.BINARY):
+			return BYTEVECTOR(arg);
 		}
 		throw new UnsupportedOperationException("Unspported SQL type: "
 				+ sqlType);
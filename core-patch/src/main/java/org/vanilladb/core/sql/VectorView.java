@@ -0,0 +1,68 @@
+package org.vanilladb.core.sql;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * A read-only view of a vector stored in the memory of a page. Unlike
+ * {@link VectorConstant}, the floats are not copied out of the page, so the
+ * view is only valid while the buffer holding the page stays pinned and the
+ * scan that handed it out stays on the same record. Call
+ * {@link #toConstant()} to keep the value beyond that.
+ */
+public class VectorView {
+    // Vectors are stored in the (big-endian) byte order of ByteHelper, which
+    // is also the order of a fresh read-only view
+    private static final ByteOrder ORDER = ByteOrder.BIG_ENDIAN;
+
+    private ByteBuffer bytes;
+    private int offset;
+    private int dimension;
+
+    /**
+     * Creates a view of a vector.
+     *
+     * @param bytes
+     *            a read-only buffer over the page memory
+     * @param offset
+     *            the byte offset of the first float in the buffer
+     * @param dimension
+     *            the number of floats
+     */
+    public VectorView(ByteBuffer bytes, int offset, int dimension) {
+        if (offset < 0 || offset + dimension * Float.BYTES > bytes.capacity())
+            throw new IndexOutOfBoundsException("" + offset);
+        this.bytes = bytes;
+        this.offset = offset;
+        this.dimension = dimension;
+    }
+
+    public int dimension() {
+        return dimension;
+    }
+
+    public float get(int idx) {
+        return bytes.getFloat(offset + idx * Float.BYTES);
+    }
+
+    /**
+     * Loads the lanes starting at the specified dimension directly from the
+     * page memory.
+     */
+    public FloatVector load(VectorSpecies<Float> species, int idx) {
+        return FloatVector.fromByteBuffer(species, bytes, offset + idx * Float.BYTES, ORDER);
+    }
+
+    /**
+     * Copies the vector out of the page.
+     */
+    public VectorConstant toConstant() {
+        float[] vec = new float[dimension];
+        for (int i = 0; i < dimension; i++)
+            vec[i] = get(i);
+        return new VectorConstant(vec);
+    }
+}
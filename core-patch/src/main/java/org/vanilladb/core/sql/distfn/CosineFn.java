@@ -1,8 +1,14 @@
 package org.vanilladb.core.sql.distfn;
 
 import org.vanilladb.core.sql.VectorConstant;
+import org.vanilladb.core.sql.VectorView;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
 
 public class CosineFn extends DistanceFn {
+    static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
 
     public CosineFn(String fld) {
         super(fld);
@@ -22,4 +28,30 @@ public class CosineFn extends DistanceFn {
         }
         return sum / (Math.sqrt(querySum) * Math.sqrt(vecSum));
     }
+
+    @Override
+    protected double calculateDistance(VectorView vec) {
+        float[] q = query.asJavaVal();
+        int i = 0;
+        FloatVector dot = FloatVector.zero(SPECIES);
+        FloatVector qNorm = FloatVector.zero(SPECIES);
+        FloatVector vNorm = FloatVector.zero(SPECIES);
+        for (; i < SPECIES.loopBound(vec.dimension()); i += SPECIES.length()) {
+            FloatVector v = vec.load(SPECIES, i);
+            FloatVector qv = FloatVector.fromArray(SPECIES, q, i);
+            dot = v.fma(qv, dot);
+            qNorm = qv.fma(qv, qNorm);
+            vNorm = v.fma(v, vNorm);
+        }
+        double sum = dot.reduceLanes(VectorOperators.ADD);
+        double querySum = qNorm.reduceLanes(VectorOperators.ADD);
+        double vecSum = vNorm.reduceLanes(VectorOperators.ADD);
+
+        for (; i < vec.dimension(); i++) {
+            sum += q[i] * vec.get(i);
+            querySum += q[i] * q[i];
+            vecSum += vec.get(i) * vec.get(i);
+        }
+        return sum / (Math.sqrt(querySum) * Math.sqrt(vecSum));
+    }
 }
@@ -1,6 +1,9 @@
 package org.vanilladb.core.sql.distfn;
 
+import org.vanilladb.core.sql.ByteVectorConstant;
+import org.vanilladb.core.sql.Constant;
 import org.vanilladb.core.sql.VectorConstant;
+import org.vanilladb.core.sql.VectorView;
 
 public abstract class DistanceFn {
 
@@ -27,8 +30,47 @@ public abstract class DistanceFn {
         return calculateDistance(vec);
     }
 
+    /**
+     * Returns the distance between the query and a vector still in a page.
+     * By default the vector is copied out first; subclasses may read the
+     * page memory directly.
+     */
+    public double distance(VectorView vec) {
+        if (query.dimension() != vec.dimension()) {
+            throw new IllegalArgumentException("Vector length does not match");
+        }
+        return calculateDistance(vec);
+    }
+
+    /**
+     * Returns the distance between the query and a SQ8 code. By default the
+     * code is decoded first; subclasses may score it directly.
+     */
+    public double distance(ByteVectorConstant code) {
+        return distance(new VectorConstant(code));
+    }
+
+    /**
+     * Returns the distance between the query and a SQ8 code, or infinity once
+     * the distance is known to reach the bound.
+     * Subclasses may stop accumulating the distance early.
+     */
+    public double distance(ByteVectorConstant code, double bound) {
+        return distance(code);
+    }
+
+    public double distance(Constant vec) {
+        if (vec instanceof ByteVectorConstant)
+            return distance((ByteVectorConstant) vec);
+        return distance((VectorConstant) vec);
+    }
+
     protected abstract double calculateDistance(VectorConstant vec);
 
+    protected double calculateDistance(VectorView vec) {
+        return calculateDistance(vec.toConstant());
+    }
+
     public String fieldName() {
         return fieldName;
     }
@@ -1,6 +1,7 @@
 package org.vanilladb.core.sql.distfn;
 
 import org.vanilladb.core.sql.VectorConstant;
+import org.vanilladb.core.sql.VectorView;
 import jdk.incubator.vector.FloatVector;
 import jdk.incubator.vector.VectorOperators;
 import jdk.incubator.vector.VectorSpecies;
@@ -31,5 +32,24 @@ public class EuclideanFn extends DistanceFn {
         
         return Math.sqrt(sum_d);
     }
+
+    @Override
+    protected double calculateDistance(VectorView vec) {
+        float[] q = query.asJavaVal();
+        int i = 0;
+        FloatVector sum = FloatVector.zero(SPECIES);
+        for (; i < SPECIES.loopBound(vec.dimension()); i += SPECIES.length()) {
+            FloatVector diff = vec.load(SPECIES, i).sub(FloatVector.fromArray(SPECIES, q, i));
+            sum = diff.fma(diff, sum);
+        }
+        double sum_d = sum.reduceLanes(VectorOperators.ADD);
+
+        for (; i < vec.dimension(); i++) {
+            double diff = q[i] - vec.get(i);
+            sum_d += diff * diff;
+        }
+
+        return Math.sqrt(sum_d);
+    }
     
 }
@@ -0,0 +1,109 @@
+package org.vanilladb.core.sql.distfn;
+
+import org.vanilladb.core.sql.ByteVectorConstant;
+import org.vanilladb.core.sql.VectorConstant;
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * An {@link EuclideanFn} that also scores SQ8 codes against the float query
+ * directly, without decoding them into a {@link VectorConstant} first. The
+ * byte lanes are widened into float lanes of the same count.
+ */
+public class Sq8EuclideanFn extends EuclideanFn {
+    // At least 8 float lanes, so that the byte lanes fill a 64-bit shape
+    static final VectorSpecies<Float> F_SPECIES = FloatVector.SPECIES_PREFERRED.length() >= 8
+            ? FloatVector.SPECIES_PREFERRED : FloatVector.SPECIES_256;
+    static final VectorSpecies<Byte> B_SPECIES = VectorSpecies.of(byte.class,
+            VectorShape.forBitSize(F_SPECIES.length() * Byte.SIZE));
+    // The number of dimensions accumulated between two checks of the bound
+    static final int PRUNE_INTERVAL = Math.max(32, F_SPECIES.length());
+
+    // The query shifted by -128, so that it can be compared with the
+    // signed codes directly
+    private float[] shiftedQuery;
+
+    public Sq8EuclideanFn(String fld) {
+        super(fld);
+    }
+
+    public Sq8EuclideanFn(DistanceFn distFn) {
+        super(distFn.fieldName());
+        if (distFn.getQueryVector() != null)
+            setQueryVector(distFn.getQueryVector());
+    }
+
+    @Override
+    public void setQueryVector(VectorConstant query) {
+        super.setQueryVector(query);
+        shiftedQuery = new float[query.dimension()];
+        for (int i = 0; i < shiftedQuery.length; i++)
+            shiftedQuery[i] = query.get(i) - 128;
+    }
+
+    @Override
+    public double distance(ByteVectorConstant code) {
+        // check vector dimension
+        if (query.dimension() != code.dimension()) {
+            throw new IllegalArgumentException("Vector length does not match");
+        }
+        byte[] c = code.asJavaVal();
+        int i = 0;
+        FloatVector sum = FloatVector.zero(F_SPECIES);
+        for (; i < F_SPECIES.loopBound(c.length); i += F_SPECIES.length()) {
+            FloatVector v = (FloatVector) ByteVector.fromArray(B_SPECIES, c, i)
+                    .convertShape(VectorOperators.B2F, F_SPECIES, 0);
+            FloatVector q = FloatVector.fromArray(F_SPECIES, shiftedQuery, i);
+            FloatVector diff = v.sub(q);
+            sum = diff.fma(diff, sum);
+        }
+        double sum_d = sum.reduceLanes(VectorOperators.ADD);
+
+        // deal with tail of dim % F_SPECIES.length()
+        for (; i < c.length; i++) {
+            double diff = c[i] - shiftedQuery[i];
+            sum_d += diff * diff;
+        }
+
+        return Math.sqrt(sum_d);
+    }
+
+    /**
+     * Accumulates the distance in chunks of {@link #PRUNE_INTERVAL} dimensions
+     * and gives up as soon as the partial sum reaches the squared bound.
+     */
+    @Override
+    public double distance(ByteVectorConstant code, double bound) {
+        if (query.dimension() != code.dimension()) {
+            throw new IllegalArgumentException("Vector length does not match");
+        }
+        byte[] c = code.asJavaVal();
+        if (bound == Double.POSITIVE_INFINITY || c.length <= PRUNE_INTERVAL)
+            return distance(code);
+        double squaredBound = bound * bound;
+        double sum_d = 0;
+        int i = 0;
+        int chunkBound = F_SPECIES.loopBound(c.length);
+        while (i < chunkBound) {
+            int end = Math.min(i + PRUNE_INTERVAL, chunkBound);
+            FloatVector sum = FloatVector.zero(F_SPECIES);
+            for (; i < end; i += F_SPECIES.length()) {
+                FloatVector v = (FloatVector) ByteVector.fromArray(B_SPECIES, c, i)
+                        .convertShape(VectorOperators.B2F, F_SPECIES, 0);
+                FloatVector diff = v.sub(FloatVector.fromArray(F_SPECIES, shiftedQuery, i));
+                sum = diff.fma(diff, sum);
+            }
+            sum_d += sum.reduceLanes(VectorOperators.ADD);
+            if (sum_d >= squaredBound)
+                return Double.POSITIVE_INFINITY;
+        }
+        for (; i < c.length; i++) {
+            double diff = c[i] - shiftedQuery[i];
+            sum_d += diff * diff;
+        }
+        return Math.sqrt(sum_d);
+    }
+}
@@ -83,6 +83,21 @@ public class Predicate {
 		return true;
 	}
 
+	/**
+	 * Returns true if every term of this predicate applies to the specified
+	 * schema.
+	 * 
+	 * @param sch
+	 *            the schema
+	 * @return true if the whole predicate applies to the schema
+	 */
+	public boolean isApplicableTo(Schema sch) {
+		for (Term t : terms)
+			if (!t.isApplicableTo(sch))
+				return false;
+		return true;
+	}
+
 	/**
 	 * Returns the sub-predicate that applies to the specified schema.
 	 * 
@@ -25,9 +25,11 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 import org.vanilladb.core.server.VanillaDb;
 import org.vanilladb.core.sql.Constant;
 import org.vanilladb.core.sql.Type;
+import org.vanilladb.core.sql.VectorView;
 import org.vanilladb.core.storage.file.BlockId;
 import org.vanilladb.core.storage.file.Page;
 import org.vanilladb.core.storage.log.LogSeqNum;
+import org.vanilladb.core.storage.tx.recovery.RecoveryMgr;
 
 /**
  * An individual buffer. A buffer wraps a page and stores information about its
@@ -44,6 +46,15 @@ public class Buffer {
 	 * therefore, is slightly smaller than the size of an physical block in storages. 
 	 */
 	public static final int BUFFER_SIZE = Page.BLOCK_SIZE - LogSeqNum.SIZE;
+
+	/**
+	 * The usage count of a buffer pinned with {@link BufferPriority#HIGH}.
+	 * Ordinary pins raise the count by one up to {@link #MAX_NORMAL_USAGE}.
+	 * The clock decreases the count of an unpinned buffer by one every time
+	 * it passes the buffer, and replaces the buffer once the count is zero.
+	 */
+	static final int MAX_USAGE = 5;
+	static final int MAX_NORMAL_USAGE = 3;
 	
 	private static final int LAST_LSN_OFFSET = 0;
 	private static final int DATA_START_OFFSET = LogSeqNum.SIZE;
@@ -51,11 +62,15 @@ public class Buffer {
 	private Page contents = new Page();
 	private BlockId blk = null;
 	private AtomicInteger pins = new AtomicInteger(0);
-	private AtomicBoolean isRecentlyPinned = new AtomicBoolean(false);
+	private AtomicInteger usageCount = new AtomicInteger(0);
+	private AtomicBoolean isQueuedForReuse = new AtomicBoolean(false);
 	private boolean isNew = false;
 	private boolean isModified = false;
 	// TODO: We use (-1, -1) for the default value. Will this be a problem ?
 	private LogSeqNum lastLsn = LogSeqNum.DEFAULT_VALUE;
+	// The LSN of the earliest log record that modified the page since it was
+	// last written to disk, or null if no logged modification is pending
+	private LogSeqNum recLsn = null;
 	
 	// Locks
 	private final ReadWriteLock contentLock = new ReentrantReadWriteLock();
@@ -97,6 +112,30 @@ public class Buffer {
 		}
 	}
 	
+	/**
+	 * Returns a read-only view of the vector at the specified offset of this
+	 * buffer's page. The view reads the page memory directly, so it must not
+	 * be used after the buffer is unpinned.
+	 * 
+	 * @param offset
+	 *            the byte offset of the page
+	 * @param dimension
+	 *            the dimension of the vector
+	 * 
+	 * @return a view of the vector at that offset
+	 */
+	public VectorView getVectorView(int offset, int dimension) {
+		contentLock.readLock().lock();
+		try {
+			if (offset < 0 || offset >= BUFFER_SIZE)
+				throw new IndexOutOfBoundsException("" + offset);
+
+			return contents.getVectorView(DATA_START_OFFSET + offset, dimension);
+		} finally {
+			contentLock.readLock().unlock();
+		}
+	}
+	
 	void setVal(int offset, Constant val) {
 		contentLock.writeLock().lock();
 		try {
@@ -133,6 +172,14 @@ public class Buffer {
 			
 			isModified = true;
 			
+			// A modification made without a log record of its own (e.g., a
+			// physiological one) is described by the latest log record of
+			// the transaction. Log records may reach the page out of LSN
+			// order, so the earliest one is kept.
+			LogSeqNum cand = (lsn != null) ? lsn : RecoveryMgr.lastLsnOf(txNum);
+			if (cand != null && (recLsn == null || cand.compareTo(recLsn) < 0))
+				recLsn = cand;
+			
 			if (lsn != null && lsn.compareTo(lastLsn) > 0)
 				lastLsn = lsn;
 			
@@ -164,6 +211,23 @@ public class Buffer {
 		}
 	}
 
+	/**
+	 * Returns the LSN of the first log record that modified this buffer since
+	 * its page was last written to disk, that is, the point from which the
+	 * log must be redone to restore the page after a crash. Returns null if
+	 * the page has no logged modification that is not on disk.
+	 * 
+	 * @return the recovery LSN of the buffer
+	 */
+	LogSeqNum recLsn() {
+		contentLock.readLock().lock();
+		try {
+			return recLsn;
+		} finally {
+			contentLock.readLock().unlock();
+		}
+	}
+
 	/**
 	 * Returns a block ID refers to the disk block that the buffer is pinned to. <br><br>
 	 * 
@@ -228,6 +292,7 @@ public class Buffer {
 				contents.write(blk);
 				isModified = false;
 				isNew = false;
+				recLsn = null;
 			}
 		} finally {
 			flushLock.unlock();
@@ -236,14 +301,27 @@ public class Buffer {
 	}
 
 	/**
-	 * Increases the buffer's pin count.
+	 * Increases the buffer's pin count, and raises its usage count according
+	 * to the given priority.
+	 * 
+	 * @param priority
+	 *            the priority hint of the access
 	 */
-	void pin() {
+	void pin(BufferPriority priority) {
 		// Optimization: This might be a danger optimization
 		// We have to make sure that txs have acquired swapLock before pin(),
 		// so that no two txs can call pin at the same time.
 		pins.incrementAndGet();
-		isRecentlyPinned.set(true);
+		switch (priority) {
+		case SCAN:
+			break;
+		case HIGH:
+			usageCount.set(MAX_USAGE);
+			break;
+		default:
+			if (usageCount.get() < MAX_NORMAL_USAGE)
+				usageCount.incrementAndGet();
+		}
 	}
 
 	/**
@@ -268,9 +346,43 @@ public class Buffer {
 		// so that no two txs can call isPinned at the same time.
 		return pins.get() > 0;
 	}
-	
-	boolean checkRecentlyPinnedAndReset() {
-		return isRecentlyPinned.getAndSet(false);
+
+	/**
+	 * Returns true if the block in the buffer has been reused since it was
+	 * read, that is, if it was pinned by any access other than a scan.
+	 * 
+	 * @return true if the usage count of the buffer is not zero
+	 */
+	boolean isRecentlyUsed() {
+		return usageCount.get() > 0;
+	}
+
+	/**
+	 * Marks the buffer as queued for reuse by the buffer pool. Returns false
+	 * if it is already queued.
+	 */
+	boolean markQueuedForReuse() {
+		return isQueuedForReuse.compareAndSet(false, true);
+	}
+
+	void unmarkQueuedForReuse() {
+		isQueuedForReuse.set(false);
+	}
+
+	/**
+	 * Decreases the usage count of the buffer by one when the clock passes
+	 * it. Returns true if the count was not zero, i.e., the buffer should be
+	 * kept.
+	 * 
+	 * @return true if the buffer has been used since the last sweep
+	 */
+	boolean checkRecentlyPinnedAndAge() {
+		// We have to make sure that txs have acquired swapLock before calling
+		int count = usageCount.get();
+		if (count == 0)
+			return false;
+		usageCount.set(count - 1);
+		return true;
 	}
 
 	/**
@@ -307,6 +419,7 @@ public class Buffer {
 		this.blk = blk;
 		contents.read(blk);
 		pins.set(0);
+		usageCount.set(0);
 		lastLsn = LogSeqNum.readFromPage(contents, LAST_LSN_OFFSET);
 	}
 
@@ -332,6 +445,7 @@ public class Buffer {
 		fmtr.format(this);
 		blk = contents.append(fileName);
 		pins.set(0);
+		usageCount.set(0);
 		isNew = true;
 		lastLsn = LogSeqNum.DEFAULT_VALUE;
 	}
@@ -27,6 +27,7 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.vanilladb.core.storage.file.BlockId;
+import org.vanilladb.core.storage.log.LogSeqNum;
 import org.vanilladb.core.storage.tx.Transaction;
 import org.vanilladb.core.storage.tx.TransactionLifecycleListener;
 import org.vanilladb.core.util.CoreProperties;
@@ -111,6 +112,22 @@ public class BufferMgr implements TransactionLifecycleListener {
 	 * @return the buffer pinned to that block
 	 */
 	public Buffer pin(BlockId blk) {
+		return pin(blk, BufferPriority.NORMAL);
+	}
+
+	/**
+	 * Pins a buffer to the specified block with a hint telling how likely the
+	 * block is to be accessed again, potentially waiting until a buffer
+	 * becomes available. If no buffer becomes available within a fixed time
+	 * period, then repins all currently holding blocks.
+	 * 
+	 * @param blk
+	 *            a block ID
+	 * @param priority
+	 *            the priority hint of the access
+	 * @return the buffer pinned to that block
+	 */
+	public Buffer pin(BlockId blk, BufferPriority priority) {
 		// Try to find out if this block has been pinned by this transaction
 		PinningBuffer pinnedBuff = pinningBuffers.get(blk);
 		if (pinnedBuff != null) {
@@ -129,7 +146,7 @@ public class BufferMgr implements TransactionLifecycleListener {
 			boolean waitOnce = false;
 
 			// Try to pin a buffer or the pinned buffer for the given BlockId
-			buff = bufferPool.pin(blk);
+			buff = bufferPool.pin(blk, priority);
 
 			// If there is no such buffer or no available buffer,
 			// wait for it
@@ -142,7 +159,7 @@ public class BufferMgr implements TransactionLifecycleListener {
 					while (buff == null && !waitingTooLong(timestamp)) {
 						bufferPool.wait(MAX_TIME);
 						if (waitingThreads.get(0).equals(Thread.currentThread()))
-							buff = bufferPool.pin(blk);
+							buff = bufferPool.pin(blk, priority);
 					}
 
 					waitingThreads.remove(Thread.currentThread());
@@ -154,7 +171,7 @@ public class BufferMgr implements TransactionLifecycleListener {
 			// release and re-pin all buffers it has
 			if (buff == null) {
 				repin();
-				buff = pin(blk);
+				buff = pin(blk, priority);
 			} else {
 				pinningBuffers.put(buff.block(), new PinningBuffer(buff));
 				buffersToFlush.add(buff);
@@ -274,6 +291,17 @@ public class BufferMgr implements TransactionLifecycleListener {
 		bufferPool.flushAll();
 	}
 
+	/**
+	 * Returns the dirty page table of the buffer pool, mapping each dirty
+	 * block to the LSN of the first log record that modified it since it was
+	 * last written to disk.
+	 * 
+	 * @return the dirty page table
+	 */
+	public Map<BlockId, LogSeqNum> dirtyPageTable() {
+		return bufferPool.dirtyPageTable();
+	}
+
 	/**
 	 * Flushes the dirty buffers modified by the host transaction.
 	 */
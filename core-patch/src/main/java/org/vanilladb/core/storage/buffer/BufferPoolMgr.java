@@ -15,23 +15,39 @@
  *******************************************************************************/
 package org.vanilladb.core.storage.buffer;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.vanilladb.core.server.VanillaDb;
 import org.vanilladb.core.storage.file.BlockId;
 import org.vanilladb.core.storage.file.FileMgr;
+import org.vanilladb.core.storage.log.LogSeqNum;
 
 /**
  * Manages the pinning and unpinning of buffers to blocks.
+ * 
+ * <p>
+ * Buffers are replaced by a clock with usage counts, which keeps frequently
+ * accessed blocks longer than blocks accessed once. Blocks read only by
+ * sequential scans do not raise the usage counts; their buffers are queued
+ * once unpinned and are reused before the clock is swept, so a large scan
+ * cycles through a few buffers instead of evicting the rest of the pool.
+ * </p>
  */
 class BufferPoolMgr {
 	private Buffer[] bufferPool;
 	private Map<BlockId, Buffer> blockMap;
 	private volatile int lastReplacedBuff;
 	private AtomicInteger numAvailable;
+	// The unpinned buffers holding blocks that have been read only by scans
+	private Queue<Buffer> scannedBuffs = new ConcurrentLinkedQueue<Buffer>();
 	
 	// Optimization: Lock striping
 	private static final int stripSize = 1009;
@@ -105,15 +121,72 @@ class BufferPoolMgr {
 		}
 	}
 
+	/**
+	 * Returns the dirty page table, mapping every block whose buffer holds
+	 * logged modifications not yet on disk to the recovery LSN of the buffer.
+	 * The buffers are not locked as a whole, so the table is only a snapshot
+	 * of each buffer at the moment it is visited.
+	 * 
+	 * @return the dirty page table
+	 */
+	Map<BlockId, LogSeqNum> dirtyPageTable() {
+		Map<BlockId, LogSeqNum> dpt = new HashMap<BlockId, LogSeqNum>();
+		for (Buffer buff : bufferPool) {
+			BlockId blk = buff.block();
+			LogSeqNum recLsn = buff.recLsn();
+			if (blk != null && recLsn != null)
+				dpt.put(blk, recLsn);
+		}
+		return dpt;
+	}
+
+	/**
+	 * Flushes at most the specified number of dirty buffers, starting from
+	 * the one with the oldest recovery LSN, so that the point from which the
+	 * log must be redone moves forward.
+	 * 
+	 * @param maxBuffs the maximal number of buffers to flush
+	 * @return the number of buffers flushed
+	 */
+	int flushOldest(int maxBuffs) {
+		List<Buffer> dirtyBuffs = new ArrayList<Buffer>();
+		Map<Buffer, LogSeqNum> recLsns = new HashMap<Buffer, LogSeqNum>();
+		for (Buffer buff : bufferPool) {
+			LogSeqNum recLsn = buff.recLsn();
+			if (recLsn != null) {
+				dirtyBuffs.add(buff);
+				recLsns.put(buff, recLsn);
+			}
+		}
+		dirtyBuffs.sort((a, b) -> recLsns.get(a).compareTo(recLsns.get(b)));
+
+		int flushed = 0;
+		for (int i = 0; i < dirtyBuffs.size() && flushed < maxBuffs; i++) {
+			Buffer buff = dirtyBuffs.get(i);
+			try {
+				buff.getSwapLock().lock();
+				// The buffer may have been flushed or replaced meanwhile
+				if (buff.recLsn() == null)
+					continue;
+				buff.flush();
+				flushed++;
+			} finally {
+				buff.getSwapLock().unlock();
+			}
+		}
+		return flushed;
+	}
+
 	/**
 	 * Pins a buffer to the specified block. If there is already a buffer assigned
 	 * to that block then that buffer is used; otherwise, an unpinned buffer from
 	 * the pool is chosen. Returns a null value if there are no available buffers.
 	 * 
-	 * @param blk a block ID
+	 * @param blk      a block ID
+	 * @param priority the priority hint of the access
 	 * @return the pinned buffer
 	 */
-	Buffer pin(BlockId blk) {
+	Buffer pin(BlockId blk, BufferPriority priority) {
 		// The blockLatch prevents race condition.
 		// Only one tx can trigger the swapping action for the same block.
 		ReentrantLock blockLatch;
@@ -134,40 +207,26 @@ class BufferPoolMgr {
 			if (buff == null) {
 
 				// Choose Unpinned Buffer
-				int lastReplacedBuff = this.lastReplacedBuff;
-				int currBlk = (lastReplacedBuff + 1) % bufferPool.length;
-				// Note: this check will fail if there is only one buffer
-				while (currBlk != lastReplacedBuff) {
-					buff = bufferPool[currBlk];
-
-					// Get the lock of buffer if it is free
-					if (buff.getSwapLock().tryLock()) {
-						try {
-							// Check if there is no one use it
-							if (!buff.isPinned() && !buff.checkRecentlyPinnedAndReset()) {
-								this.lastReplacedBuff = currBlk;
-
-								// Swap
-								BlockId oldBlk = buff.block();
-								if (oldBlk != null)
-									blockMap.remove(oldBlk);
-								buff.assignToBlock(blk);
-								blockMap.put(blk, buff);
-								if (!buff.isPinned())
-									numAvailable.decrementAndGet();
-
-								// Pin this buffer
-								buff.pin();
-								return buff;
-							}
-						} finally {
-							// Release the lock of buffer
-							buff.getSwapLock().unlock();
-						}
-					}
-					currBlk = (currBlk + 1) % bufferPool.length;
+				buff = chooseUnpinnedBuffer();
+				if (buff == null)
+					return null;
+				try {
+					// Swap
+					BlockId oldBlk = buff.block();
+					if (oldBlk != null)
+						blockMap.remove(oldBlk);
+					buff.assignToBlock(blk);
+					blockMap.put(blk, buff);
+					if (!buff.isPinned())
+						numAvailable.decrementAndGet();
+
+					// Pin this buffer
+					buff.pin(priority);
+					return buff;
+				} finally {
+					// Release the lock of buffer
+					buff.getSwapLock().unlock();
 				}
-				return null;
 
 			// If it exists
 			} else {
@@ -185,10 +244,10 @@ class BufferPoolMgr {
 					if (buff.block().equals(blk)) {
 						if (!buff.isPinned())
 							numAvailable.decrementAndGet();
-						buff.pin();
+						buff.pin(priority);
 						return buff;
 					}
-					return pin(blk);
+					return pin(blk, priority);
 
 				} finally {
 					// Release the lock of buffer
@@ -218,38 +277,26 @@ class BufferPoolMgr {
 		fileLock.lock();
 		try {
 			// Choose Unpinned Buffer
-			int lastReplacedBuff = this.lastReplacedBuff;
-			int currBlk = (lastReplacedBuff + 1) % bufferPool.length;
-			while (currBlk != lastReplacedBuff) {
-				Buffer buff = bufferPool[currBlk];
-
-				// Get the lock of buffer if it is free
-				if (buff.getSwapLock().tryLock()) {
-					try {
-						if (!buff.isPinned() && !buff.checkRecentlyPinnedAndReset()) {
-							this.lastReplacedBuff = currBlk;
-
-							// Swap
-							BlockId oldBlk = buff.block();
-							if (oldBlk != null)
-								blockMap.remove(oldBlk);
-							buff.assignToNew(fileName, fmtr);
-							blockMap.put(buff.block(), buff);
-							if (!buff.isPinned())
-								numAvailable.decrementAndGet();
-
-							// Pin this buffer
-							buff.pin();
-							return buff;
-						}
-					} finally {
-						// Release the lock of buffer
-						buff.getSwapLock().unlock();
-					}
-				}
-				currBlk = (currBlk + 1) % bufferPool.length;
+			Buffer buff = chooseUnpinnedBuffer();
+			if (buff == null)
+				return null;
+			try {
+				// Swap
+				BlockId oldBlk = buff.block();
+				if (oldBlk != null)
+					blockMap.remove(oldBlk);
+				buff.assignToNew(fileName, fmtr);
+				blockMap.put(buff.block(), buff);
+				if (!buff.isPinned())
+					numAvailable.decrementAndGet();
+
+				// Pin this buffer
+				buff.pin(BufferPriority.NORMAL);
+				return buff;
+			} finally {
+				// Release the lock of buffer
+				buff.getSwapLock().unlock();
 			}
-			return null;
 		} finally {
 			fileLock.unlock();
 		}
@@ -266,8 +313,11 @@ class BufferPoolMgr {
 				// Get the lock of buffer
 				buff.getSwapLock().lock();
 				buff.unpin();
-				if (!buff.isPinned())
+				if (!buff.isPinned()) {
 					numAvailable.incrementAndGet();
+					if (!buff.isRecentlyUsed() && buff.markQueuedForReuse())
+						scannedBuffs.add(buff);
+				}
 			} finally {
 				// Release the lock of buffer
 				buff.getSwapLock().unlock();
@@ -284,6 +334,48 @@ class BufferPoolMgr {
 		return numAvailable.get();
 	}
 
+	/**
+	 * Chooses an unpinned buffer to be replaced and returns it with its swap
+	 * lock held. The buffers holding only scanned blocks are reused first;
+	 * otherwise, the clock is swept, aging every unpinned buffer it passes,
+	 * until a buffer with a zero usage count is found. Returns null if every
+	 * buffer stays pinned or in use for a full aging of the pool.
+	 */
+	private Buffer chooseUnpinnedBuffer() {
+		Buffer buff;
+		while ((buff = scannedBuffs.poll()) != null) {
+			buff.unmarkQueuedForReuse();
+			// The buffer might have been pinned or reused since it was queued
+			if (buff.getSwapLock().tryLock()) {
+				if (!buff.isPinned() && !buff.isRecentlyUsed())
+					return buff;
+				buff.getSwapLock().unlock();
+			}
+		}
+
+		// Every usage count drops to zero within MAX_USAGE + 1 rounds
+		int currBlk = this.lastReplacedBuff;
+		long maxSteps = (long) bufferPool.length * (Buffer.MAX_USAGE + 1);
+		for (long step = 0; step < maxSteps; step++) {
+			// Stop sweeping if there is no unpinned buffer at all
+			if (numAvailable.get() <= 0)
+				return null;
+			currBlk = (currBlk + 1) % bufferPool.length;
+			buff = bufferPool[currBlk];
+
+			// Get the lock of buffer if it is free
+			if (buff.getSwapLock().tryLock()) {
+				// Check if there is no one use it
+				if (!buff.isPinned() && !buff.checkRecentlyPinnedAndAge()) {
+					this.lastReplacedBuff = currBlk;
+					return buff;
+				}
+				buff.getSwapLock().unlock();
+			}
+		}
+		return null;
+	}
+
 	private Buffer findExistingBuffer(BlockId blk) {
 		return blockMap.get(blk);
 	}
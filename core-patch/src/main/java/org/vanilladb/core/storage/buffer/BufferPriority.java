@@ -0,0 +1,44 @@
+/*******************************************************************************
+ * Copyright 2016, 2017 vanilladb.org contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.vanilladb.core.storage.buffer;
+
+/**
+ * A hint given when pinning a block, telling the buffer pool how likely the
+ * block is to be accessed again. The hint decides how long the buffer stays
+ * resident after it is unpinned.
+ */
+public enum BufferPriority {
+	/**
+	 * The block is read once by a sequential scan over a large file. The
+	 * access does not count as a reuse of the block, and a buffer holding
+	 * only such accesses is the first to be replaced once unpinned, so that
+	 * the scan recycles its own buffers instead of flushing the pool.
+	 */
+	SCAN,
+
+	/**
+	 * An ordinary access. Every access raises the usage count of the buffer,
+	 * so frequently accessed blocks survive more sweeps of the clock.
+	 */
+	NORMAL,
+
+	/**
+	 * The block holds metadata read by almost every access to a structure,
+	 * such as the centroids of an IVF index. The usage count of the buffer
+	 * is raised to the maximum.
+	 */
+	HIGH
+}
@@ -0,0 +1,58 @@
+/*******************************************************************************
+ * Copyright 2016, 2017 vanilladb.org contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.vanilladb.core.storage.buffer;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.vanilladb.core.server.task.Task;
+import org.vanilladb.core.util.CoreProperties;
+
+/**
+ * The task that writes dirty buffers to disk in the background. Every
+ * {@link #PERIOD} milliseconds, it flushes at most {@link #BATCH_SIZE} dirty
+ * buffers, oldest recovery LSN first. Fuzzy checkpoints do not flush the
+ * buffer pool, so it is the cleaner that moves the point from which recovery
+ * redoes the log forward.
+ */
+public class PageCleaner extends Task {
+	private static Logger logger = Logger.getLogger(PageCleaner.class.getName());
+
+	private static final long PERIOD;
+	private static final int BATCH_SIZE;
+
+	static {
+		PERIOD = CoreProperties.getLoader().getPropertyAsLong(
+				PageCleaner.class.getName() + ".PERIOD", 1000);
+		BATCH_SIZE = CoreProperties.getLoader().getPropertyAsInteger(
+				PageCleaner.class.getName() + ".BATCH_SIZE", 256);
+	}
+
+	@Override
+	public void run() {
+		Thread.currentThread().setName("page-cleaner");
+		while (true) {
+			try {
+				Thread.sleep(PERIOD);
+			} catch (InterruptedException e) {
+				return;
+			}
+			int flushed = BufferMgr.bufferPool.flushOldest(BATCH_SIZE);
+			if (flushed > 0 && logger.isLoggable(Level.FINE))
+				logger.fine("flushed " + flushed + " dirty buffers");
+		}
+	}
+}
@@ -20,6 +20,7 @@ import java.nio.BufferOverflowException;
 import org.vanilladb.core.server.VanillaDb;
 import org.vanilladb.core.sql.Constant;
 import org.vanilladb.core.sql.Type;
+import org.vanilladb.core.sql.VectorView;
 import org.vanilladb.core.storage.file.io.IoAllocator;
 import org.vanilladb.core.storage.file.io.IoBuffer;
 import org.vanilladb.core.util.ByteHelper;
@@ -167,6 +168,22 @@ public class Page {
 		return Constant.newInstance(type, byteVal);
 	}
 
+	/**
+	 * Returns a read-only view of the vector at a specified offset of this
+	 * page, without copying it out of the page.
+	 * 
+	 * @param offset
+	 *            the byte offset within the page
+	 * 
+	 * @param dimension
+	 *            the dimension of the vector
+	 * 
+	 * @return a view that is valid until the page is overwritten
+	 */
+	public synchronized VectorView getVectorView(int offset, int dimension) {
+		return new VectorView(contents.asReadOnlyBuffer(), offset, dimension);
+	}
+
 	/**
 	 * Writes a constant value to the specified offset on the page.
 	 * 
@@ -194,6 +211,23 @@ public class Page {
 		contents.put(offset, byteval);
 	}
 
+	/**
+	 * Replaces the contents of this page with a copy of those of the specified
+	 * page. The source page is locked only while its bytes are copied out.
+	 *
+	 * @param src
+	 *            the page to be copied
+	 */
+	public void copyFrom(Page src) {
+		byte[] bytes = new byte[BLOCK_SIZE];
+		synchronized (src) {
+			src.contents.get(0, bytes);
+		}
+		synchronized (this) {
+			contents.put(0, bytes);
+		}
+	}
+
 	/**
 	 * Close this page to release resources.
 	 */
@@ -15,6 +15,8 @@
  *******************************************************************************/
 package org.vanilladb.core.storage.file.io;
 
+import java.nio.ByteBuffer;
+
 public interface IoBuffer {
 
 	IoBuffer get(int position, byte[] dst);
@@ -27,4 +29,13 @@ public interface IoBuffer {
 
 	void close();
 
+	/**
+	 * Returns a read-only view sharing the memory of this buffer. The view is
+	 * meant for absolute reads; its position and limit are independent of this
+	 * buffer.
+	 * 
+	 * @return a read-only byte buffer over the whole capacity
+	 */
+	ByteBuffer asReadOnlyBuffer();
+
 }
@@ -22,6 +22,7 @@ import org.vanilladb.core.storage.file.io.IoBuffer;
 public class JavaNioByteBuffer implements IoBuffer {
 
 	private ByteBuffer byteBuffer;
+	private ByteBuffer readOnlyView;
 	
 	public JavaNioByteBuffer(int capacity) {
 		byteBuffer = ByteBuffer.allocateDirect(capacity);
@@ -56,6 +57,13 @@ public class JavaNioByteBuffer implements IoBuffer {
 		// do nothing
 	}
 	
+	@Override
+	public ByteBuffer asReadOnlyBuffer() {
+		if (readOnlyView == null)
+			readOnlyView = byteBuffer.asReadOnlyBuffer();
+		return readOnlyView;
+	}
+	
 	ByteBuffer getByteBuffer() {
 		return byteBuffer;
 	}
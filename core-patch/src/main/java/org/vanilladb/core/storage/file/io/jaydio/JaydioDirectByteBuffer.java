@@ -15,6 +15,8 @@
  *******************************************************************************/
 package org.vanilladb.core.storage.file.io.jaydio;
 
+import java.nio.ByteBuffer;
+
 import net.smacke.jaydio.DirectIoLib;
 import net.smacke.jaydio.buffer.AlignedDirectByteBuffer;
 
@@ -24,6 +26,7 @@ import org.vanilladb.core.storage.file.io.IoBuffer;
 public class JaydioDirectByteBuffer implements IoBuffer {
 
 	private AlignedDirectByteBuffer byteBuffer;
+	private ByteBuffer readOnlyView;
 	
 	public JaydioDirectByteBuffer(int capacity) {
 		byteBuffer = AlignedDirectByteBuffer
@@ -59,6 +62,15 @@ public class JaydioDirectByteBuffer implements IoBuffer {
 		byteBuffer.close();
 	}
 	
+	@Override
+	public ByteBuffer asReadOnlyBuffer() {
+		// Wraps the aligned native memory without copying it
+		if (readOnlyView == null)
+			readOnlyView = byteBuffer.pointer()
+					.getByteBuffer(0, byteBuffer.capacity()).asReadOnlyBuffer();
+		return readOnlyView;
+	}
+	
 	AlignedDirectByteBuffer getAlignedDirectByteBuffer() {
 		return byteBuffer;
 	}
@@ -19,6 +19,8 @@ import org.vanilladb.core.server.VanillaDb;
 import org.vanilladb.core.sql.Schema;
 import org.vanilladb.core.storage.index.btree.BTreeIndex;
 import org.vanilladb.core.storage.index.hash.HashIndex;
+import org.vanilladb.core.storage.index.hnsw.HNSWIndex;
+import org.vanilladb.core.storage.index.ivf.IVFPQIndex;
 import org.vanilladb.core.storage.index.ivf.IVFSq8DirectIndex;
 // import org.vanilladb.core.storage.index.lsh.LSHashIndex;
 import org.vanilladb.core.storage.metadata.index.IndexInfo;
@@ -57,6 +59,10 @@ public abstract class Index {
 			return BTreeIndex.searchCost(keyType, totRecs, matchRecs);
 		else if (idxType == IndexType.IVF_FLAT)
 			return IVFSq8DirectIndex.searchCost(keyType, totRecs, matchRecs);
+		else if (idxType == IndexType.HNSW)
+			return HNSWIndex.searchCost(keyType, totRecs, matchRecs);
+		else if (idxType == IndexType.IVF_PQ)
+			return IVFPQIndex.searchCost(keyType, totRecs, matchRecs);
 		else
 			throw new IllegalArgumentException("unsupported index type");
 	}
@@ -71,6 +77,11 @@ public abstract class Index {
 		else if (ii.indexType() == IndexType.IVF_FLAT) {
 			Schema tableSchema = VanillaDb.catalogMgr().getTableInfo(ii.tableName(), tx).schema();
 			return new IVFSq8DirectIndex(ii, keyType, tableSchema, tx);
+		} else if (ii.indexType() == IndexType.HNSW)
+			return new HNSWIndex(ii, keyType, tx);
+		else if (ii.indexType() == IndexType.IVF_PQ) {
+			Schema tableSchema = VanillaDb.catalogMgr().getTableInfo(ii.tableName(), tx).schema();
+			return new IVFPQIndex(ii, keyType, tableSchema, tx);
 		} else
 			throw new IllegalArgumentException("unsupported index type");
 	}
@@ -19,7 +19,7 @@ package org.vanilladb.core.storage.index;
  * Supported index types.
  */
 public enum IndexType {
-	HASH, BTREE, LSH, IVF_FLAT;
+	HASH, BTREE, LSH, IVF_FLAT, HNSW, IVF_PQ;
 	
 	public static IndexType fromInteger(int typeVal) {
 		switch (typeVal) {
@@ -31,6 +31,10 @@ public enum IndexType {
 			return LSH;
 		case 3:
 			return IVF_FLAT;
+		case 4:
+			return HNSW;
+		case 5:
+			return IVF_PQ;
 		}
 		throw new UnsupportedOperationException();
 	}
@@ -45,6 +49,10 @@ public enum IndexType {
 			return 2;
 		case IVF_FLAT:
 			return 3;
+		case HNSW:
+			return 4;
+		case IVF_PQ:
+			return 5;
 		}
 		throw new UnsupportedOperationException();
 	}
@@ -0,0 +1,623 @@
+package org.vanilladb.core.storage.index.hnsw;
+
+import static org.vanilladb.core.sql.Type.BIGINT;
+import static org.vanilladb.core.sql.Type.INTEGER;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.vanilladb.core.server.VanillaDb;
+import org.vanilladb.core.sql.BigIntConstant;
+import org.vanilladb.core.sql.ByteVectorConstant;
+import org.vanilladb.core.sql.Constant;
+import org.vanilladb.core.sql.IntegerConstant;
+import org.vanilladb.core.sql.Type;
+import org.vanilladb.core.sql.VectorConstant;
+import org.vanilladb.core.sql.distfn.EuclideanFn;
+import org.vanilladb.core.storage.buffer.Buffer;
+import org.vanilladb.core.storage.buffer.EmptyPageFormatter;
+import org.vanilladb.core.storage.file.BlockId;
+import org.vanilladb.core.storage.index.Index;
+import org.vanilladb.core.storage.index.SearchKey;
+import org.vanilladb.core.storage.index.SearchKeyType;
+import org.vanilladb.core.storage.index.SearchRange;
+import org.vanilladb.core.storage.metadata.index.IndexInfo;
+import org.vanilladb.core.storage.record.RecordId;
+import org.vanilladb.core.storage.tx.Transaction;
+import org.vanilladb.core.util.ByteHelper;
+import org.vanilladb.core.util.CoreProperties;
+
+/**
+ * A disk-backed Hierarchical Navigable Small World (HNSW) graph index on a
+ * single vector field.
+ * <p>
+ * The graph lives in two files. The node file starts with a header block
+ * holding the entry point, the top level, the number of nodes and the number
+ * of upper-level link slots. Each following block holds fixed-size node
+ * records: the node's level, the position of its first upper-level link slot,
+ * a deletion flag, the data record ID, the vector itself and its level-0
+ * adjacency list. The adjacency lists of levels above 0 are kept in the upper
+ * file, one fixed-size slot per (node, level), allocated contiguously when a
+ * node is inserted.
+ * </p>
+ * <p>
+ * The pages are not physically logged. Inserts and deletes are logically
+ * logged, and the undo of an insertion marks the node as deleted instead of
+ * unlinking it from the graph. A search locks both files for reading and an
+ * insertion locks them for modification, so a transaction never walks the
+ * nodes and links of another uncommitted transaction. Within the locks, a
+ * latch per graph serializes the structural changes against the searches.
+ * </p>
+ */
+public class HNSWIndex extends Index {
+    private static Logger logger = Logger.getLogger(HNSWIndex.class.getName());
+
+    /**
+     * The maximal number of neighbors of a node on the levels above 0. Level 0
+     * keeps twice as many.
+     */
+    public final static int M;
+    public final static int EF_CONSTRUCTION;
+    public final static int EF_SEARCH;
+
+    private final static int M0;
+    private final static int MAX_LEVEL = 16;
+    private final static double LEVEL_MULT;
+
+    static {
+        M = CoreProperties.getLoader().getPropertyAsInteger(
+                HNSWIndex.class.getName() + ".M", 16);
+        EF_CONSTRUCTION = CoreProperties.getLoader().getPropertyAsInteger(
+                HNSWIndex.class.getName() + ".EF_CONSTRUCTION", 200);
+        EF_SEARCH = CoreProperties.getLoader().getPropertyAsInteger(
+                HNSWIndex.class.getName() + ".EF_SEARCH", 64);
+        M0 = 2 * M;
+        LEVEL_MULT = 1 / Math.log(M);
+    }
+
+    // Header layout (block 0 of the node file)
+    private static final int HDR_ENTRY = 0, HDR_MAX_LEVEL = 4, HDR_NUM_NODES = 8,
+            HDR_NUM_UPPER = 12;
+
+    // Node record layout
+    private static final int NODE_LEVEL = 0, NODE_UPPER = 4, NODE_DELETED = 8,
+            NODE_RID_BLOCK = 12, NODE_RID_ID = 20, NODE_VECTOR = 24;
+
+    // Serializes structural changes of a graph against concurrent searches
+    private static final Map<String, ReadWriteLock> latches = new ConcurrentHashMap<String, ReadWriteLock>();
+
+    private static int linksSize(int capacity) {
+        return (capacity + 1) * ByteHelper.INT_SIZE;
+    }
+
+    private static int nodeSize(SearchKeyType keyType) {
+        return NODE_VECTOR + keyType.get(0).maxSize() + linksSize(M0);
+    }
+
+    private static int nodesPerBlock(SearchKeyType keyType) {
+        int size = nodeSize(keyType);
+        if (size > Buffer.BUFFER_SIZE)
+            throw new RuntimeException("HNSW node size overflow: " + size);
+        return Buffer.BUFFER_SIZE / size;
+    }
+
+    public static long searchCost(SearchKeyType keyType, long totRecs, long matchRecs) {
+        // A greedy descent on the upper levels plus an ef-bounded search on
+        // level 0, in which every expanded node reads its neighbors
+        long levels = (long) Math.ceil(Math.log(Math.max(totRecs, 2)) * LEVEL_MULT);
+        return 1 + levels * M + EF_SEARCH * M0 / nodesPerBlock(keyType);
+    }
+
+    private static class Candidate {
+        int node;
+        double dist;
+
+        Candidate(int node, double dist) {
+            this.node = node;
+            this.dist = dist;
+        }
+    }
+
+    private String nodeFileName, upperFileName;
+    private int dimension, nodeSize, nodesPerBlock, upperSlotSize, upperSlotsPerBlock;
+    private ReadWriteLock latch;
+    private List<RecordId> results;
+    private int resultId, searchLimit;
+
+    /**
+     * Opens an HNSW index for the specified index.
+     *
+     * @param ii
+     *            the information of this index
+     * @param keyType
+     *            the type of the search key
+     * @param tx
+     *            the calling transaction
+     */
+    public HNSWIndex(IndexInfo ii, SearchKeyType keyType, Transaction tx) {
+        super(ii, keyType, tx);
+        nodeFileName = ii.indexName() + "_hnsw.idx";
+        upperFileName = ii.indexName() + "_hnsw_upper.idx";
+        dimension = keyType.get(0).getArgument();
+        nodeSize = nodeSize(keyType);
+        nodesPerBlock = nodesPerBlock(keyType);
+        upperSlotSize = linksSize(M);
+        upperSlotsPerBlock = Buffer.BUFFER_SIZE / upperSlotSize;
+        latch = latches.computeIfAbsent(ii.indexName(), k -> new ReentrantReadWriteLock());
+        resultId = -1;
+
+        // Initialize the header block if needed
+        if (VanillaDb.fileMgr().isFileEmpty(nodeFileName)) {
+            latch.writeLock().lock();
+            try {
+                if (VanillaDb.fileMgr().isFileEmpty(nodeFileName)) {
+                    Buffer buff = tx.bufferMgr().pinNew(nodeFileName, new EmptyPageFormatter());
+                    setInt(buff, HDR_ENTRY, -1);
+                    setInt(buff, HDR_MAX_LEVEL, -1);
+                    setInt(buff, HDR_NUM_NODES, 0);
+                    setInt(buff, HDR_NUM_UPPER, 0);
+                    tx.bufferMgr().unpin(buff);
+                }
+            } finally {
+                latch.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Asks the search to return at least the specified number of entries
+     * nearest to the query. The graph is searched with the larger of this
+     * limit and {@link #EF_SEARCH} candidates.
+     *
+     * @param searchLimit
+     *            the number of entries to return, or 0 for no limit
+     */
+    public void setSearchLimit(int searchLimit) {
+        if (searchLimit < 0)
+            throw new IllegalArgumentException("search limit must not be negative");
+        this.searchLimit = searchLimit;
+    }
+
+    /**
+     * Searches the graph for the approximate nearest neighbors of the query
+     * vector and keeps their data record IDs in ascending order of distance.
+     *
+     * @see Index#beforeFirst(SearchRange)
+     */
+    @Override
+    public void beforeFirst(SearchRange searchRange) {
+        close();
+
+        VectorConstant query = (VectorConstant) searchRange.asSearchKey().get(0);
+        results = new ArrayList<RecordId>();
+        // The locks are taken before the latch, which a lock never waits for
+        tx.concurrencyMgr().readFile(nodeFileName);
+        tx.concurrencyMgr().readFile(upperFileName);
+        latch.readLock().lock();
+        try {
+            for (Candidate c : search(query, Math.max(EF_SEARCH, searchLimit)))
+                if (!isDeleted(c.node))
+                    results.add(getRecordId(c.node));
+        } finally {
+            latch.readLock().unlock();
+        }
+        resultId = -1;
+    }
+
+    @Override
+    public boolean next() {
+        if (results == null)
+            throw new IllegalStateException("You must call beforeFirst() before iterating index '"
+                    + ii.indexName() + "'");
+        return ++resultId < results.size();
+    }
+
+    @Override
+    public RecordId getDataRecordId() {
+        return results.get(resultId);
+    }
+
+    @Override
+    public void insert(SearchKey key, RecordId dataRecordId, boolean doLogicalLogging) {
+        close();
+        VectorConstant vec = (VectorConstant) key.get(0);
+
+        // log the logical operation starts
+        if (doLogicalLogging)
+            tx.recoveryMgr().logLogicalStart();
+
+        tx.concurrencyMgr().modifyFile(nodeFileName);
+        tx.concurrencyMgr().modifyFile(upperFileName);
+        latch.writeLock().lock();
+        try {
+            Buffer header = tx.bufferMgr().pin(new BlockId(nodeFileName, 0));
+            int entry = getInt(header, HDR_ENTRY);
+            int maxLevel = getInt(header, HDR_MAX_LEVEL);
+            int node = getInt(header, HDR_NUM_NODES);
+            int upper = getInt(header, HDR_NUM_UPPER);
+            int level = randomLevel();
+
+            appendNode(node, level, upper, vec, dataRecordId);
+            setInt(header, HDR_NUM_NODES, node + 1);
+            setInt(header, HDR_NUM_UPPER, upper + level);
+
+            if (entry == -1) {
+                setInt(header, HDR_ENTRY, node);
+                setInt(header, HDR_MAX_LEVEL, level);
+            } else {
+                EuclideanFn distFn = new EuclideanFn(ii.fieldNames().get(0));
+                distFn.setQueryVector(vec);
+                List<Candidate> eps = new ArrayList<Candidate>();
+                eps.add(new Candidate(entry, distFn.distance(getVector(entry))));
+                for (int l = maxLevel; l > level; --l)
+                    eps = searchLayer(distFn, eps, 1, l);
+                for (int l = Math.min(level, maxLevel); l >= 0; --l) {
+                    eps = searchLayer(distFn, eps, EF_CONSTRUCTION, l);
+                    List<Candidate> neighbors = selectNeighbors(eps, M);
+                    setLinks(node, l, neighbors);
+                    for (Candidate n : neighbors)
+                        connect(n.node, node, n.dist, l);
+                }
+                if (level > maxLevel) {
+                    setInt(header, HDR_ENTRY, node);
+                    setInt(header, HDR_MAX_LEVEL, level);
+                }
+            }
+            tx.bufferMgr().unpin(header);
+        } finally {
+            latch.writeLock().unlock();
+        }
+
+        // log the logical operation ends
+        if (doLogicalLogging)
+            tx.recoveryMgr().logIndexInsertionEnd(ii.indexName(), key,
+                    dataRecordId.block().number(), dataRecordId.id());
+    }
+
+    /**
+     * Marks the node of the specified data record as deleted. The node is
+     * looked up by a search for its own vector, which is widened as long as
+     * the candidates found are all duplicates of the vector. If the node is
+     * still not found, the node file is scanned, so the worst case is linear
+     * in the number of nodes.
+     *
+     * @see Index#delete(SearchKey, RecordId, boolean)
+     */
+    @Override
+    public void delete(SearchKey key, RecordId dataRecordId, boolean doLogicalLogging) {
+        close();
+        VectorConstant vec = (VectorConstant) key.get(0);
+
+        // log the logical operation starts
+        if (doLogicalLogging)
+            tx.recoveryMgr().logLogicalStart();
+
+        tx.concurrencyMgr().modifyFile(nodeFileName);
+        tx.concurrencyMgr().readFile(upperFileName);
+        latch.writeLock().lock();
+        try {
+            int target = -1;
+            // The node is usually among the closest ones to its own vector
+            for (int ef = EF_SEARCH; target == -1; ef *= 2) {
+                List<Candidate> cands = search(vec, ef);
+                for (Candidate c : cands)
+                    if (!isDeleted(c.node) && getRecordId(c.node).equals(dataRecordId)) {
+                        target = c.node;
+                        break;
+                    }
+                // Only a search crowded out by duplicates is worth widening
+                if (cands.size() < ef || cands.get(cands.size() - 1).dist > 0)
+                    break;
+            }
+            // Fall back to a full scan of the node file
+            if (target == -1) {
+                Buffer header = tx.bufferMgr().pin(new BlockId(nodeFileName, 0));
+                int numNodes = getInt(header, HDR_NUM_NODES);
+                tx.bufferMgr().unpin(header);
+                for (int n = 0; n < numNodes && target == -1; ++n)
+                    if (!isDeleted(n) && getRecordId(n).equals(dataRecordId))
+                        target = n;
+            }
+
+            if (target != -1) {
+                Buffer buff = pinNode(target);
+                setInt(buff, nodeOffset(target) + NODE_DELETED, 1);
+                tx.bufferMgr().unpin(buff);
+            } else if (logger.isLoggable(Level.WARNING))
+                logger.warning("HNSW delete failed to delete a record");
+        } finally {
+            latch.writeLock().unlock();
+        }
+
+        // log the logical operation ends
+        if (doLogicalLogging)
+            tx.recoveryMgr().logIndexDeletionEnd(ii.indexName(), key,
+                    dataRecordId.block().number(), dataRecordId.id());
+    }
+
+    @Override
+    public void close() {
+        results = null;
+        resultId = -1;
+    }
+
+    /**
+     * Pins the header and the upper-level links, which every search walks
+     * through. Level-0 nodes are left to the buffer pool.
+     */
+    @Override
+    public void preLoadToMemory() {
+        tx.bufferMgr().pin(new BlockId(nodeFileName, 0));
+        long size = VanillaDb.fileMgr().size(upperFileName);
+        for (int j = 0; j < size; j++)
+            tx.bufferMgr().pin(new BlockId(upperFileName, j));
+    }
+
+    /*
+     * Graph algorithms.
+     */
+
+    private List<Candidate> search(VectorConstant query, int ef) {
+        Buffer header = tx.bufferMgr().pin(new BlockId(nodeFileName, 0));
+        int entry = getInt(header, HDR_ENTRY);
+        int maxLevel = getInt(header, HDR_MAX_LEVEL);
+        tx.bufferMgr().unpin(header);
+        if (entry == -1)
+            return Collections.emptyList();
+
+        EuclideanFn distFn = new EuclideanFn(ii.fieldNames().get(0));
+        distFn.setQueryVector(query);
+        List<Candidate> eps = new ArrayList<Candidate>();
+        eps.add(new Candidate(entry, distFn.distance(getVector(entry))));
+        for (int l = maxLevel; l > 0; --l)
+            eps = searchLayer(distFn, eps, 1, l);
+        return searchLayer(distFn, eps, ef, 0);
+    }
+
+    /**
+     * Returns the (at most) ef closest nodes to the query found on the
+     * specified level, in ascending order of distance.
+     */
+    private List<Candidate> searchLayer(EuclideanFn distFn, List<Candidate> eps, int ef, int level) {
+        Set<Integer> visited = new HashSet<Integer>();
+        PriorityQueue<Candidate> candidates = new PriorityQueue<Candidate>(
+                (a, b) -> Double.compare(a.dist, b.dist));
+        PriorityQueue<Candidate> found = new PriorityQueue<Candidate>(
+                (a, b) -> Double.compare(b.dist, a.dist));
+        for (Candidate ep : eps) {
+            visited.add(ep.node);
+            candidates.add(ep);
+            found.add(ep);
+        }
+        while (found.size() > ef)
+            found.poll();
+
+        while (!candidates.isEmpty()) {
+            Candidate c = candidates.poll();
+            if (c.dist > found.peek().dist && found.size() >= ef)
+                break;
+            for (int n : getLinks(c.node, level)) {
+                if (!visited.add(n))
+                    continue;
+                double dist = distFn.distance(getVector(n));
+                if (found.size() < ef || dist < found.peek().dist) {
+                    Candidate nc = new Candidate(n, dist);
+                    candidates.add(nc);
+                    found.add(nc);
+                    if (found.size() > ef)
+                        found.poll();
+                }
+            }
+        }
+
+        List<Candidate> ret = new ArrayList<Candidate>(found);
+        ret.sort((a, b) -> Double.compare(a.dist, b.dist));
+        return ret;
+    }
+
+    /**
+     * Picks at most m neighbors out of the sorted candidates with the
+     * diversity heuristic: a candidate is kept only if it is closer to the base
+     * than to every neighbor kept so far. Discarded candidates fill the
+     * remaining room.
+     */
+    private List<Candidate> selectNeighbors(List<Candidate> sorted, int m) {
+        if (sorted.size() <= m)
+            return sorted;
+        List<Candidate> selected = new ArrayList<Candidate>(m);
+        List<Candidate> pruned = new ArrayList<Candidate>();
+        EuclideanFn distFn = new EuclideanFn(ii.fieldNames().get(0));
+        for (Candidate c : sorted) {
+            if (selected.size() == m)
+                break;
+            distFn.setQueryVector(getVector(c.node));
+            boolean keep = true;
+            for (Candidate s : selected)
+                if (distFn.distance(getVector(s.node)) < c.dist) {
+                    keep = false;
+                    break;
+                }
+            if (keep)
+                selected.add(c);
+            else
+                pruned.add(c);
+        }
+        for (int i = 0; i < pruned.size() && selected.size() < m; ++i)
+            selected.add(pruned.get(i));
+        return selected;
+    }
+
+    /**
+     * Adds a link from the node to its new neighbor, shrinking the adjacency
+     * list if it overflows.
+     */
+    private void connect(int node, int neighbor, double dist, int level) {
+        int capacity = level == 0 ? M0 : M;
+        int[] links = getLinks(node, level);
+        if (links.length < capacity) {
+            int[] newLinks = new int[links.length + 1];
+            System.arraycopy(links, 0, newLinks, 0, links.length);
+            newLinks[links.length] = neighbor;
+            setLinks(node, level, newLinks);
+            return;
+        }
+
+        EuclideanFn distFn = new EuclideanFn(ii.fieldNames().get(0));
+        distFn.setQueryVector(getVector(node));
+        List<Candidate> cands = new ArrayList<Candidate>(links.length + 1);
+        for (int n : links)
+            cands.add(new Candidate(n, distFn.distance(getVector(n))));
+        cands.add(new Candidate(neighbor, dist));
+        cands.sort((a, b) -> Double.compare(a.dist, b.dist));
+        setLinks(node, level, selectNeighbors(cands, capacity));
+    }
+
+    private int randomLevel() {
+        double r = ThreadLocalRandom.current().nextDouble();
+        return Math.min((int) (-Math.log(1 - r) * LEVEL_MULT), MAX_LEVEL);
+    }
+
+    /*
+     * Storage access.
+     */
+
+    private int nodeOffset(int node) {
+        return (node % nodesPerBlock) * nodeSize;
+    }
+
+    private Buffer pinNode(int node) {
+        return tx.bufferMgr().pin(new BlockId(nodeFileName, 1 + node / nodesPerBlock));
+    }
+
+    private Buffer pinUpperSlot(int slot) {
+        return tx.bufferMgr().pin(new BlockId(upperFileName, slot / upperSlotsPerBlock));
+    }
+
+    private void appendNode(int node, int level, int upper, VectorConstant vec, RecordId rid) {
+        long blkNum = 1 + node / nodesPerBlock;
+        if (VanillaDb.fileMgr().size(nodeFileName) <= blkNum)
+            tx.bufferMgr().unpin(tx.bufferMgr().pinNew(nodeFileName, new EmptyPageFormatter()));
+        int offset = nodeOffset(node);
+        Buffer buff = pinNode(node);
+        setInt(buff, offset + NODE_LEVEL, level);
+        setInt(buff, offset + NODE_UPPER, upper);
+        setInt(buff, offset + NODE_DELETED, 0);
+        buff.setVal(offset + NODE_RID_BLOCK, new BigIntConstant(rid.block().number()),
+                tx.getTransactionNumber(), null);
+        setInt(buff, offset + NODE_RID_ID, rid.id());
+        buff.setVal(offset + NODE_VECTOR, vec, tx.getTransactionNumber(), null);
+        tx.bufferMgr().unpin(buff);
+        setLinks(node, 0, new int[0]);
+
+        for (int slot = upper; slot < upper + level; ++slot) {
+            if (VanillaDb.fileMgr().size(upperFileName) <= slot / upperSlotsPerBlock)
+                tx.bufferMgr().unpin(tx.bufferMgr().pinNew(upperFileName, new EmptyPageFormatter()));
+            writeLinks(pinUpperSlot(slot), (slot % upperSlotsPerBlock) * upperSlotSize, M, new int[0]);
+        }
+    }
+
+    private VectorConstant getVector(int node) {
+        Buffer buff = pinNode(node);
+        VectorConstant v = (VectorConstant) buff.getVal(nodeOffset(node) + NODE_VECTOR,
+                Type.VECTOR(dimension));
+        tx.bufferMgr().unpin(buff);
+        return v;
+    }
+
+    private RecordId getRecordId(int node) {
+        Buffer buff = pinNode(node);
+        int offset = nodeOffset(node);
+        long blkNum = (Long) buff.getVal(offset + NODE_RID_BLOCK, BIGINT).asJavaVal();
+        int id = getInt(buff, offset + NODE_RID_ID);
+        tx.bufferMgr().unpin(buff);
+        return new RecordId(new BlockId(dataFileName, blkNum), id);
+    }
+
+    private boolean isDeleted(int node) {
+        Buffer buff = pinNode(node);
+        boolean deleted = getInt(buff, nodeOffset(node) + NODE_DELETED) != 0;
+        tx.bufferMgr().unpin(buff);
+        return deleted;
+    }
+
+    private int[] getLinks(int node, int level) {
+        Buffer buff = pinNode(node);
+        int offset = nodeOffset(node);
+        if (level == 0) {
+            int[] links = readLinks(buff, offset + NODE_VECTOR + dimension * ByteHelper.FLOAT_SIZE, M0);
+            tx.bufferMgr().unpin(buff);
+            return links;
+        }
+        int slot = getInt(buff, offset + NODE_UPPER) + level - 1;
+        tx.bufferMgr().unpin(buff);
+        buff = pinUpperSlot(slot);
+        int[] links = readLinks(buff, (slot % upperSlotsPerBlock) * upperSlotSize, M);
+        tx.bufferMgr().unpin(buff);
+        return links;
+    }
+
+    private void setLinks(int node, int level, List<Candidate> neighbors) {
+        int[] links = new int[neighbors.size()];
+        for (int i = 0; i < links.length; ++i)
+            links[i] = neighbors.get(i).node;
+        setLinks(node, level, links);
+    }
+
+    private void setLinks(int node, int level, int[] links) {
+        Buffer buff = pinNode(node);
+        int offset = nodeOffset(node);
+        if (level == 0) {
+            writeLinks(buff, offset + NODE_VECTOR + dimension * ByteHelper.FLOAT_SIZE, M0, links);
+            return;
+        }
+        int slot = getInt(buff, offset + NODE_UPPER) + level - 1;
+        tx.bufferMgr().unpin(buff);
+        writeLinks(pinUpperSlot(slot), (slot % upperSlotsPerBlock) * upperSlotSize, M, links);
+    }
+
+    /**
+     * Reads an adjacency list (a count followed by node ids) from a pinned
+     * buffer. The caller unpins the buffer.
+     */
+    private int[] readLinks(Buffer buff, int offset, int capacity) {
+        byte[] bytes = (byte[]) buff.getVal(offset, Type.BYTEVECTOR(linksSize(capacity))).asJavaVal();
+        ByteBuffer bb = ByteBuffer.wrap(bytes);
+        int[] links = new int[bb.getInt()];
+        for (int i = 0; i < links.length; ++i)
+            links[i] = bb.getInt();
+        return links;
+    }
+
+    /**
+     * Writes an adjacency list and unpins the buffer.
+     */
+    private void writeLinks(Buffer buff, int offset, int capacity, int[] links) {
+        ByteBuffer bb = ByteBuffer.allocate(linksSize(capacity));
+        bb.putInt(links.length);
+        for (int n : links)
+            bb.putInt(n);
+        buff.setVal(offset, new ByteVectorConstant(bb.array()), tx.getTransactionNumber(), null);
+        tx.bufferMgr().unpin(buff);
+    }
+
+    private int getInt(Buffer buff, int offset) {
+        return (Integer) buff.getVal(offset, INTEGER).asJavaVal();
+    }
+
+    private void setInt(Buffer buff, int offset, int val) {
+        Constant c = new IntegerConstant(val);
+        buff.setVal(offset, c, tx.getTransactionNumber(), null);
+    }
+}
@@ -0,0 +1,297 @@
+package org.vanilladb.core.storage.index.ivf;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.vanilladb.core.sql.Type;
+import org.vanilladb.core.sql.VectorConstant;
+import org.vanilladb.core.storage.buffer.Buffer;
+import org.vanilladb.core.storage.buffer.BufferPriority;
+import org.vanilladb.core.storage.file.BlockId;
+import org.vanilladb.core.storage.tx.Transaction;
+import org.vanilladb.core.storage.tx.TransactionLifecycleListener;
+import org.vanilladb.core.util.ByteHelper;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * A resident copy of the centroids of an IVF index, stored contiguously in a
+ * single float array. The table is loaded once per index and shared by all
+ * transactions until the centroids are modified, and again once the
+ * modifying transaction finishes. A batch of queries can be ranked against
+ * the centroids together, sharing the loads of the centroids.
+ */
+class CentroidTable {
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+    // The number of centroids compared against the query in one pass
+    private static final int BATCH = 4;
+
+    private static final ConcurrentMap<String, CentroidTable> tables =
+            new ConcurrentHashMap<String, CentroidTable>();
+    // The transactions modifying the files, and their own copies of the
+    // files, which are not shared until the transactions commit
+    private static final ConcurrentMap<String, Long> writers =
+            new ConcurrentHashMap<String, Long>();
+    private static final ConcurrentMap<String, CentroidTable> writerTables =
+            new ConcurrentHashMap<String, CentroidTable>();
+
+    /**
+     * Returns the centroid table stored in the specified file, loading it
+     * through the given transaction if it is not resident yet. The file is
+     * read-locked first, so the table is never read while another
+     * transaction is modifying the file.
+     *
+     * @param fileName
+     *            the name of the centroid file
+     * @param numCentroids
+     *            the number of centroids
+     * @param dimension
+     *            the dimension of the centroids
+     * @param tx
+     *            the transaction used to pin the centroid blocks
+     * @return the centroid table
+     */
+    static CentroidTable get(String fileName, int numCentroids, int dimension, Transaction tx) {
+        tx.concurrencyMgr().readFile(fileName);
+        Long writer = writers.get(fileName);
+        if (writer != null) {
+            if (writer == tx.getTransactionNumber())
+                return writerTables.computeIfAbsent(fileName,
+                        f -> load(f, numCentroids, dimension, tx));
+            // The writer has released its locks but is not done yet
+            return load(fileName, numCentroids, dimension, tx);
+        }
+
+        CentroidTable table = tables.get(fileName);
+        if (table != null)
+            return table;
+
+        // Loading and invalidation are serialized so that a table read
+        // before a modification never replaces the invalidation
+        synchronized (tables) {
+            if (writers.containsKey(fileName))
+                return load(fileName, numCentroids, dimension, tx);
+            table = tables.get(fileName);
+            if (table == null) {
+                table = load(fileName, numCentroids, dimension, tx);
+                tables.put(fileName, table);
+            }
+            return table;
+        }
+    }
+
+    /**
+     * Drops the resident copies of the centroids stored in the specified
+     * file, which the given transaction is modifying. Until the transaction
+     * commits or rolls back, it reads its own copy of the file, and the
+     * shared copy is not loaded again.
+     *
+     * @param fileName
+     *            the name of the centroid file
+     * @param tx
+     *            the transaction modifying the file
+     */
+    static void invalidate(String fileName, Transaction tx) {
+        synchronized (tables) {
+            tables.remove(fileName);
+            writerTables.remove(fileName);
+            if (writers.putIfAbsent(fileName, tx.getTransactionNumber()) != null)
+                return;
+        }
+        tx.addLifecycleListener(new TransactionLifecycleListener() {
+            @Override
+            public void onTxCommit(Transaction tx) {
+                release(fileName);
+            }
+
+            @Override
+            public void onTxRollback(Transaction tx) {
+                release(fileName);
+            }
+
+            @Override
+            public void onTxEndStatement(Transaction tx) {
+                // do nothing
+            }
+        });
+    }
+
+    private static void release(String fileName) {
+        synchronized (tables) {
+            tables.remove(fileName);
+            writerTables.remove(fileName);
+            writers.remove(fileName);
+        }
+    }
+
+    private static CentroidTable load(String fileName, int numCentroids, int dimension,
+            Transaction tx) {
+        int fpb = Buffer.BUFFER_SIZE / ByteHelper.FLOAT_SIZE;
+        float[] data = new float[numCentroids * dimension];
+        for (int from = 0, blkNum = 0; from < data.length; from += fpb, ++blkNum) {
+            int count = Math.min(fpb, data.length - from);
+            Buffer buff = tx.bufferMgr().pin(new BlockId(fileName, blkNum), BufferPriority.HIGH);
+            VectorConstant v = (VectorConstant) buff.getVal(0, Type.VECTOR(count));
+            tx.bufferMgr().unpin(buff);
+            System.arraycopy(v.asJavaVal(), 0, data, from, count);
+        }
+        return new CentroidTable(data, dimension);
+    }
+
+    private final float[] data;
+    private final int dimension;
+
+    CentroidTable(float[] data, int dimension) {
+        this.data = data;
+        this.dimension = dimension;
+    }
+
+    /**
+     * Returns a copy of the specified centroid.
+     *
+     * @param bucket
+     *            the id of the centroid
+     * @return the centroid
+     */
+    float[] vector(int bucket) {
+        float[] v = new float[dimension];
+        System.arraycopy(data, bucket * dimension, v, 0, dimension);
+        return v;
+    }
+
+    /**
+     * Computes the squared Euclidean distances between the query and the
+     * centroids in [low, high). The query is loaded once for every
+     * {@link #BATCH} centroids.
+     *
+     * @param query
+     *            the query vector
+     * @param low
+     *            the first centroid
+     * @param high
+     *            the end of the centroid range
+     * @param dists
+     *            the array receiving the distance of centroid i at i - low
+     */
+    void squaredDistances(float[] query, int low, int high, float[] dists) {
+        int bound = SPECIES.loopBound(dimension);
+        int i = low;
+        for (; i + BATCH <= high; i += BATCH) {
+            int base0 = i * dimension, base1 = base0 + dimension,
+                    base2 = base1 + dimension, base3 = base2 + dimension;
+            FloatVector sum0 = FloatVector.zero(SPECIES), sum1 = FloatVector.zero(SPECIES),
+                    sum2 = FloatVector.zero(SPECIES), sum3 = FloatVector.zero(SPECIES);
+            int d = 0;
+            for (; d < bound; d += SPECIES.length()) {
+                FloatVector q = FloatVector.fromArray(SPECIES, query, d);
+                FloatVector diff0 = FloatVector.fromArray(SPECIES, data, base0 + d).sub(q);
+                FloatVector diff1 = FloatVector.fromArray(SPECIES, data, base1 + d).sub(q);
+                FloatVector diff2 = FloatVector.fromArray(SPECIES, data, base2 + d).sub(q);
+                FloatVector diff3 = FloatVector.fromArray(SPECIES, data, base3 + d).sub(q);
+                sum0 = diff0.fma(diff0, sum0);
+                sum1 = diff1.fma(diff1, sum1);
+                sum2 = diff2.fma(diff2, sum2);
+                sum3 = diff3.fma(diff3, sum3);
+            }
+            float d0 = sum0.reduceLanes(VectorOperators.ADD), d1 = sum1.reduceLanes(VectorOperators.ADD),
+                    d2 = sum2.reduceLanes(VectorOperators.ADD), d3 = sum3.reduceLanes(VectorOperators.ADD);
+
+            // deal with tail of dim % SPECIES.length()
+            for (; d < dimension; ++d) {
+                float q = query[d];
+                float diff0 = data[base0 + d] - q, diff1 = data[base1 + d] - q,
+                        diff2 = data[base2 + d] - q, diff3 = data[base3 + d] - q;
+                d0 += diff0 * diff0;
+                d1 += diff1 * diff1;
+                d2 += diff2 * diff2;
+                d3 += diff3 * diff3;
+            }
+            dists[i - low] = d0;
+            dists[i - low + 1] = d1;
+            dists[i - low + 2] = d2;
+            dists[i - low + 3] = d3;
+        }
+        for (; i < high; ++i)
+            dists[i - low] = squaredDistance(query, i);
+    }
+
+    /**
+     * Computes the squared Euclidean distances between several queries and
+     * the centroids in [low, high). Each centroid is loaded once for every
+     * {@link #BATCH} queries, so a batch of queries costs about one pass over
+     * the table per {@link #BATCH} queries.
+     *
+     * @param queries
+     *            the query vectors
+     * @param low
+     *            the first centroid
+     * @param high
+     *            the end of the centroid range
+     * @param dists
+     *            the arrays receiving the distance of query q to centroid i
+     *            at dists[q][i - low]
+     */
+    void squaredDistances(float[][] queries, int low, int high, float[][] dists) {
+        int bound = SPECIES.loopBound(dimension);
+        int q = 0;
+        for (; q + BATCH <= queries.length; q += BATCH) {
+            float[] query0 = queries[q], query1 = queries[q + 1],
+                    query2 = queries[q + 2], query3 = queries[q + 3];
+            for (int i = low; i < high; ++i) {
+                int base = i * dimension;
+                FloatVector sum0 = FloatVector.zero(SPECIES), sum1 = FloatVector.zero(SPECIES),
+                        sum2 = FloatVector.zero(SPECIES), sum3 = FloatVector.zero(SPECIES);
+                int d = 0;
+                for (; d < bound; d += SPECIES.length()) {
+                    FloatVector c = FloatVector.fromArray(SPECIES, data, base + d);
+                    FloatVector diff0 = c.sub(FloatVector.fromArray(SPECIES, query0, d));
+                    FloatVector diff1 = c.sub(FloatVector.fromArray(SPECIES, query1, d));
+                    FloatVector diff2 = c.sub(FloatVector.fromArray(SPECIES, query2, d));
+                    FloatVector diff3 = c.sub(FloatVector.fromArray(SPECIES, query3, d));
+                    sum0 = diff0.fma(diff0, sum0);
+                    sum1 = diff1.fma(diff1, sum1);
+                    sum2 = diff2.fma(diff2, sum2);
+                    sum3 = diff3.fma(diff3, sum3);
+                }
+                float d0 = sum0.reduceLanes(VectorOperators.ADD), d1 = sum1.reduceLanes(VectorOperators.ADD),
+                        d2 = sum2.reduceLanes(VectorOperators.ADD), d3 = sum3.reduceLanes(VectorOperators.ADD);
+
+                // deal with tail of dim % SPECIES.length()
+                for (; d < dimension; ++d) {
+                    float c = data[base + d];
+                    float diff0 = c - query0[d], diff1 = c - query1[d],
+                            diff2 = c - query2[d], diff3 = c - query3[d];
+                    d0 += diff0 * diff0;
+                    d1 += diff1 * diff1;
+                    d2 += diff2 * diff2;
+                    d3 += diff3 * diff3;
+                }
+                dists[q][i - low] = d0;
+                dists[q + 1][i - low] = d1;
+                dists[q + 2][i - low] = d2;
+                dists[q + 3][i - low] = d3;
+            }
+        }
+        for (; q < queries.length; ++q)
+            squaredDistances(queries[q], low, high, dists[q]);
+    }
+
+    private float squaredDistance(float[] query, int bucket) {
+        int base = bucket * dimension;
+        FloatVector sum = FloatVector.zero(SPECIES);
+        int d = 0;
+        for (; d < SPECIES.loopBound(dimension); d += SPECIES.length()) {
+            FloatVector diff = FloatVector.fromArray(SPECIES, data, base + d)
+                    .sub(FloatVector.fromArray(SPECIES, query, d));
+            sum = diff.fma(diff, sum);
+        }
+        float dist = sum.reduceLanes(VectorOperators.ADD);
+        for (; d < dimension; ++d) {
+            float diff = data[base + d] - query[d];
+            dist += diff * diff;
+        }
+        return dist;
+    }
+}
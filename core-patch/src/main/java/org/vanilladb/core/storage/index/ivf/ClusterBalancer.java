@@ -0,0 +1,116 @@
+package org.vanilladb.core.storage.index.ivf;
+
+import java.sql.Connection;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.vanilladb.core.server.VanillaDb;
+import org.vanilladb.core.server.task.Task;
+import org.vanilladb.core.storage.metadata.index.IndexInfo;
+import org.vanilladb.core.storage.tx.Transaction;
+import org.vanilladb.core.storage.tx.concurrency.LockAbortException;
+import org.vanilladb.core.util.CoreProperties;
+
+/**
+ * The task that keeps the clusters of the IVF indexes balanced in the
+ * background. Every {@link #PERIOD} milliseconds, it checks the indexes that
+ * received insertions since the last check and, in a transaction of its own,
+ * splits the clusters that have grown beyond {@link #SPLIT_FACTOR} times the
+ * average size. See {@link IVFSq8DirectIndex#rebalance(double)}.
+ */
+public class ClusterBalancer extends Task {
+    private static Logger logger = Logger.getLogger(ClusterBalancer.class.getName());
+
+    public static final boolean ENABLED;
+    public static final long PERIOD;
+    public static final double SPLIT_FACTOR;
+    /**
+     * The maximal number of clusters split in one check of an index.
+     */
+    public static final int MAX_SPLITS;
+
+    static {
+        ENABLED = CoreProperties.getLoader().getPropertyAsBoolean(
+                ClusterBalancer.class.getName() + ".ENABLED", true);
+        PERIOD = CoreProperties.getLoader().getPropertyAsLong(
+                ClusterBalancer.class.getName() + ".PERIOD", 1000);
+        SPLIT_FACTOR = CoreProperties.getLoader().getPropertyAsDouble(
+                ClusterBalancer.class.getName() + ".SPLIT_FACTOR", 3.0);
+        MAX_SPLITS = CoreProperties.getLoader().getPropertyAsInteger(
+                ClusterBalancer.class.getName() + ".MAX_SPLITS", 4);
+    }
+
+    private static final Set<IndexInfo> modifiedIndexes = ConcurrentHashMap.newKeySet();
+    private static volatile boolean started;
+
+    /**
+     * Notes that the specified index has received insertions. The balancing
+     * task is started on the first call.
+     *
+     * @param ii
+     *            the information of the index
+     */
+    static void indexModified(IndexInfo ii) {
+        if (!ENABLED)
+            return;
+        modifiedIndexes.add(ii);
+        if (!started) {
+            synchronized (ClusterBalancer.class) {
+                if (!started) {
+                    VanillaDb.taskMgr().runTask(new ClusterBalancer());
+                    started = true;
+                }
+            }
+        }
+    }
+
+    private ClusterBalancer() {
+    }
+
+    @Override
+    public void run() {
+        Thread.currentThread().setName("ivf-cluster-balancer");
+        while (true) {
+            try {
+                Thread.sleep(PERIOD);
+            } catch (InterruptedException e) {
+                return;
+            }
+            Iterator<IndexInfo> iter = modifiedIndexes.iterator();
+            while (iter.hasNext()) {
+                IndexInfo ii = iter.next();
+                iter.remove();
+                balance(ii);
+            }
+        }
+    }
+
+    private void balance(IndexInfo ii) {
+        Transaction tx = VanillaDb.txMgr().newTransaction(
+                Connection.TRANSACTION_SERIALIZABLE, false);
+        try {
+            IVFSq8DirectIndex idx = (IVFSq8DirectIndex) ii.open(tx);
+            int splits = 0;
+            while (splits < MAX_SPLITS && idx.rebalance(SPLIT_FACTOR))
+                ++splits;
+            idx.close();
+            tx.commit();
+            if (splits > 0 && logger.isLoggable(Level.FINE))
+                logger.fine("split " + splits + " clusters of index '" + ii.indexName() + "'");
+        } catch (LockAbortException e) {
+            // Foreground transactions win; the clusters are checked again
+            // after the next insertion
+            tx.rollback();
+            ClusterSizes.invalidate(ii.indexName());
+        } catch (RuntimeException e) {
+            tx.rollback();
+            ClusterSizes.invalidate(ii.indexName());
+            if (logger.isLoggable(Level.WARNING))
+                logger.warning("failed to balance the clusters of index '"
+                        + ii.indexName() + "': " + e);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package org.vanilladb.core.storage.index.ivf;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * A resident count of the entries in each cluster of an IVF index, kept up to
+ * date by the insertions and deletions on the index. The counts start from an
+ * estimate derived from the sizes of the cluster files, and become exact for
+ * the clusters rewritten by rebalancing.
+ */
+class ClusterSizes {
+    private static final ConcurrentMap<String, ClusterSizes> tables =
+            new ConcurrentHashMap<String, ClusterSizes>();
+
+    /**
+     * Returns the cluster sizes of the specified index, estimating them if
+     * they are not resident yet.
+     *
+     * @param indexName
+     *            the name of the index
+     * @param numClusters
+     *            the number of clusters
+     * @param estimator
+     *            the function estimating the size of a cluster
+     * @return the cluster sizes
+     */
+    static ClusterSizes get(String indexName, int numClusters, IntUnaryOperator estimator) {
+        ClusterSizes sizes = tables.get(indexName);
+        if (sizes != null)
+            return sizes;
+        synchronized (tables) {
+            sizes = tables.get(indexName);
+            if (sizes == null) {
+                sizes = new ClusterSizes(numClusters);
+                for (int c = 0; c < numClusters; ++c)
+                    sizes.counts.set(c, estimator.applyAsInt(c));
+                tables.put(indexName, sizes);
+            }
+            return sizes;
+        }
+    }
+
+    /**
+     * Adds to the size of a cluster of the specified index. Nothing is done if
+     * the sizes are not resident, since the estimate taken later covers the
+     * change.
+     */
+    static void add(String indexName, int cluster, int delta) {
+        ClusterSizes sizes = tables.get(indexName);
+        if (sizes != null)
+            sizes.counts.addAndGet(cluster, delta);
+    }
+
+    /**
+     * Drops the resident sizes of the specified index, e.g., after its
+     * clusters are bulk-loaded.
+     */
+    static void invalidate(String indexName) {
+        synchronized (tables) {
+            tables.remove(indexName);
+        }
+    }
+
+    private final AtomicIntegerArray counts;
+
+    private ClusterSizes(int numClusters) {
+        counts = new AtomicIntegerArray(numClusters);
+    }
+
+    int size(int cluster) {
+        return Math.max(counts.get(cluster), 0);
+    }
+
+    void set(int cluster, int size) {
+        counts.set(cluster, size);
+    }
+
+    long total() {
+        long total = 0;
+        for (int c = 0; c < counts.length(); ++c)
+            total += size(c);
+        return total;
+    }
+}
@@ -0,0 +1,206 @@
+package org.vanilladb.core.storage.index.ivf;
+
+import org.vanilladb.core.sql.ByteVectorConstant;
+import org.vanilladb.core.sql.Constant;
+import org.vanilladb.core.sql.Schema;
+import org.vanilladb.core.sql.Type;
+import org.vanilladb.core.sql.VectorConstant;
+import org.vanilladb.core.sql.VectorType;
+import org.vanilladb.core.sql.distfn.DistanceFn;
+import org.vanilladb.core.sql.distfn.EuclideanFn;
+import org.vanilladb.core.storage.buffer.Buffer;
+import org.vanilladb.core.storage.index.SearchKeyType;
+import org.vanilladb.core.storage.metadata.index.IndexInfo;
+import org.vanilladb.core.storage.tx.Transaction;
+import org.vanilladb.core.util.ByteHelper;
+import org.vanilladb.core.util.CoreProperties;
+
+/**
+ * An IVF index that stores product-quantized codes in its clusters. A vector
+ * is split into {@link #NUM_SUBSPACES} subvectors, each encoded by the id of
+ * the nearest of {@link #NUM_CODEWORDS} codewords trained for its subspace,
+ * so a code takes one byte per subspace. Queries are answered with asymmetric
+ * distance tables computed once per query.
+ */
+public class IVFPQIndex extends IVFSq8DirectIndex {
+
+    public final static int NUM_SUBSPACES;
+    public final static int NUM_CODEWORDS = 256;
+
+    static {
+        NUM_SUBSPACES = CoreProperties.getLoader().getPropertyAsInteger(
+                IVFPQIndex.class.getName() + ".NUM_SUBSPACES", 16);
+    }
+
+    public static int numCodebookBlocks(SearchKeyType keyType) {
+        int fpb = Buffer.BUFFER_SIZE / ByteHelper.FLOAT_SIZE;
+        return (NUM_SUBSPACES * NUM_CODEWORDS * subspaceDimension(keyType) + fpb - 1) / fpb;
+    }
+
+    public static long searchCost(SearchKeyType keyType, long totRecs, long matchRecs) {
+        // Assume that the codes account for most of the space
+        int vpb = Buffer.BUFFER_SIZE / NUM_SUBSPACES;
+        return numCentroidBlocks(keyType) + numCodebookBlocks(keyType)
+                + (totRecs / vpb) / NUM_CENTROIDS;
+    }
+
+    private static int subspaceDimension(SearchKeyType keyType) {
+        return keyType.get(0).getArgument() / NUM_SUBSPACES;
+    }
+
+    /**
+     * Scores codes by summing up the precomputed distances between the query
+     * subvectors and the codewords.
+     */
+    private class AdcEuclideanFn extends EuclideanFn {
+        private float[] table;
+
+        AdcEuclideanFn(String fld) {
+            super(fld);
+        }
+
+        @Override
+        public void setQueryVector(VectorConstant query) {
+            super.setQueryVector(query);
+            table = distanceTable(query.asJavaVal());
+        }
+
+        @Override
+        public double distance(ByteVectorConstant code) {
+            byte[] c = code.asJavaVal();
+            if (c.length != NUM_SUBSPACES)
+                throw new IllegalArgumentException("Code length does not match");
+            float sum = 0;
+            for (int m = 0; m < NUM_SUBSPACES; ++m)
+                sum += table[m * NUM_CODEWORDS + (c[m] & 0xFF)];
+            return Math.sqrt(sum);
+        }
+
+        @Override
+        public double distance(ByteVectorConstant code, double bound) {
+            byte[] c = code.asJavaVal();
+            if (c.length != NUM_SUBSPACES)
+                throw new IllegalArgumentException("Code length does not match");
+            double squaredBound = bound * bound;
+            float sum = 0;
+            for (int m = 0; m < NUM_SUBSPACES; ++m) {
+                sum += table[m * NUM_CODEWORDS + (c[m] & 0xFF)];
+                // the table entries are non-negative, so the sum only grows
+                if ((m & 3) == 3 && sum >= squaredBound)
+                    return Double.POSITIVE_INFINITY;
+            }
+            return Math.sqrt(sum);
+        }
+    }
+
+    private int subDim;
+
+    public IVFPQIndex(IndexInfo ii, SearchKeyType keyType, Schema schema, Transaction tx) {
+        super(ii, keyType, schema, tx);
+        int dimension = keyType.get(0).getArgument();
+        if (dimension % NUM_SUBSPACES != 0)
+            throw new IllegalArgumentException("the dimension of index '" + ii.indexName()
+                    + "' is not divisible by " + NUM_SUBSPACES + " subspaces");
+        subDim = dimension / NUM_SUBSPACES;
+    }
+
+    public String codebookName() {
+        return ii.indexName() + "_codebooks.idx";
+    }
+
+    private CentroidTable codebooks() {
+        return CentroidTable.get(codebookName(), NUM_SUBSPACES * NUM_CODEWORDS, subDim, tx);
+    }
+
+    public VectorConstant getCodeword(int subspace, int code) {
+        return new VectorConstant(codebooks().vector(subspace * NUM_CODEWORDS + code));
+    }
+
+    public void setCodeword(int subspace, int code, VectorConstant codeword) {
+        setVector(codebookName(), subspace * NUM_CODEWORDS + code, subDim, codeword);
+        // drop the resident copy after the new value is in place
+        CentroidTable.invalidate(codebookName(), tx);
+    }
+
+    /**
+     * Returns the squared distances between each query subvector and the
+     * codewords of its subspace, indexed by subspace * NUM_CODEWORDS + code.
+     */
+    private float[] distanceTable(float[] query) {
+        CentroidTable codebooks = codebooks();
+        float[] table = new float[NUM_SUBSPACES * NUM_CODEWORDS];
+        float[] sub = new float[subDim];
+        float[] dists = new float[NUM_CODEWORDS];
+        for (int m = 0; m < NUM_SUBSPACES; ++m) {
+            System.arraycopy(query, m * subDim, sub, 0, subDim);
+            codebooks.squaredDistances(sub, m * NUM_CODEWORDS, (m + 1) * NUM_CODEWORDS, dists);
+            System.arraycopy(dists, 0, table, m * NUM_CODEWORDS, NUM_CODEWORDS);
+        }
+        return table;
+    }
+
+    private boolean isIndexedField(String fldName) {
+        return fldName.equals(ii.fieldNames().get(0));
+    }
+
+    @Override
+    protected Type codeType(String fldName, VectorType vecType) {
+        if (isIndexedField(fldName))
+            return Type.BYTEVECTOR(NUM_SUBSPACES);
+        return super.codeType(fldName, vecType);
+    }
+
+    @Override
+    protected ByteVectorConstant encode(String fldName, VectorConstant vec) {
+        if (!isIndexedField(fldName))
+            return super.encode(fldName, vec);
+        CentroidTable codebooks = codebooks();
+        float[] v = vec.asJavaVal();
+        float[] sub = new float[subDim];
+        float[] dists = new float[NUM_CODEWORDS];
+        byte[] code = new byte[NUM_SUBSPACES];
+        for (int m = 0; m < NUM_SUBSPACES; ++m) {
+            System.arraycopy(v, m * subDim, sub, 0, subDim);
+            codebooks.squaredDistances(sub, m * NUM_CODEWORDS, (m + 1) * NUM_CODEWORDS, dists);
+            int best = 0;
+            for (int j = 1; j < NUM_CODEWORDS; ++j)
+                if (dists[j] < dists[best])
+                    best = j;
+            code[m] = (byte) best;
+        }
+        return new ByteVectorConstant(code);
+    }
+
+    /**
+     * Reconstructs the indexed vector from its codewords, since PQ codes
+     * cannot be scored by the distance functions of the query.
+     */
+    @Override
+    protected Constant decode(String fldName, ByteVectorConstant code) {
+        if (!isIndexedField(fldName))
+            return super.decode(fldName, code);
+        CentroidTable codebooks = codebooks();
+        byte[] c = code.asJavaVal();
+        float[] v = new float[NUM_SUBSPACES * subDim];
+        for (int m = 0; m < NUM_SUBSPACES; ++m)
+            System.arraycopy(codebooks.vector(m * NUM_CODEWORDS + (c[m] & 0xFF)), 0,
+                    v, m * subDim, subDim);
+        return new VectorConstant(v);
+    }
+
+    /**
+     * Returns no code for the indexed field, since PQ codes cannot be scored
+     * by the distance functions of the query.
+     */
+    @Override
+    public ByteVectorConstant getCode(String fldName) {
+        return isIndexedField(fldName) ? null : super.getCode(fldName);
+    }
+
+    @Override
+    protected DistanceFn codeDistFn(VectorConstant query) {
+        AdcEuclideanFn distFn = new AdcEuclideanFn(ii.fieldNames().get(0));
+        distFn.setQueryVector(query);
+        return distFn;
+    }
+}
@@ -1,11 +1,20 @@
 package org.vanilladb.core.storage.index.ivf;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import static org.vanilladb.core.sql.Type.BIGINT;
+import static org.vanilladb.core.sql.Type.DOUBLE;
 import static org.vanilladb.core.sql.Type.INTEGER;
 
 import org.vanilladb.core.server.VanillaDb;
@@ -13,22 +22,31 @@ import org.vanilladb.core.server.task.Task;
 import org.vanilladb.core.sql.BigIntConstant;
 import org.vanilladb.core.sql.ByteVectorConstant;
 import org.vanilladb.core.sql.Constant;
+import org.vanilladb.core.sql.DoubleConstant;
 import org.vanilladb.core.sql.IntegerConstant;
+import org.vanilladb.core.sql.Record;
 import org.vanilladb.core.sql.Schema;
 import org.vanilladb.core.sql.Type;
 import org.vanilladb.core.sql.VectorConstant;
 import org.vanilladb.core.sql.VectorType;
-import org.vanilladb.core.sql.distfn.EuclideanFn;
+import org.vanilladb.core.sql.distfn.DistanceFn;
+import org.vanilladb.core.sql.distfn.Sq8EuclideanFn;
+import org.vanilladb.core.sql.predicate.Predicate;
 import org.vanilladb.core.storage.buffer.Buffer;
+import org.vanilladb.core.storage.buffer.BufferPriority;
+import org.vanilladb.core.storage.buffer.PageFormatter;
 import org.vanilladb.core.storage.file.BlockId;
 import org.vanilladb.core.storage.index.Index;
 import org.vanilladb.core.storage.index.SearchKey;
 import org.vanilladb.core.storage.index.SearchKeyType;
 import org.vanilladb.core.storage.index.SearchRange;
+import org.vanilladb.core.storage.log.LogSeqNum;
 import org.vanilladb.core.storage.metadata.TableInfo;
 import org.vanilladb.core.storage.metadata.index.IndexInfo;
+import org.vanilladb.core.storage.record.FileHeaderPage;
 import org.vanilladb.core.storage.record.RecordFile;
 import org.vanilladb.core.storage.record.RecordId;
+import org.vanilladb.core.storage.record.RecordPage;
 import org.vanilladb.core.storage.tx.Transaction;
 import org.vanilladb.core.util.ByteHelper;
 import org.vanilladb.core.util.CoreProperties;
@@ -43,14 +61,90 @@ public class IVFSq8DirectIndex extends Index {
 
     public final static int NUM_CENTROIDS;
     public final static int NUM_PROBE_BUCKETS;
-    // public final static int PROBE_THREADS = Runtime.getRuntime().availableProcessors();
-    public final static int PROBE_THREADS = 1;
+    /**
+     * The default number of tasks used to rank the centroids and to scan the
+     * probed clusters. It can be overridden for a single index by the property
+     * <code>PROBE_THREADS.&lt;index name&gt;</code>.
+     */
+    public final static int PROBE_THREADS;
+    /**
+     * Whether a search limited to the k nearest entries probes the clusters
+     * adaptively. The probe count then caps the clusters ranked, and the scan
+     * stops early once more clusters are unlikely to change the top-k.
+     */
+    public final static boolean ADAPTIVE_PROBE;
+    /**
+     * The default number of clusters ranked by an adaptive search.
+     */
+    public final static int MAX_ADAPTIVE_PROBE_BUCKETS;
+    /**
+     * The number of consecutive clusters that leave the top-k unchanged
+     * before an adaptive search stops.
+     */
+    public final static int STABLE_CLUSTERS;
 
     static {
         NUM_CENTROIDS = CoreProperties.getLoader().getPropertyAsInteger(
                 IVFSq8DirectIndex.class.getName() + ".NUM_CENTROIDS", 16384);
         NUM_PROBE_BUCKETS = CoreProperties.getLoader().getPropertyAsInteger(
                 IVFSq8DirectIndex.class.getName() + ".NUM_PROBE_BUCKETS", 2);
+        PROBE_THREADS = CoreProperties.getLoader().getPropertyAsInteger(
+                IVFSq8DirectIndex.class.getName() + ".PROBE_THREADS",
+                Runtime.getRuntime().availableProcessors());
+        ADAPTIVE_PROBE = CoreProperties.getLoader().getPropertyAsBoolean(
+                IVFSq8DirectIndex.class.getName() + ".ADAPTIVE_PROBE", false);
+        MAX_ADAPTIVE_PROBE_BUCKETS = CoreProperties.getLoader().getPropertyAsInteger(
+                IVFSq8DirectIndex.class.getName() + ".MAX_ADAPTIVE_PROBE_BUCKETS", 32);
+        STABLE_CLUSTERS = CoreProperties.getLoader().getPropertyAsInteger(
+                IVFSq8DirectIndex.class.getName() + ".STABLE_CLUSTERS", 2);
+    }
+
+    private static final Object RADIUS_LOCK = new Object();
+    // The clusters searched for an entry to delete when its nearest cluster
+    // does not hold it
+    private static final int DELETE_PROBE_BUCKETS = 16;
+
+    private static class RadiusFormatter extends PageFormatter {
+        private double[] radii;
+
+        RadiusFormatter() {
+        }
+
+        /**
+         * Formats a page with the specified radii, and the rest of the page
+         * as unknown.
+         */
+        RadiusFormatter(double[] radii) {
+            this.radii = radii;
+        }
+
+        @Override
+        public void format(Buffer buf) {
+            DoubleConstant unknown = new DoubleConstant(Double.POSITIVE_INFINITY);
+            for (int i = 0, pos = 0; pos + ByteHelper.DOUBLE_SIZE <= Buffer.BUFFER_SIZE;
+                    i++, pos += ByteHelper.DOUBLE_SIZE)
+                setVal(buf, pos, radii != null && i < radii.length ? new DoubleConstant(radii[i]) : unknown);
+        }
+    }
+
+    /**
+     * Formats a page with the specified floats of a file that stores vectors
+     * contiguously across blocks.
+     */
+    private static class VectorBlockFormatter extends PageFormatter {
+        private float[] vals;
+
+        VectorBlockFormatter(float[] vals) {
+            this.vals = vals;
+        }
+
+        @Override
+        public void format(Buffer buf) {
+            setVal(buf, 0, new VectorConstant(vals));
+            int pos = vals.length * ByteHelper.FLOAT_SIZE;
+            if (pos < Buffer.BUFFER_SIZE)
+                setVal(buf, pos, new VectorConstant(new float[(Buffer.BUFFER_SIZE - pos) / ByteHelper.FLOAT_SIZE]));
+        }
     }
 
     public static int numCentroidBlocks(SearchKeyType keyType) {
@@ -66,20 +160,24 @@ public class IVFSq8DirectIndex extends Index {
     }
 
     private class ProbeTask extends Task {
-        private EuclideanFn distFn;
+        private CentroidTable centroids;
+        private float[] query;
         private int low, high;  // The assigned task
         private CountDownLatch doneSignal;
         // Accessible from the outside
         double[] dists;
         int[] probedClusters;
         int probeId, probeCount;
+        RuntimeException failure;
 
-        ProbeTask(int n, EuclideanFn distFn, int probeCount, CountDownLatch doneSignal) {
-            this.distFn = distFn;
+        ProbeTask(int n, int numTasks, CentroidTable centroids, float[] query, int probeCount,
+                CountDownLatch doneSignal) {
+            this.centroids = centroids;
+            this.query = query;
             this.probeCount = probeCount;
             this.doneSignal = doneSignal;
-            low = n * IVFSq8DirectIndex.NUM_CENTROIDS / PROBE_THREADS;
-            high = (n + 1) * IVFSq8DirectIndex.NUM_CENTROIDS / PROBE_THREADS;
+            low = n * IVFSq8DirectIndex.NUM_CENTROIDS / numTasks;
+            high = (n + 1) * IVFSq8DirectIndex.NUM_CENTROIDS / numTasks;
             dists = new double[probeCount];
             probedClusters = new int[probeCount];
             probeId = 0;
@@ -87,9 +185,21 @@ public class IVFSq8DirectIndex extends Index {
 
         @Override
         public void run() {
+            try {
+                rank();
+            } catch (RuntimeException e) {
+                failure = e;
+            } finally {
+                doneSignal.countDown();
+            }
+        }
+
+        private void rank() {
+            // Squared distances preserve the ranking of the centroids
+            float[] centroidDists = new float[high - low];
+            centroids.squaredDistances(query, low, high, centroidDists);
             for (int i = low; i < high; ++i) {
-                VectorConstant centroid = getCentroidVector(i);
-                double dist = distFn.distance(centroid);
+                double dist = centroidDists[i - low];
                 int j = probeId;
                 if (probeId < probeCount) ++probeId;
                 while (j > 0 && dist < dists[j - 1]) {
@@ -105,7 +215,404 @@ public class IVFSq8DirectIndex extends Index {
                 }
             }
             probeCount = probeId; probeId = 0;
-            doneSignal.countDown();
+        }
+    }
+
+    /**
+     * An entry of a probed cluster, materialized together with its distance
+     * to the query so that the partial results of the scan tasks can be
+     * merged.
+     */
+    private static class ProbedEntry implements Comparable<ProbedEntry> {
+        double dist;
+        Constant[] vals;
+
+        ProbedEntry(double dist, Constant[] vals) {
+            this.dist = dist;
+            this.vals = vals;
+        }
+
+        @Override
+        public int compareTo(ProbedEntry other) {
+            return Double.compare(dist, other.dist);
+        }
+    }
+
+    /**
+     * Formats a new cluster page with the specified entries, leaving the
+     * remaining slots empty.
+     */
+    private class ClusterPageFormatter extends PageFormatter {
+        private List<Constant[]> entries;
+
+        ClusterPageFormatter(List<Constant[]> entries) {
+            this.entries = entries;
+        }
+
+        @Override
+        public void format(Buffer buf) {
+            int slot = 0;
+            for (int pos = 0; pos + sq8SlotSize <= Buffer.BUFFER_SIZE; pos += sq8SlotSize, ++slot) {
+                boolean inUse = slot < entries.size();
+                setVal(buf, pos, new IntegerConstant(inUse ? RecordPage.INUSE : RecordPage.EMPTY));
+                for (int j = 0; j < sq8Fields.length; ++j) {
+                    Type type = sq8DirectSchema.type(sq8Fields[j]);
+                    setVal(buf, pos + RecordPage.FLAG_SIZE + sq8Offsets.get(sq8Fields[j]),
+                            inUse ? entries.get(slot)[j] : Constant.defaultInstance(type));
+                }
+            }
+        }
+    }
+
+    /**
+     * Builds the clusters of the index from a stream of entries. Each entry
+     * is assigned to its nearest centroid and buffered in memory with the
+     * other entries of its cluster; a full page of entries is appended to the
+     * cluster file at once, so the build writes every cluster sequentially
+     * instead of pinning its tail page once per entry. The loader does not
+     * log, as {@link #insert(SearchKey, RecordId, boolean)} without logical
+     * logging does not.
+     */
+    public class BulkLoader {
+        private CentroidTable centroids;
+        private float[] dists = new float[NUM_CENTROIDS];
+        private int slotsPerPage = Buffer.BUFFER_SIZE / sq8SlotSize;
+        private List<List<Constant[]>> pending = new ArrayList<List<Constant[]>>(NUM_CENTROIDS);
+        private double[] radii = new double[NUM_CENTROIDS];
+        private RecordId[] tails = new RecordId[NUM_CENTROIDS];
+        private int embFieldId = sq8FieldIds.get(ii.fieldNames().get(0));
+
+        private BulkLoader() {
+            centroids = centroids();
+            for (int c = 0; c < NUM_CENTROIDS; ++c)
+                pending.add(new ArrayList<Constant[]>(slotsPerPage));
+        }
+
+        /**
+         * Adds an entry to the index.
+         *
+         * @param key
+         *            the values of all fields of the data record
+         * @param dataRecordId
+         *            the id of the data record
+         */
+        public void insert(SearchKey key, RecordId dataRecordId) {
+            int i = 0;
+            Constant[] vals = new Constant[sq8Fields.length];
+            VectorConstant vec = null;
+            for (String fldname : tableSchema.fields()) {
+                Constant c = key.get(i++);
+                if (c instanceof VectorConstant) {
+                    if (vec == null)
+                        vec = (VectorConstant) c;
+                    c = encode(fldname, (VectorConstant) c);
+                }
+                vals[sq8FieldIds.get(fldname)] = c;
+            }
+            vals[sq8FieldIds.get(SCHEMA_RID_BLOCK)] = new BigIntConstant(dataRecordId.block().number());
+            vals[sq8FieldIds.get(SCHEMA_RID_ID)] = new IntegerConstant(dataRecordId.id());
+
+            // Assign the entry to its nearest centroid
+            centroids.squaredDistances(vec.asJavaVal(), 0, NUM_CENTROIDS, dists);
+            int cluster = 0;
+            for (int c = 1; c < NUM_CENTROIDS; ++c)
+                if (dists[c] < dists[cluster])
+                    cluster = c;
+
+            List<Constant[]> entries = pending.get(cluster);
+            entries.add(vals);
+            if (entries.size() == slotsPerPage)
+                appendPage(cluster);
+        }
+
+        /**
+         * Writes the pages of the remaining entries, and then updates the
+         * file headers and the radii of the clusters.
+         */
+        public void close() {
+            for (int c = 0; c < NUM_CENTROIDS; ++c) {
+                if (!pending.get(c).isEmpty())
+                    appendPage(c);
+                if (tails[c] == null)
+                    continue;
+
+                String fileName = new TableInfo(ii.indexName() + c, sq8DirectSchema).fileName();
+                ReentrantLock headerLatch = tx.concurrencyMgr().getLockForFileHeader(
+                        new BlockId(fileName, 0));
+                headerLatch.lock();
+                try {
+                    // Later insertions continue after the appended pages
+                    FileHeaderPage fhp = new FileHeaderPage(fileName, tx);
+                    fhp.setTailSlot(tails[c]);
+                    fhp.close();
+                } finally {
+                    headerLatch.unlock();
+                }
+                synchronized (RADIUS_LOCK) {
+                    if (radii[c] > getRadius(c))
+                        setRadius(c, radii[c]);
+                }
+            }
+            ClusterSizes.invalidate(ii.indexName());
+        }
+
+        private void appendPage(int cluster) {
+            List<Constant[]> entries = pending.get(cluster);
+
+            // The distance function of a centroid is set up once per page,
+            // which matters for the ADC tables of IVF-PQ
+            DistanceFn distFn = codeDistFn(new VectorConstant(centroids.vector(cluster)));
+            for (Constant[] vals : entries)
+                radii[cluster] = Math.max(radii[cluster],
+                        distFn.distance((ByteVectorConstant) vals[embFieldId]));
+
+            TableInfo ti = new TableInfo(ii.indexName() + cluster, sq8DirectSchema);
+            tx.concurrencyMgr().modifyFile(ti.fileName());
+            if (VanillaDb.fileMgr().size(ti.fileName()) == 0)
+                RecordFile.formatFileHeader(ti.fileName(), tx);
+            Buffer buff = tx.bufferMgr().pinNew(ti.fileName(), new ClusterPageFormatter(entries));
+            tx.concurrencyMgr().insertBlock(buff.block());
+            tails[cluster] = new RecordId(buff.block(), entries.size() - 1);
+            tx.bufferMgr().unpin(buff);
+            entries.clear();
+        }
+    }
+
+    /**
+     * An entry read from a cluster file, with the slot holding it, while the
+     * entries are moved between clusters.
+     */
+    private static class ClusterEntry {
+        RecordId slot;
+        Constant[] vals;
+
+        ClusterEntry(RecordId slot, Constant[] vals) {
+            this.slot = slot;
+            this.vals = vals;
+        }
+    }
+
+    /**
+     * A view of the index record in a slot of a pinned cluster page, against
+     * which the filter of the search is evaluated without materializing the
+     * record.
+     */
+    private class SlotRecord implements Record {
+        Buffer buff;
+        int pos;
+
+        @Override
+        public Constant getVal(String fldName) {
+            return buff.getVal(pos + RecordPage.FLAG_SIZE + sq8Offsets.get(fldName),
+                    sq8DirectSchema.type(fldName));
+        }
+    }
+
+    /**
+     * Scans a subset of the probed clusters. The blocks are pinned and
+     * read-locked through the shared transaction, one task at a time, while
+     * decoding the records and computing the distances run concurrently.
+     */
+    private class ClusterScanTask extends Task {
+        private DistanceFn distFn;
+        private String[] fileNames;
+        private long[] fileSizes;
+        private double[] lowerBounds;
+        private CountDownLatch doneSignal;
+        // The k-th best distance among all tasks, shared as double bits
+        private AtomicLong threshold;
+        // A max-heap holding the best entries when the search is limited
+        private PriorityQueue<ProbedEntry> heap;
+        // Accessible from the outside
+        List<ProbedEntry> entries = new ArrayList<ProbedEntry>();
+        RuntimeException failure;
+
+        ClusterScanTask(DistanceFn distFn, String[] fileNames, long[] fileSizes,
+                double[] lowerBounds, AtomicLong threshold, CountDownLatch doneSignal) {
+            this.distFn = distFn;
+            this.fileNames = fileNames;
+            this.fileSizes = fileSizes;
+            this.lowerBounds = lowerBounds;
+            this.threshold = threshold;
+            this.doneSignal = doneSignal;
+            if (searchLimit > 0)
+                heap = new PriorityQueue<ProbedEntry>(searchLimit + 1, Collections.reverseOrder());
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (int i = 0; i < fileNames.length; ++i) {
+                    // No entry of the cluster can beat the current k-th best
+                    if (lowerBounds[i] >= threshold())
+                        continue;
+                    scan(fileNames[i], fileSizes[i]);
+                }
+                if (heap != null)
+                    entries.addAll(heap);
+                Collections.sort(entries);
+            } catch (RuntimeException e) {
+                failure = e;
+            } finally {
+                doneSignal.countDown();
+            }
+        }
+
+        private double threshold() {
+            return Double.longBitsToDouble(threshold.get());
+        }
+
+        private void offer(ProbedEntry entry) {
+            if (heap == null) {
+                entries.add(entry);
+                return;
+            }
+            heap.add(entry);
+            if (heap.size() > searchLimit)
+                heap.poll();
+            if (heap.size() == searchLimit) {
+                // Lower the shared threshold to the k-th best of this task
+                long bits = Double.doubleToLongBits(heap.peek().dist);
+                long current;
+                while (heap.peek().dist < Double.longBitsToDouble(current = threshold.get()))
+                    if (threshold.compareAndSet(current, bits))
+                        break;
+            }
+        }
+
+        private void scan(String fileName, long fileSize) {
+            String embField = ii.fieldNames().get(0);
+            Type embType = sq8DirectSchema.type(embField);
+            int embOffset = RecordPage.FLAG_SIZE + sq8Offsets.get(embField);
+            SlotRecord slot = filter == null ? null : new SlotRecord();
+            // Data blocks start after the file header
+            for (long blkNum = 1; blkNum < fileSize; ++blkNum) {
+                Buffer buff = pinShared(new BlockId(fileName, blkNum));
+                try {
+                    for (int pos = 0; pos + sq8SlotSize <= Buffer.BUFFER_SIZE; pos += sq8SlotSize) {
+                        if ((Integer) buff.getVal(pos, INTEGER).asJavaVal() != RecordPage.INUSE)
+                            continue;
+                        // Filter on the stored fields before computing the distance
+                        if (slot != null) {
+                            slot.buff = buff;
+                            slot.pos = pos;
+                            if (!filter.isSatisfied(slot))
+                                continue;
+                        }
+                        ByteVectorConstant code = (ByteVectorConstant) buff.getVal(pos + embOffset, embType);
+                        double bound = threshold();
+                        double dist = distFn.distance(code, bound);
+                        if (dist >= bound)
+                            continue;
+                        Constant[] vals = new Constant[sq8Fields.length];
+                        for (int j = 0; j < sq8Fields.length; ++j)
+                            vals[j] = buff.getVal(pos + RecordPage.FLAG_SIZE + sq8Offsets.get(sq8Fields[j]),
+                                    sq8DirectSchema.type(sq8Fields[j]));
+                        offer(new ProbedEntry(dist, vals));
+                    }
+                } finally {
+                    unpinShared(buff);
+                }
+            }
+        }
+    }
+
+    /**
+     * The data record of an entry of a probed cluster, with its distance to
+     * one of the queries of a batch.
+     */
+    private static class BatchEntry implements Comparable<BatchEntry> {
+        double dist;
+        RecordId rid;
+
+        BatchEntry(double dist, RecordId rid) {
+            this.dist = dist;
+            this.rid = rid;
+        }
+
+        @Override
+        public int compareTo(BatchEntry other) {
+            return Double.compare(dist, other.dist);
+        }
+    }
+
+    /**
+     * Scans a subset of the clusters probed by a batch of queries. Each
+     * cluster is read once, and every entry is scored against all the queries
+     * probing the cluster. The task keeps the best entries of each query in
+     * its own max-heaps.
+     */
+    private class BatchScanTask extends Task {
+        private DistanceFn[] distFns;
+        private String[] fileNames;
+        private long[] fileSizes;
+        private int[][] clusterQueries;
+        private int limit;
+        private CountDownLatch doneSignal;
+        // Accessible from the outside
+        List<PriorityQueue<BatchEntry>> heaps;
+        RuntimeException failure;
+
+        BatchScanTask(DistanceFn[] distFns, String[] fileNames, long[] fileSizes,
+                int[][] clusterQueries, int limit, CountDownLatch doneSignal) {
+            this.distFns = distFns;
+            this.fileNames = fileNames;
+            this.fileSizes = fileSizes;
+            this.clusterQueries = clusterQueries;
+            this.limit = limit;
+            this.doneSignal = doneSignal;
+            heaps = new ArrayList<PriorityQueue<BatchEntry>>(distFns.length);
+            for (int q = 0; q < distFns.length; ++q)
+                heaps.add(new PriorityQueue<BatchEntry>(limit + 1, Collections.reverseOrder()));
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (int i = 0; i < fileNames.length; ++i)
+                    scan(fileNames[i], fileSizes[i], clusterQueries[i]);
+            } catch (RuntimeException e) {
+                failure = e;
+            } finally {
+                doneSignal.countDown();
+            }
+        }
+
+        private void scan(String fileName, long fileSize, int[] queries) {
+            String embField = ii.fieldNames().get(0);
+            Type embType = sq8DirectSchema.type(embField);
+            int embOffset = RecordPage.FLAG_SIZE + sq8Offsets.get(embField);
+            int blockOffset = RecordPage.FLAG_SIZE + sq8Offsets.get(SCHEMA_RID_BLOCK);
+            int idOffset = RecordPage.FLAG_SIZE + sq8Offsets.get(SCHEMA_RID_ID);
+            for (long blkNum = 1; blkNum < fileSize; ++blkNum) {
+                Buffer buff = pinShared(new BlockId(fileName, blkNum));
+                try {
+                    for (int pos = 0; pos + sq8SlotSize <= Buffer.BUFFER_SIZE; pos += sq8SlotSize) {
+                        if ((Integer) buff.getVal(pos, INTEGER).asJavaVal() != RecordPage.INUSE)
+                            continue;
+                        ByteVectorConstant code = (ByteVectorConstant) buff.getVal(pos + embOffset, embType);
+                        RecordId rid = null;
+                        for (int q : queries) {
+                            PriorityQueue<BatchEntry> heap = heaps.get(q);
+                            double bound = heap.size() == limit ? heap.peek().dist
+                                    : Double.POSITIVE_INFINITY;
+                            double dist = distFns[q].distance(code, bound);
+                            if (dist >= bound)
+                                continue;
+                            if (rid == null) {
+                                long dataBlk = (Long) buff.getVal(pos + blockOffset, BIGINT).asJavaVal();
+                                int id = (Integer) buff.getVal(pos + idOffset, INTEGER).asJavaVal();
+                                rid = new RecordId(new BlockId(dataFileName, dataBlk), id);
+                            }
+                            heap.add(new BatchEntry(dist, rid));
+                            if (heap.size() > limit)
+                                heap.poll();
+                        }
+                    }
+                } finally {
+                    unpinShared(buff);
+                }
+            }
         }
     }
 
@@ -113,55 +620,171 @@ public class IVFSq8DirectIndex extends Index {
         return ii.indexName() + "_centroids.idx";
     }
 
+    private CentroidTable centroids() {
+        int dimension = ((VectorType)keyType.get(0)).getArgument();
+        return CentroidTable.get(centroidName(), IVFSq8DirectIndex.NUM_CENTROIDS, dimension, tx);
+    }
+
     public VectorConstant getCentroidVector(int bucket) {
+        return new VectorConstant(centroids().vector(bucket));
+    }
+
+    public void setCentroidVector(int bucket, VectorConstant centroid) {
+        int dimension = ((VectorType)keyType.get(0)).getArgument();
+        setVector(centroidName(), bucket, dimension, centroid);
+        // drop the resident copy after the new value is in place
+        CentroidTable.invalidate(centroidName(), tx);
+
+        // The entries already in the cluster are no longer bounded
+        TableInfo ti = new TableInfo(ii.indexName() + bucket, sq8DirectSchema);
+        setRadius(bucket, VanillaDb.fileMgr().isFileEmpty(ti.fileName()) ? 0.0 : Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Writes all the centroids in one pass, as the training of the index
+     * does. The blocks not yet in the centroid file are appended already
+     * formatted with their centroids, like the pages of a {@link BulkLoader},
+     * so only the centroids in existing blocks are logged. The resident copy
+     * is dropped and the radii are reset once at the end.
+     *
+     * @param centroids
+     *            the centroids, stored contiguously
+     */
+    public void setCentroidVectors(float[] centroids) {
+        int dimension = ((VectorType)keyType.get(0)).getArgument();
+        if (centroids.length != NUM_CENTROIDS * dimension)
+            throw new IllegalArgumentException("the number of centroids does not match");
+        tx.concurrencyMgr().modifyFile(centroidName());
         int fpb = Buffer.BUFFER_SIZE / ByteHelper.FLOAT_SIZE;
-        VectorType T = (VectorType)keyType.get(0);
-        int dimension = T.getArgument();
-        int id0 = bucket * dimension, id1 = (bucket + 1) * dimension;
-        int blkNum0 = id0 / fpb, blkNum1 = (id1 - 1) / fpb;
-        if (blkNum0 == blkNum1) {
-            int offset = id0 % fpb * ByteHelper.FLOAT_SIZE;
-            Buffer buff = tx.bufferMgr().pin(new BlockId(centroidName(), blkNum0));
-            VectorConstant v = (VectorConstant)buff.getVal(offset, T);
-            tx.bufferMgr().unpin(buff);
-            return v;
-        } else {
-            int sz0 = fpb - id0 % fpb, sz1 = dimension - sz0;
-            Buffer buff = tx.bufferMgr().pin(new BlockId(centroidName(), blkNum0));
-            float[] a = new float[dimension];
-            VectorConstant tmp = (VectorConstant)buff.getVal(
-                Buffer.BUFFER_SIZE - Type.VECTOR(sz0).maxSize(), Type.VECTOR(sz0));
-            tx.bufferMgr().unpin(buff);
-            System.arraycopy(tmp.asJavaVal(), 0, a, 0, sz0);
+        long size = VanillaDb.fileMgr().size(centroidName());
+        for (long blk = size; blk * fpb < centroids.length; blk++) {
+            int from = (int) (blk * fpb);
+            float[] vals = Arrays.copyOfRange(centroids, from, Math.min(from + fpb, centroids.length));
+            tx.bufferMgr().unpin(tx.bufferMgr().pinNew(centroidName(), new VectorBlockFormatter(vals)));
+        }
+        // The centroids starting in the existing blocks are written one by one
+        for (int c = 0; c < NUM_CENTROIDS && (long) c * dimension < size * fpb; c++)
+            setVector(centroidName(), c, dimension, new VectorConstant(
+                    Arrays.copyOfRange(centroids, c * dimension, (c + 1) * dimension)));
+        // drop the resident copy after the new values are in place
+        CentroidTable.invalidate(centroidName(), tx);
+        resetRadii();
+    }
+
+    /**
+     * Resets the radii of all the clusters, after their centroids are moved.
+     * The entries already in a cluster are no longer bounded, while an empty
+     * cluster has a zero radius.
+     */
+    private void resetRadii() {
+        int dpb = Buffer.BUFFER_SIZE / ByteHelper.DOUBLE_SIZE;
+        double[] radii = new double[NUM_CENTROIDS];
+        for (int c = 0; c < NUM_CENTROIDS; c++) {
+            TableInfo ti = new TableInfo(ii.indexName() + c, sq8DirectSchema);
+            radii[c] = VanillaDb.fileMgr().isFileEmpty(ti.fileName()) ? 0.0 : Double.POSITIVE_INFINITY;
+        }
+        synchronized (RADIUS_LOCK) {
+            long size = VanillaDb.fileMgr().size(radiusName());
+            for (int c = 0; c < Math.min(NUM_CENTROIDS, size * dpb); c++)
+                if (getRadius(c) != radii[c])
+                    setRadius(c, radii[c]);
+            for (long blk = size; blk * dpb < NUM_CENTROIDS; blk++) {
+                int from = (int) (blk * dpb);
+                tx.bufferMgr().unpin(tx.bufferMgr().pinNew(radiusName(), new RadiusFormatter(
+                        Arrays.copyOfRange(radii, from, Math.min(from + dpb, NUM_CENTROIDS)))));
+            }
+        }
+    }
+
+    public String radiusName() {
+        return ii.indexName() + "_radii.idx";
+    }
+
+    /**
+     * Returns the largest distance between the centroid of a cluster and the
+     * codes stored in it, or infinity if it is unknown.
+     */
+    public double getRadius(int bucket) {
+        int dpb = Buffer.BUFFER_SIZE / ByteHelper.DOUBLE_SIZE;
+        if (VanillaDb.fileMgr().size(radiusName()) <= bucket / dpb)
+            return Double.POSITIVE_INFINITY;
+        Buffer buff = tx.bufferMgr().pin(new BlockId(radiusName(), bucket / dpb),
+                BufferPriority.HIGH);
+        double radius = (Double) buff.getVal(bucket % dpb * ByteHelper.DOUBLE_SIZE, DOUBLE).asJavaVal();
+        tx.bufferMgr().unpin(buff);
+        return radius;
+    }
 
-            buff = tx.bufferMgr().pin(new BlockId(centroidName(), blkNum1));
-            tmp = (VectorConstant)buff.getVal(0, Type.VECTOR(sz1));
+    private void setRadius(int bucket, double radius) {
+        int dpb = Buffer.BUFFER_SIZE / ByteHelper.DOUBLE_SIZE;
+        synchronized (RADIUS_LOCK) {
+            // Radii of clusters never bounded are unknown
+            while (VanillaDb.fileMgr().size(radiusName()) <= bucket / dpb)
+                tx.bufferMgr().unpin(tx.bufferMgr().pinNew(radiusName(), new RadiusFormatter()));
+            Buffer buff = tx.bufferMgr().pin(new BlockId(radiusName(), bucket / dpb));
+            setLoggedVal(buff, bucket % dpb * ByteHelper.DOUBLE_SIZE, new DoubleConstant(radius));
             tx.bufferMgr().unpin(buff);
-            System.arraycopy(tmp.asJavaVal(), 0, a, sz0, sz1);
-            return new VectorConstant(a);
         }
     }
 
-    public void setCentroidVector(int bucket, VectorConstant centroid) {
+    private void extendRadius(int bucket, ByteVectorConstant code) {
+        double dist = codeDistFn(getCentroidVector(bucket)).distance(code);
+        // Deletions never shrink the radius, which keeps it a valid bound
+        synchronized (RADIUS_LOCK) {
+            if (dist > getRadius(bucket))
+                setRadius(bucket, dist);
+        }
+    }
+
+    /**
+     * Writes a vector into a file that stores fixed-size vectors contiguously
+     * across blocks, such as the centroid file. The file is locked until the
+     * end of the transaction, and the write is logged so that it can be
+     * undone.
+     */
+    protected void setVector(String fileName, int bucket, int dimension, VectorConstant vec) {
+        tx.concurrencyMgr().modifyFile(fileName);
         int fpb = Buffer.BUFFER_SIZE / ByteHelper.FLOAT_SIZE;
-        int dimension = ((VectorType)keyType.get(0)).getArgument();
         int id0 = bucket * dimension, id1 = (bucket + 1) * dimension;
         int blkNum0 = id0 / fpb, blkNum1 = (id1 - 1) / fpb;
         if (blkNum0 == blkNum1) {
             int offset = id0 % fpb * ByteHelper.FLOAT_SIZE;
-            Buffer buff = tx.bufferMgr().pin(new BlockId(centroidName(), blkNum0));
-            buff.setVal(offset, centroid, tx.getTransactionNumber(), null);
+            Buffer buff = tx.bufferMgr().pin(new BlockId(fileName, blkNum0));
+            setLoggedVal(buff, offset, vec);
             tx.bufferMgr().unpin(buff);
         } else {
             int sz0 = fpb - id0 % fpb;
-            VectorConstant tmp = new VectorConstant(Arrays.copyOfRange(centroid.asJavaVal(), 0, sz0));
-            Buffer buff = tx.bufferMgr().pin(new BlockId(centroidName(), blkNum0));
-            buff.setVal(Buffer.BUFFER_SIZE - tmp.size(), tmp, tx.getTransactionNumber(), null);
+            VectorConstant tmp = new VectorConstant(Arrays.copyOfRange(vec.asJavaVal(), 0, sz0));
+            Buffer buff = tx.bufferMgr().pin(new BlockId(fileName, blkNum0));
+            setLoggedVal(buff, Buffer.BUFFER_SIZE - tmp.size(), tmp);
             tx.bufferMgr().unpin(buff);
 
-            tmp = new VectorConstant(Arrays.copyOfRange(centroid.asJavaVal(), sz0, dimension));
-            buff = tx.bufferMgr().pin(new BlockId(centroidName(), blkNum1));
-            buff.setVal(0, tmp, tx.getTransactionNumber(), null);
+            tmp = new VectorConstant(Arrays.copyOfRange(vec.asJavaVal(), sz0, dimension));
+            buff = tx.bufferMgr().pin(new BlockId(fileName, blkNum1));
+            setLoggedVal(buff, 0, tmp);
+            tx.bufferMgr().unpin(buff);
+        }
+    }
+
+    private void setLoggedVal(Buffer buff, int offset, Constant val) {
+        LogSeqNum lsn = tx.recoveryMgr().logSetVal(buff, offset, val);
+        buff.setVal(offset, val, tx.getTransactionNumber(), lsn);
+    }
+
+    /**
+     * Read-locks and pins the specified block on behalf of the transaction.
+     * The buffer manager of a transaction is not thread-safe, so the probing
+     * tasks serialize on it.
+     */
+    private Buffer pinShared(BlockId blk) {
+        synchronized (tx.bufferMgr()) {
+            tx.concurrencyMgr().readLeafBlock(blk);
+            return tx.bufferMgr().pin(blk);
+        }
+    }
+
+    private void unpinShared(Buffer buff) {
+        synchronized (tx.bufferMgr()) {
             tx.bufferMgr().unpin(buff);
         }
     }
@@ -173,27 +796,31 @@ public class IVFSq8DirectIndex extends Index {
         }
         if (probeCount > IVFSq8DirectIndex.NUM_CENTROIDS)
             throw new RuntimeException();
-        EuclideanFn distFn = new EuclideanFn(ii.fieldNames().get(0));
-        distFn.setQueryVector(query);
+        CentroidTable centroids = centroids();
 
-        ProbeTask[] tasks = new ProbeTask[PROBE_THREADS];
-        CountDownLatch doneSignal = new CountDownLatch(PROBE_THREADS);
-        for (int i = 0; i < PROBE_THREADS; ++i) {
-            tasks[i] = new ProbeTask(i, distFn, probeCount, doneSignal);
-            VanillaDb.taskMgr().runTask(tasks[i]);
-        }
-        try {
-            doneSignal.await();
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+        int numTasks = Math.min(parallelism, IVFSq8DirectIndex.NUM_CENTROIDS);
+        ProbeTask[] tasks = new ProbeTask[numTasks];
+        CountDownLatch doneSignal = new CountDownLatch(numTasks);
+        for (int i = 0; i < numTasks; ++i) {
+            tasks[i] = new ProbeTask(i, numTasks, centroids, query.asJavaVal(), probeCount,
+                    doneSignal);
+            if (numTasks == 1)
+                tasks[i].run();
+            else
+                VanillaDb.taskMgr().runTask(tasks[i]);
         }
+        await(doneSignal);
+        for (ProbeTask task : tasks)
+            if (task.failure != null)
+                throw task.failure;
 
         double[] dists = new double[probeCount];
         probedClusters = new int[probeCount];
+        probedDists = dists;
         for (probeId = 0; probeId < probeCount; ++probeId) {
             ProbeTask currentBest = null;
             int i;
-            for (i = 0; i < PROBE_THREADS; ++i) {
+            for (i = 0; i < numTasks; ++i) {
                 if (tasks[i].probeId == tasks[i].probeCount) continue;
                 if (currentBest == null
                         || tasks[i].dists[tasks[i].probeId] < currentBest.dists[currentBest.probeId])
@@ -211,11 +838,146 @@ public class IVFSq8DirectIndex extends Index {
         probeId = 0;
     }
 
+    /**
+     * Scans the probed clusters and keeps the entries in ascending order of
+     * the distance to the query. A limited search in the adaptive mode scans
+     * the clusters nearest first in rounds, and stops once the top-k has not
+     * changed for {@link #STABLE_CLUSTERS} clusters.
+     */
+    private void scanProbedClusters(VectorConstant query) {
+        results = new ArrayList<ProbedEntry>();
+        resultId = -1;
+        if (probeId == -1)
+            return;
+
+        DistanceFn distFn = codeDistFn(query);
+        AtomicLong threshold = new AtomicLong(Double.doubleToLongBits(Double.POSITIVE_INFINITY));
+        if (!ADAPTIVE_PROBE || searchLimit == 0) {
+            results = scanClusters(distFn, 0, probedClusters.length, threshold);
+            return;
+        }
+
+        PriorityQueue<ProbedEntry> best = new PriorityQueue<ProbedEntry>(searchLimit + 1,
+                Collections.reverseOrder());
+        int next = 0, roundSize = 1, stable = 0;
+        while (next < probedClusters.length && stable < STABLE_CLUSTERS) {
+            int end = Math.min(next + roundSize, probedClusters.length);
+            boolean changed = false;
+            for (ProbedEntry entry : scanClusters(distFn, next, end, threshold)) {
+                if (best.size() == searchLimit && entry.dist >= best.peek().dist)
+                    continue;
+                best.add(entry);
+                if (best.size() > searchLimit)
+                    best.poll();
+                changed = true;
+            }
+            stable = changed ? 0 : stable + end - next;
+            next = end;
+            // Easy queries end after the first cluster, while hard ones grow
+            // the rounds up to the degree of parallelism
+            roundSize = Math.min(roundSize * 2, Math.max(parallelism, 1));
+        }
+        results.addAll(best);
+        Collections.sort(results);
+    }
+
+    /**
+     * Scans the probed clusters in the specified range of ranks concurrently
+     * and merges the partial results of the tasks in ascending order of the
+     * distance to the query. The clusters whose lower-bound distance cannot
+     * beat the current threshold are skipped before their files are opened.
+     */
+    private List<ProbedEntry> scanClusters(DistanceFn distFn, int from, int to,
+            AtomicLong threshold) {
+        List<ProbedEntry> merged = new ArrayList<ProbedEntry>();
+
+        // Initialize the files and take the file locks in the caller thread
+        List<String> fileNames = new ArrayList<String>(to - from);
+        List<Long> fileSizes = new ArrayList<Long>(to - from);
+        List<Double> lowerBounds = new ArrayList<Double>(to - from);
+        for (int i = from; i < to; ++i) {
+            // The centroid ranking uses squared distances
+            double lowerBound = Math.sqrt(probedDists[i]) - getRadius(probedClusters[i]);
+            if (lowerBound >= Double.longBitsToDouble(threshold.get()))
+                continue;
+            TableInfo ti = new TableInfo(ii.indexName() + probedClusters[i], sq8DirectSchema);
+            RecordFile clusterFile = ti.open(tx, false);
+            if (clusterFile.fileSize() == 0)
+                RecordFile.formatFileHeader(ti.fileName(), tx);
+            fileNames.add(ti.fileName());
+            fileSizes.add(clusterFile.fileSize());
+            lowerBounds.add(lowerBound);
+            clusterFile.close();
+        }
+        if (fileNames.isEmpty())
+            return merged;
+
+        int numClusters = fileNames.size();
+        int numTasks = Math.min(parallelism, numClusters);
+        ClusterScanTask[] tasks = new ClusterScanTask[numTasks];
+        CountDownLatch doneSignal = new CountDownLatch(numTasks);
+        for (int n = 0; n < numTasks; ++n) {
+            // Clusters are dealt to the tasks in a round-robin manner
+            int count = (numClusters - n + numTasks - 1) / numTasks;
+            String[] names = new String[count];
+            long[] sizes = new long[count];
+            double[] bounds = new double[count];
+            for (int i = 0; i < count; ++i) {
+                names[i] = fileNames.get(n + i * numTasks);
+                sizes[i] = fileSizes.get(n + i * numTasks);
+                bounds[i] = lowerBounds.get(n + i * numTasks);
+            }
+            tasks[n] = new ClusterScanTask(distFn, names, sizes, bounds, threshold, doneSignal);
+            if (numTasks == 1)
+                tasks[n].run();
+            else
+                VanillaDb.taskMgr().runTask(tasks[n]);
+        }
+        await(doneSignal);
+        for (ClusterScanTask task : tasks)
+            if (task.failure != null)
+                throw task.failure;
+
+        // Merge the sorted partial results
+        PriorityQueue<int[]> heads = new PriorityQueue<int[]>(numTasks,
+                (a, b) -> tasks[a[0]].entries.get(a[1]).compareTo(tasks[b[0]].entries.get(b[1])));
+        for (int n = 0; n < numTasks; ++n)
+            if (!tasks[n].entries.isEmpty())
+                heads.add(new int[] { n, 0 });
+        while (!heads.isEmpty()) {
+            int[] head = heads.poll();
+            List<ProbedEntry> entries = tasks[head[0]].entries;
+            merged.add(entries.get(head[1]));
+            if (searchLimit > 0 && merged.size() == searchLimit)
+                break;
+            if (++head[1] < entries.size())
+                heads.add(head);
+        }
+        return merged;
+    }
+
+    private static void await(CountDownLatch doneSignal) {
+        try {
+            doneSignal.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("interrupted while probing the IVF index", e);
+        }
+    }
+
 	private SearchKey searchKey;
     private Schema tableSchema, sq8DirectSchema;
+    private String[] sq8Fields;
+    private Map<String, Integer> sq8Offsets, sq8FieldIds;
+    private int sq8SlotSize;
     private RecordFile rf;
     private int[] probedClusters;
+    private double[] probedDists;
     private int probeId;
+    private int parallelism, searchLimit, probeCount;
+    private Predicate filter;
+    private List<ProbedEntry> results;
+    private int resultId;
 
     public IVFSq8DirectIndex(IndexInfo ii, SearchKeyType keyType, Schema schema, Transaction tx) {
         super(ii, keyType, tx);
@@ -223,63 +985,393 @@ public class IVFSq8DirectIndex extends Index {
         sq8DirectSchema = new Schema();
         for (String fldname : tableSchema.fields())
             if (tableSchema.type(fldname) instanceof VectorType)
-                sq8DirectSchema.addField(fldname, Type.BYTEVECTOR(tableSchema.type(fldname).getArgument()));
+                sq8DirectSchema.addField(fldname, codeType(fldname, (VectorType)tableSchema.type(fldname)));
             else
                 sq8DirectSchema.addField(fldname, tableSchema.type(fldname));
         sq8DirectSchema.addField(SCHEMA_RID_BLOCK, BIGINT);
         sq8DirectSchema.addField(SCHEMA_RID_ID, INTEGER);
+        sq8Fields = sq8DirectSchema.fields().toArray(new String[0]);
+        sq8FieldIds = new HashMap<String, Integer>();
+        for (int i = 0; i < sq8Fields.length; ++i)
+            sq8FieldIds.put(sq8Fields[i], i);
+        sq8Offsets = RecordPage.offsetMap(sq8DirectSchema);
+        sq8SlotSize = RecordPage.slotSize(sq8DirectSchema);
+        parallelism = CoreProperties.getLoader().getPropertyAsInteger(
+                IVFSq8DirectIndex.class.getName() + ".PROBE_THREADS." + ii.indexName(), PROBE_THREADS);
         probeId = -1;
     }
 
-    @Override
-    public void beforeFirst(SearchRange searchRange) {
+    /**
+     * Sets the number of tasks used to probe this index.
+     * 
+     * @param parallelism
+     *            the degree of parallelism, at least 1
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("parallelism must be positive");
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Limits the search to the specified number of entries nearest to the
+     * query. The scan then prunes the entries and the clusters that cannot
+     * beat the current k-th best distance.
+     * 
+     * @param searchLimit
+     *            the number of entries to return, or 0 for no limit
+     */
+    public void setSearchLimit(int searchLimit) {
+        if (searchLimit < 0)
+            throw new IllegalArgumentException("search limit must not be negative");
+        this.searchLimit = searchLimit;
+    }
+
+    /**
+     * Sets the number of clusters probed by a search, overriding
+     * {@link #NUM_PROBE_BUCKETS} for this index instance. Probing more
+     * clusters raises the recall at the cost of scanning more entries. In the
+     * adaptive mode, it is the maximal number of clusters probed.
+     * 
+     * @param probeCount
+     *            the number of clusters to probe, at least 1; it is capped at
+     *            the number of clusters
+     */
+    public void setProbeCount(int probeCount) {
+        if (probeCount < 1)
+            throw new IllegalArgumentException("probe count must be positive");
+        this.probeCount = Math.min(probeCount, NUM_CENTROIDS);
+    }
+
+    /**
+     * Restricts the search to the entries satisfying the specified predicate,
+     * which is evaluated on the non-vector fields stored in the clusters
+     * before the distance of an entry is computed. A limited search then
+     * returns the nearest entries among those satisfying the predicate.
+     * 
+     * @param filter
+     *            the predicate over the non-vector fields of the table, or
+     *            null for no filter
+     */
+    public void setFilter(Predicate filter) {
+        this.filter = filter;
+    }
+
+    private int probeCount(boolean adaptive) {
+        if (probeCount > 0)
+            return probeCount;
+        return Math.min(adaptive ? MAX_ADAPTIVE_PROBE_BUCKETS : NUM_PROBE_BUCKETS, NUM_CENTROIDS);
+    }
+
+    /**
+     * Returns a loader that builds the clusters from many entries at once.
+     * The centroids must have been set.
+     *
+     * @return the bulk loader
+     */
+    public BulkLoader bulkLoader() {
         close();
+        return new BulkLoader();
+    }
 
-        searchKey = searchRange.asSearchKey();
-        probe((VectorConstant)searchKey.get(0), NUM_PROBE_BUCKETS);
-        String tblname = ii.indexName() + probedClusters[0];
-        TableInfo ti = new TableInfo(tblname, sq8DirectSchema);
+    /**
+     * Searches the entries nearest to each of several queries at once. The
+     * centroids are ranked against all the queries in one pass over the
+     * centroid table, and the queries are grouped by the clusters they probe,
+     * so that a cluster shared by many queries is scanned only once.
+     *
+     * @param queries
+     *            the query vectors
+     * @param limit
+     *            the number of entries to return per query
+     * @return the ids of the data records of the nearest entries of each
+     *         query, nearest first
+     */
+    public List<List<RecordId>> searchBatch(List<VectorConstant> queries, int limit) {
+        if (limit < 1)
+            throw new IllegalArgumentException("limit must be positive");
+        close();
+        List<List<RecordId>> results = new ArrayList<List<RecordId>>(queries.size());
+        for (int q = 0; q < queries.size(); ++q)
+            results.add(new ArrayList<RecordId>());
+        if (queries.isEmpty() || VanillaDb.fileMgr().isFileEmpty(centroidName()))
+            return results;
 
-        // the underlying record file should not perform logging
-        rf = ti.open(tx, false);
+        // Rank the centroids for all queries together
+        float[][] vecs = new float[queries.size()][];
+        float[][] centroidDists = new float[queries.size()][NUM_CENTROIDS];
+        DistanceFn[] distFns = new DistanceFn[queries.size()];
+        for (int q = 0; q < vecs.length; ++q) {
+            vecs[q] = queries.get(q).asJavaVal();
+            distFns[q] = codeDistFn(queries.get(q));
+        }
+        centroids().squaredDistances(vecs, 0, NUM_CENTROIDS, centroidDists);
 
-        // initialize the file header if needed
-        if (rf.fileSize() == 0)
-            RecordFile.formatFileHeader(ti.fileName(), tx);
-        rf.beforeFirst();
+        // Group the queries by the clusters they probe
+        Map<Integer, List<Integer>> groups = new HashMap<Integer, List<Integer>>();
+        for (int q = 0; q < vecs.length; ++q)
+            for (int cluster : nearestClusters(centroidDists[q], probeCount(false)))
+                groups.computeIfAbsent(cluster, c -> new ArrayList<Integer>()).add(q);
+
+        // Initialize the files and take the file locks in the caller thread
+        int numClusters = groups.size();
+        String[] fileNames = new String[numClusters];
+        long[] fileSizes = new long[numClusters];
+        int[][] clusterQueries = new int[numClusters][];
+        int i = 0;
+        for (Map.Entry<Integer, List<Integer>> group : groups.entrySet()) {
+            TableInfo ti = new TableInfo(ii.indexName() + group.getKey(), sq8DirectSchema);
+            RecordFile clusterFile = ti.open(tx, false);
+            if (clusterFile.fileSize() == 0)
+                RecordFile.formatFileHeader(ti.fileName(), tx);
+            fileNames[i] = ti.fileName();
+            fileSizes[i] = clusterFile.fileSize();
+            clusterFile.close();
+            clusterQueries[i] = group.getValue().stream().mapToInt(Integer::intValue).toArray();
+            ++i;
+        }
+
+        int numTasks = Math.min(parallelism, numClusters);
+        BatchScanTask[] tasks = new BatchScanTask[numTasks];
+        CountDownLatch doneSignal = new CountDownLatch(numTasks);
+        for (int n = 0; n < numTasks; ++n) {
+            // Clusters are dealt to the tasks in a round-robin manner
+            int count = (numClusters - n + numTasks - 1) / numTasks;
+            String[] names = new String[count];
+            long[] sizes = new long[count];
+            int[][] assigned = new int[count][];
+            for (int j = 0; j < count; ++j) {
+                names[j] = fileNames[n + j * numTasks];
+                sizes[j] = fileSizes[n + j * numTasks];
+                assigned[j] = clusterQueries[n + j * numTasks];
+            }
+            tasks[n] = new BatchScanTask(distFns, names, sizes, assigned, limit, doneSignal);
+            if (numTasks == 1)
+                tasks[n].run();
+            else
+                VanillaDb.taskMgr().runTask(tasks[n]);
+        }
+        await(doneSignal);
+        for (BatchScanTask task : tasks)
+            if (task.failure != null)
+                throw task.failure;
+
+        // Merge the partial results of each query
+        for (int q = 0; q < vecs.length; ++q) {
+            List<BatchEntry> entries = new ArrayList<BatchEntry>();
+            for (BatchScanTask task : tasks)
+                entries.addAll(task.heaps.get(q));
+            Collections.sort(entries);
+            List<RecordId> rids = results.get(q);
+            for (int j = 0; j < entries.size() && j < limit; ++j)
+                rids.add(entries.get(j).rid);
+        }
+        return results;
     }
 
-    @Override
-    public boolean next() {
-        if (probeId == -1)
-            throw new IllegalStateException("You must call beforeFirst() before iterating index '"
-                    + ii.indexName() + "'");
-        
-        while (!rf.next()) {
-            rf.close();
-            if (++probeId == probedClusters.length) {
-                rf = null;
-                return false;
+    /**
+     * Returns the ids of the centroids with the smallest distances.
+     */
+    private static int[] nearestClusters(float[] dists, int count) {
+        int[] nearest = new int[count];
+        int size = 0;
+        for (int c = 0; c < dists.length; ++c) {
+            if (size == count && dists[c] >= dists[nearest[size - 1]])
+                continue;
+            int j = size < count ? size++ : size - 1;
+            while (j > 0 && dists[c] < dists[nearest[j - 1]]) {
+                nearest[j] = nearest[j - 1];
+                --j;
             }
+            nearest[j] = c;
+        }
+        return size == count ? nearest : Arrays.copyOf(nearest, size);
+    }
 
-            String tblname = ii.indexName() + probedClusters[probeId];
-            TableInfo ti = new TableInfo(tblname, sq8DirectSchema);
+    /**
+     * Splits the largest cluster in two if it holds more entries than the
+     * specified factor times the average. The number of centroids is fixed,
+     * so the smallest cluster is first merged into the cluster of its
+     * nearest centroid, which frees a centroid for the new half. The halves
+     * are found by 2-means over the vectors reconstructed from the codes.
+     *
+     * <p>
+     * The cluster files and the centroid file are locked before any of them
+     * is modified, so a rebalancing that fails to get its locks leaves the
+     * index unchanged. Searches and insertions read-lock the centroid file
+     * before they rank the centroids, so they wait for the rebalancing
+     * transaction to finish. The moves of the entries and the new centroids
+     * and radii are logged physically, so they are undone if the transaction
+     * rolls back or the system crashes before it commits.
+     * </p>
+     *
+     * @param splitFactor
+     *            the size of a cluster to be split, relative to the average
+     * @return true if a cluster was split
+     */
+    public boolean rebalance(double splitFactor) {
+        close();
+        if (NUM_CENTROIDS < 3 || VanillaDb.fileMgr().isFileEmpty(centroidName()))
+            return false;
+        ClusterSizes sizes = clusterSizes();
+        int large = 0, small = 0;
+        for (int c = 1; c < NUM_CENTROIDS; ++c) {
+            if (sizes.size(c) > sizes.size(large))
+                large = c;
+            if (sizes.size(c) < sizes.size(small))
+                small = c;
+        }
+        double limit = splitFactor * sizes.total() / NUM_CENTROIDS;
+        // Splitting a cluster within a page saves no block reads
+        if (sizes.size(large) <= Math.max(limit, Buffer.BUFFER_SIZE / sq8SlotSize))
+            return false;
 
-            // the underlying record file should not perform logging
-            rf = ti.open(tx, false);
-    
-            // initialize the file header if needed
-            if (rf.fileSize() == 0)
-                RecordFile.formatFileHeader(ti.fileName(), tx);
-            rf.beforeFirst();
+        // The cluster merged into must not become oversized in turn
+        CentroidTable centroids = centroids();
+        int neighbor = -1;
+        if (sizes.size(small) > 0) {
+            float[] dists = new float[NUM_CENTROIDS];
+            centroids.squaredDistances(centroids.vector(small), 0, NUM_CENTROIDS, dists);
+            dists[small] = dists[large] = Float.POSITIVE_INFINITY;
+            neighbor = nearestClusters(dists, 1)[0];
+            if (sizes.size(neighbor) + sizes.size(small) > limit)
+                return false;
+        }
+
+        tx.concurrencyMgr().modifyFile(centroidName());
+        tx.concurrencyMgr().modifyFile(clusterInfo(large).fileName());
+        tx.concurrencyMgr().modifyFile(clusterInfo(small).fileName());
+        if (neighbor >= 0)
+            tx.concurrencyMgr().modifyFile(clusterInfo(neighbor).fileName());
+
+        // Find the halves before anything is modified
+        List<ClusterEntry> entries = readEntries(large);
+        int embId = sq8FieldIds.get(ii.fieldNames().get(0));
+        List<float[]> vecs = new ArrayList<float[]>(entries.size());
+        for (ClusterEntry entry : entries)
+            vecs.add(reconstruct((ByteVectorConstant) entry.vals[embId]));
+        int dimension = ((VectorType)keyType.get(0)).getArgument();
+        KMeansTrainer trainer = new KMeansTrainer(2, dimension);
+        float[] halves = trainer.train(vecs);
+        int[] labels = trainer.assign(halves, vecs);
+        List<ClusterEntry> kept = new ArrayList<ClusterEntry>(), moved = new ArrayList<ClusterEntry>();
+        for (int i = 0; i < entries.size(); ++i)
+            (labels[i] == 0 ? kept : moved).add(entries.get(i));
+        if (kept.isEmpty() || moved.isEmpty()) {
+            // All entries share the same code
+            sizes.set(large, entries.size());
+            return false;
+        }
+
+        if (neighbor >= 0) {
+            List<ClusterEntry> merged = readEntries(small);
+            appendEntries(neighbor, merged);
+            deleteEntries(small, merged);
+            double radius = maxDistance(new VectorConstant(centroids.vector(neighbor)), merged);
+            synchronized (RADIUS_LOCK) {
+                if (radius > getRadius(neighbor))
+                    setRadius(neighbor, radius);
+            }
+            sizes.set(neighbor, sizes.size(neighbor) + merged.size());
         }
+
+        appendEntries(small, moved);
+        deleteEntries(large, moved);
+        VectorConstant keptCentroid = new VectorConstant(Arrays.copyOfRange(halves, 0, dimension));
+        VectorConstant movedCentroid = new VectorConstant(
+                Arrays.copyOfRange(halves, dimension, 2 * dimension));
+        setCentroidVector(large, keptCentroid);
+        setCentroidVector(small, movedCentroid);
+        setRadius(large, maxDistance(keptCentroid, kept));
+        setRadius(small, maxDistance(movedCentroid, moved));
+        sizes.set(large, kept.size());
+        sizes.set(small, moved.size());
         return true;
     }
 
+    private TableInfo clusterInfo(int cluster) {
+        return new TableInfo(ii.indexName() + cluster, sq8DirectSchema);
+    }
+
+    private ClusterSizes clusterSizes() {
+        int slotsPerPage = Buffer.BUFFER_SIZE / sq8SlotSize;
+        return ClusterSizes.get(ii.indexName(), NUM_CENTROIDS, c -> {
+            // Data blocks start after the file header
+            long blocks = VanillaDb.fileMgr().size(clusterInfo(c).fileName());
+            return (int) Math.max(blocks - 1, 0) * slotsPerPage;
+        });
+    }
+
+    private List<ClusterEntry> readEntries(int cluster) {
+        List<ClusterEntry> entries = new ArrayList<ClusterEntry>();
+        TableInfo ti = clusterInfo(cluster);
+        if (VanillaDb.fileMgr().isFileEmpty(ti.fileName()))
+            return entries;
+        RecordFile clusterFile = ti.open(tx, false);
+        clusterFile.beforeFirst();
+        while (clusterFile.next()) {
+            Constant[] vals = new Constant[sq8Fields.length];
+            for (int j = 0; j < sq8Fields.length; ++j)
+                vals[j] = clusterFile.getVal(sq8Fields[j]);
+            entries.add(new ClusterEntry(clusterFile.currentRecordId(), vals));
+        }
+        clusterFile.close();
+        return entries;
+    }
+
+    private void appendEntries(int cluster, List<ClusterEntry> entries) {
+        TableInfo ti = clusterInfo(cluster);
+        // The whole file is locked, so the moves can be undone physically
+        RecordFile clusterFile = ti.open(tx, true, false);
+        if (clusterFile.fileSize() == 0)
+            RecordFile.formatFileHeader(ti.fileName(), tx);
+        clusterFile.beforeFirst();
+        for (ClusterEntry entry : entries) {
+            clusterFile.insert();
+            for (int j = 0; j < sq8Fields.length; ++j)
+                clusterFile.setVal(sq8Fields[j], entry.vals[j]);
+        }
+        clusterFile.close();
+    }
+
+    private void deleteEntries(int cluster, List<ClusterEntry> entries) {
+        RecordFile clusterFile = clusterInfo(cluster).open(tx, true, false);
+        for (ClusterEntry entry : entries)
+            clusterFile.delete(entry.slot);
+        clusterFile.close();
+    }
+
+    private double maxDistance(VectorConstant centroid, List<ClusterEntry> entries) {
+        DistanceFn distFn = codeDistFn(centroid);
+        int embId = sq8FieldIds.get(ii.fieldNames().get(0));
+        double radius = 0.0;
+        for (ClusterEntry entry : entries)
+            radius = Math.max(radius, distFn.distance((ByteVectorConstant) entry.vals[embId]));
+        return radius;
+    }
+
+    @Override
+    public void beforeFirst(SearchRange searchRange) {
+        close();
+
+        searchKey = searchRange.asSearchKey();
+        VectorConstant query = (VectorConstant)searchKey.get(0);
+        probe(query, probeCount(ADAPTIVE_PROBE && searchLimit > 0));
+        scanProbedClusters(query);
+    }
+
+    @Override
+    public boolean next() {
+        if (results == null)
+            throw new IllegalStateException("You must call beforeFirst() before iterating index '"
+                    + ii.indexName() + "'");
+        return ++resultId < results.size();
+    }
+
     @Override
     public RecordId getDataRecordId() {
-        long blkNum = (Long) rf.getVal(SCHEMA_RID_BLOCK).asJavaVal();
-        int id = (Integer) rf.getVal(SCHEMA_RID_ID).asJavaVal();
+        long blkNum = (Long) currentVal(SCHEMA_RID_BLOCK).asJavaVal();
+        int id = (Integer) currentVal(SCHEMA_RID_ID).asJavaVal();
         return new RecordId(new BlockId(dataFileName, blkNum), id);
     }
 
@@ -314,19 +1406,24 @@ public class IVFSq8DirectIndex extends Index {
         rf.insert();
         for (String fldname : tableSchema.fields()) {
             Constant c = key.get(i++);
-            if (c instanceof VectorConstant)
-                rf.setVal(fldname, new ByteVectorConstant((VectorConstant)c));
-            else
+            if (c instanceof VectorConstant) {
+                ByteVectorConstant code = encode(fldname, (VectorConstant)c);
+                rf.setVal(fldname, code);
+                if (fldname.equals(ii.fieldNames().get(0)))
+                    extendRadius(probedClusters[0], code);
+            } else
                 rf.setVal(fldname, c);
         }
         rf.setVal(SCHEMA_RID_BLOCK, new BigIntConstant(dataRecordId.block()
                 .number()));
         rf.setVal(SCHEMA_RID_ID, new IntegerConstant(dataRecordId.id()));
+        ClusterSizes.add(ii.indexName(), probedClusters[0], 1);
 
         // log the logical operation ends
         if (doLogicalLogging)
             tx.recoveryMgr().logIndexInsertionEnd(ii.indexName(), key,
                     dataRecordId.block().number(), dataRecordId.id());
+        ClusterBalancer.indexModified(ii);
     }
 
     @Override
@@ -334,29 +1431,28 @@ public class IVFSq8DirectIndex extends Index {
         close();
 
         searchKey = key;
-        probe((VectorConstant)searchKey.get(0), 1);
+        VectorConstant vec = (VectorConstant)searchKey.get(0);
+        probe(vec, 1);
         if (probeId == -1) return;  // Probably won't happen
-
-        String tblname = ii.indexName() + probedClusters[0];
-        TableInfo ti = new TableInfo(tblname, sq8DirectSchema);
-        if (VanillaDb.fileMgr().isFileEmpty(ti.fileName())) return;
-
-        // the underlying record file should not perform logging
-        rf = ti.open(tx, false);
-        rf.beforeFirst();
+        int nearest = probedClusters[0];
 
         // log the logical operation starts
         if (doLogicalLogging)
             tx.recoveryMgr().logLogicalStart();
-        
+
         // delete the specified entry
-        while (next())
-            if (getDataRecordId().equals(dataRecordId)) {
-                rf.delete();
-                break;
-            }
-        
-        if (probeId == probedClusters.length && logger.isLoggable(Level.WARNING))
+        boolean found = deleteEntry(nearest, dataRecordId);
+        if (!found) {
+            // The entry might have been placed by older centroids, before a
+            // cluster was split; rebalancing keeps it in a nearby cluster
+            float[] dists = new float[NUM_CENTROIDS];
+            centroids().squaredDistances(vec.asJavaVal(), 0, NUM_CENTROIDS, dists);
+            for (int cluster : nearestClusters(dists, Math.min(NUM_CENTROIDS, DELETE_PROBE_BUCKETS)))
+                if (cluster != nearest && (found = deleteEntry(cluster, dataRecordId)))
+                    break;
+        }
+
+        if (!found && logger.isLoggable(Level.WARNING))
             logger.warning("IVF_SQ8_DIRECT delete failed to delete a record");
 
         // log the logical operation ends
@@ -365,6 +1461,28 @@ public class IVFSq8DirectIndex extends Index {
                     dataRecordId.block().number(), dataRecordId.id());
     }
 
+    private boolean deleteEntry(int cluster, RecordId dataRecordId) {
+        String tblname = ii.indexName() + cluster;
+        TableInfo ti = new TableInfo(tblname, sq8DirectSchema);
+        if (VanillaDb.fileMgr().isFileEmpty(ti.fileName())) return false;
+
+        // the underlying record file should not perform logging
+        if (rf != null)
+            rf.close();
+        rf = ti.open(tx, false);
+        rf.beforeFirst();
+        while (rf.next()) {
+            long blkNum = (Long) rf.getVal(SCHEMA_RID_BLOCK).asJavaVal();
+            int id = (Integer) rf.getVal(SCHEMA_RID_ID).asJavaVal();
+            if (new RecordId(new BlockId(dataFileName, blkNum), id).equals(dataRecordId)) {
+                rf.delete();
+                ClusterSizes.add(ii.indexName(), cluster, -1);
+                return true;
+            }
+        }
+        return false;
+    }
+
     @Override
     public void close() {
         if (rf != null) {
@@ -372,7 +1490,10 @@ public class IVFSq8DirectIndex extends Index {
             rf = null;
         }
         probedClusters = null;
+        probedDists = null;
         probeId = -1;
+        results = null;
+        resultId = -1;
     }
 
     @Override
@@ -382,15 +1503,82 @@ public class IVFSq8DirectIndex extends Index {
         BlockId blk;
         for (int j = 0; j < size; j++) {
             blk = new BlockId(centroidName(), j);
-            tx.bufferMgr().pin(blk);
+            tx.bufferMgr().pin(blk, BufferPriority.HIGH);
         }
     }
 
+    /**
+     * Returns the value of the specified field of the current entry. Vector
+     * fields are decoded from their codes into vectors of the field type.
+     * 
+     * @param fldName
+     *            the name of the field
+     * @return the value of the field
+     */
     public Constant getVal(String fldName) {
-        Constant c = rf.getVal(fldName);
+        Constant c = currentVal(fldName);
         if (c instanceof ByteVectorConstant)
-            return new VectorConstant((ByteVectorConstant)c);
+            return decode(fldName, (ByteVectorConstant)c);
         return c;
     }
 
+    /**
+     * Returns the SQ8 code of the specified vector field of the current
+     * entry, which {@link Sq8EuclideanFn} scores without decoding it.
+     * 
+     * @param fldName
+     *            the name of the vector field
+     * @return the code of the field, or null if the field is not stored as
+     *         an SQ8 code
+     */
+    public ByteVectorConstant getCode(String fldName) {
+        Constant c = currentVal(fldName);
+        return c instanceof ByteVectorConstant ? (ByteVectorConstant) c : null;
+    }
+
+    /**
+     * Returns the type used to store the codes of the specified vector field
+     * in the cluster files.
+     */
+    protected Type codeType(String fldName, VectorType vecType) {
+        return Type.BYTEVECTOR(vecType.getArgument());
+    }
+
+    /**
+     * Encodes a vector of the specified field into the code stored in the
+     * cluster files.
+     */
+    protected ByteVectorConstant encode(String fldName, VectorConstant vec) {
+        return new ByteVectorConstant(vec);
+    }
+
+    /**
+     * Returns the value handed out by {@link #getVal(String)} for a stored
+     * code. SQ8 codes are the rounded components shifted by -128.
+     */
+    protected Constant decode(String fldName, ByteVectorConstant code) {
+        return new VectorConstant(code);
+    }
+
+    /**
+     * Reconstructs an approximation of the indexed vector stored as the
+     * specified code, which is used to re-cluster the entries.
+     */
+    protected float[] reconstruct(ByteVectorConstant code) {
+        return ((VectorConstant) decode(ii.fieldNames().get(0), code)).asJavaVal();
+    }
+
+    /**
+     * Returns the distance function that scores the codes of the indexed
+     * field against the query while scanning the clusters.
+     */
+    protected DistanceFn codeDistFn(VectorConstant query) {
+        Sq8EuclideanFn distFn = new Sq8EuclideanFn(ii.fieldNames().get(0));
+        distFn.setQueryVector(query);
+        return distFn;
+    }
+
+    private Constant currentVal(String fldName) {
+        return results.get(resultId).vals[sq8FieldIds.get(fldName)];
+    }
 }
@@ -0,0 +1,374 @@
+package org.vanilladb.core.storage.index.ivf;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.vanilladb.core.util.CoreProperties;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Trains the centroids of an IVF index, or the codewords of a PQ subspace, by
+ * k-means over an in-memory sample. The centroids are seeded by k-means++ and
+ * refined by Lloyd iterations, or by mini-batch updates if
+ * {@link #MINI_BATCH_SIZE} is positive, until the relative shift of the
+ * centroids drops below {@link #TOLERANCE}. The samples are assigned in
+ * parallel on a fork-join pool, each against a resident {@link CentroidTable}.
+ */
+public class KMeansTrainer {
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+    /**
+     * The number of sample vectors to draw per centroid.
+     */
+    public final static int SAMPLES_PER_CENTROID;
+    public final static int MAX_ITERATIONS;
+    public final static double TOLERANCE;
+    /**
+     * The number of samples per mini-batch update, or 0 to update the
+     * centroids with all samples in every iteration.
+     */
+    public final static int MINI_BATCH_SIZE;
+    public final static int PARALLELISM;
+
+    static {
+        SAMPLES_PER_CENTROID = CoreProperties.getLoader().getPropertyAsInteger(
+                KMeansTrainer.class.getName() + ".SAMPLES_PER_CENTROID", 64);
+        MAX_ITERATIONS = CoreProperties.getLoader().getPropertyAsInteger(
+                KMeansTrainer.class.getName() + ".MAX_ITERATIONS", 20);
+        TOLERANCE = CoreProperties.getLoader().getPropertyAsDouble(
+                KMeansTrainer.class.getName() + ".TOLERANCE", 1e-4);
+        MINI_BATCH_SIZE = CoreProperties.getLoader().getPropertyAsInteger(
+                KMeansTrainer.class.getName() + ".MINI_BATCH_SIZE", 0);
+        PARALLELISM = CoreProperties.getLoader().getPropertyAsInteger(
+                KMeansTrainer.class.getName() + ".PARALLELISM",
+                Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * The body of a parallel loop over [low, high).
+     */
+    private interface RangeBody {
+        void run(int low, int high);
+    }
+
+    private static class RangeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private RangeBody body;
+        private int low, high, grain;
+
+        RangeTask(RangeBody body, int low, int high, int grain) {
+            this.body = body;
+            this.low = low;
+            this.high = high;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            if (high - low <= grain) {
+                body.run(low, high);
+                return;
+            }
+            int mid = (low + high) >>> 1;
+            invokeAll(new RangeTask(body, low, mid, grain),
+                    new RangeTask(body, mid, high, grain));
+        }
+    }
+
+    private int numCentroids, dimension, maxIterations, miniBatchSize;
+    private double tolerance;
+    private Random random = new Random();
+    private ForkJoinPool pool;
+
+    public KMeansTrainer(int numCentroids, int dimension) {
+        this(numCentroids, dimension, MAX_ITERATIONS, TOLERANCE, MINI_BATCH_SIZE);
+    }
+
+    public KMeansTrainer(int numCentroids, int dimension, int maxIterations, double tolerance,
+            int miniBatchSize) {
+        if (numCentroids < 1 || dimension < 1)
+            throw new IllegalArgumentException("the number of centroids and the dimension must be positive");
+        if (maxIterations < 0 || tolerance < 0 || miniBatchSize < 0)
+            throw new IllegalArgumentException("iterations, tolerance and batch size must not be negative");
+        this.numCentroids = numCentroids;
+        this.dimension = dimension;
+        this.maxIterations = maxIterations;
+        this.tolerance = tolerance;
+        this.miniBatchSize = miniBatchSize;
+    }
+
+    /**
+     * Returns the number of samples to draw for training the specified number
+     * of centroids.
+     */
+    public static int sampleSize(int numCentroids) {
+        return numCentroids * SAMPLES_PER_CENTROID;
+    }
+
+    /**
+     * Trains the centroids over the samples.
+     *
+     * @param samples
+     *            the sample vectors
+     * @return the centroids, stored contiguously
+     */
+    public float[] train(List<float[]> samples) {
+        if (samples.isEmpty())
+            throw new IllegalArgumentException("no samples to train");
+        float[][] vecs = samples.toArray(new float[samples.size()][]);
+        for (float[] v : vecs)
+            if (v.length != dimension)
+                throw new IllegalArgumentException("Vector length does not match");
+
+        pool = new ForkJoinPool(PARALLELISM);
+        try {
+            float[] centroids = seed(vecs);
+            boolean miniBatch = miniBatchSize > 0 && miniBatchSize < vecs.length;
+            int[] absorbed = new int[numCentroids];
+            // The partial sums of the chunks are reused across iterations
+            int numChunks = Math.min(PARALLELISM, vecs.length);
+            double[][] sums = miniBatch ? null : new double[numChunks][numCentroids * dimension];
+            int[][] counts = miniBatch ? null : new int[numChunks][numCentroids];
+            int[] labels = miniBatch ? null : new int[vecs.length];
+            for (int iter = 0; iter < maxIterations; iter++) {
+                float[] next = miniBatch ? miniBatchStep(vecs, centroids, absorbed)
+                        : lloydStep(vecs, centroids, sums, counts, labels);
+                double shift = squaredShift(centroids, next);
+                centroids = next;
+                if (shift <= tolerance * squaredNorm(centroids))
+                    break;
+            }
+            return centroids;
+        } finally {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+
+    /**
+     * Assigns every vector to its nearest centroid in parallel.
+     *
+     * @param centroids
+     *            the centroids, stored contiguously
+     * @param vectors
+     *            the vectors to assign
+     * @return the id of the nearest centroid of each vector
+     */
+    public int[] assign(float[] centroids, List<float[]> vectors) {
+        float[][] vecs = vectors.toArray(new float[vectors.size()][]);
+        int[] labels = new int[vecs.length];
+        pool = new ForkJoinPool(PARALLELISM);
+        try {
+            CentroidTable table = new CentroidTable(centroids, dimension);
+            parallelFor(vecs.length, (low, high) -> assign(table, vecs, labels, low, high));
+            return labels;
+        } finally {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+
+    /**
+     * Picks the first centroid uniformly and each following one with
+     * probability proportional to its squared distance to the nearest
+     * centroid picked so far. The samples are split into chunks whose
+     * distance totals are summed in parallel with the distance updates, so
+     * that a pick only walks the chunk totals and then a single chunk.
+     */
+    private float[] seed(float[][] vecs) {
+        float[] centroids = new float[numCentroids * dimension];
+        double[] minDists = new double[vecs.length];
+        Arrays.fill(minDists, Double.POSITIVE_INFINITY);
+        int numChunks = Math.min(PARALLELISM * 4, vecs.length);
+        double[] chunkTotals = new double[numChunks];
+        float[] last = vecs[random.nextInt(vecs.length)];
+        System.arraycopy(last, 0, centroids, 0, dimension);
+        for (int c = 1; c < numCentroids; c++) {
+            float[] center = last;
+            pool.invoke(new RangeTask((low, high) -> {
+                for (int chunk = low; chunk < high; chunk++) {
+                    double total = 0;
+                    for (int i = chunkStart(vecs.length, chunk, numChunks),
+                            to = chunkStart(vecs.length, chunk + 1, numChunks); i < to; i++) {
+                        minDists[i] = Math.min(minDists[i], squaredDistance(vecs[i], center));
+                        total += minDists[i];
+                    }
+                    chunkTotals[chunk] = total;
+                }
+            }, 0, numChunks, 1));
+            double total = 0;
+            for (double t : chunkTotals)
+                total += t;
+
+            int pick;
+            if (total > 0) {
+                double target = random.nextDouble() * total;
+                // Rounding may leave the target past the last nonempty chunk
+                int chunk = 0, lastNonEmpty = 0;
+                for (; chunk < numChunks; chunk++) {
+                    if (chunkTotals[chunk] <= 0)
+                        continue;
+                    lastNonEmpty = chunk;
+                    if (target < chunkTotals[chunk])
+                        break;
+                    target -= chunkTotals[chunk];
+                }
+                if (chunk == numChunks) {
+                    chunk = lastNonEmpty;
+                    target = chunkTotals[chunk];
+                }
+                int to = chunkStart(vecs.length, chunk + 1, numChunks);
+                for (pick = chunkStart(vecs.length, chunk, numChunks); pick < to - 1; pick++) {
+                    target -= minDists[pick];
+                    if (target < 0)
+                        break;
+                }
+            } else
+                // Fewer distinct samples than centroids
+                pick = random.nextInt(vecs.length);
+            last = vecs[pick];
+            System.arraycopy(last, 0, centroids, c * dimension, dimension);
+        }
+        return centroids;
+    }
+
+    private float[] lloydStep(float[][] vecs, float[] centroids, double[][] sums, int[][] counts,
+            int[] labels) {
+        CentroidTable table = new CentroidTable(centroids, dimension);
+        int numChunks = sums.length;
+
+        // Each chunk accumulates its own partial sums
+        pool.invoke(new RangeTask((low, high) -> {
+            for (int chunk = low; chunk < high; chunk++) {
+                int from = chunkStart(vecs.length, chunk, numChunks);
+                int to = chunkStart(vecs.length, chunk + 1, numChunks);
+                double[] sum = sums[chunk];
+                int[] count = counts[chunk];
+                Arrays.fill(sum, 0);
+                Arrays.fill(count, 0);
+                assign(table, vecs, labels, from, to);
+                for (int i = from; i < to; i++) {
+                    int base = labels[i] * dimension;
+                    count[labels[i]]++;
+                    for (int d = 0; d < dimension; d++)
+                        sum[base + d] += vecs[i][d];
+                }
+            }
+        }, 0, numChunks, 1));
+
+        float[] next = new float[numCentroids * dimension];
+        for (int c = 0; c < numCentroids; c++) {
+            int base = c * dimension;
+            long count = 0;
+            for (int chunk = 0; chunk < numChunks; chunk++)
+                count += counts[chunk][c];
+            // Reseed an empty cluster with a random sample
+            if (count == 0) {
+                System.arraycopy(vecs[random.nextInt(vecs.length)], 0, next, base, dimension);
+                continue;
+            }
+            for (int d = 0; d < dimension; d++) {
+                double sum = 0;
+                for (int chunk = 0; chunk < numChunks; chunk++)
+                    sum += sums[chunk][base + d];
+                next[base + d] = (float) (sum / count);
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Moves each centroid towards the samples of a random mini-batch assigned
+     * to it, with a per-centroid learning rate that decays with the number of
+     * samples it has absorbed.
+     */
+    private float[] miniBatchStep(float[][] vecs, float[] centroids, int[] absorbed) {
+        float[][] batch = new float[miniBatchSize][];
+        for (int i = 0; i < miniBatchSize; i++)
+            batch[i] = vecs[random.nextInt(vecs.length)];
+        int[] labels = new int[miniBatchSize];
+        CentroidTable table = new CentroidTable(centroids, dimension);
+        parallelFor(miniBatchSize, (low, high) -> assign(table, batch, labels, low, high));
+
+        float[] next = centroids.clone();
+        for (int i = 0; i < miniBatchSize; i++) {
+            int base = labels[i] * dimension;
+            float eta = 1.0f / ++absorbed[labels[i]];
+            for (int d = 0; d < dimension; d++)
+                next[base + d] += eta * (batch[i][d] - next[base + d]);
+        }
+        return next;
+    }
+
+    /**
+     * Assigns the vectors in [from, to) to their nearest centroids. The
+     * distances to all centroids are computed by the blocked kernel of the
+     * table.
+     */
+    private void assign(CentroidTable table, float[][] vecs, int[] labels, int from, int to) {
+        float[] dists = new float[numCentroids];
+        for (int i = from; i < to; i++) {
+            table.squaredDistances(vecs[i], 0, numCentroids, dists);
+            int best = 0;
+            for (int c = 1; c < numCentroids; c++)
+                if (dists[c] < dists[best])
+                    best = c;
+            labels[i] = best;
+        }
+    }
+
+    private void parallelFor(int n, RangeBody body) {
+        pool.invoke(new RangeTask(body, 0, n, grain(n)));
+    }
+
+    /**
+     * Returns the first index of the specified chunk when n items are split
+     * into the specified number of chunks.
+     */
+    private static int chunkStart(int n, int chunk, int numChunks) {
+        return (int) ((long) n * chunk / numChunks);
+    }
+
+    private static int grain(int n) {
+        return Math.max(64, n / (PARALLELISM * 4));
+    }
+
+    private float squaredDistance(float[] a, float[] b) {
+        FloatVector sum = FloatVector.zero(SPECIES);
+        int d = 0;
+        for (; d < SPECIES.loopBound(dimension); d += SPECIES.length()) {
+            FloatVector diff = FloatVector.fromArray(SPECIES, a, d)
+                    .sub(FloatVector.fromArray(SPECIES, b, d));
+            sum = diff.fma(diff, sum);
+        }
+        float dist = sum.reduceLanes(VectorOperators.ADD);
+        for (; d < dimension; ++d) {
+            float diff = a[d] - b[d];
+            dist += diff * diff;
+        }
+        return dist;
+    }
+
+    private static double squaredShift(float[] from, float[] to) {
+        double shift = 0;
+        for (int i = 0; i < from.length; i++) {
+            double diff = to[i] - from[i];
+            shift += diff * diff;
+        }
+        return shift;
+    }
+
+    private static double squaredNorm(float[] v) {
+        double norm = 0;
+        for (float x : v)
+            norm += (double) x * x;
+        return norm;
+    }
+}
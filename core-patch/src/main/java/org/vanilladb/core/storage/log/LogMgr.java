@@ -18,15 +18,22 @@ package org.vanilladb.core.storage.log;
 import static org.vanilladb.core.sql.Type.INTEGER;
 import static org.vanilladb.core.storage.file.Page.BLOCK_SIZE;
 
+import java.nio.BufferOverflowException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import org.vanilladb.core.server.VanillaDb;
+import org.vanilladb.core.server.task.Task;
 import org.vanilladb.core.sql.Constant;
 import org.vanilladb.core.sql.IntegerConstant;
 import org.vanilladb.core.storage.file.BlockId;
 import org.vanilladb.core.storage.file.FileMgr;
 import org.vanilladb.core.storage.file.Page;
+import org.vanilladb.core.storage.tx.recovery.RecoveryMgr;
 import org.vanilladb.core.storage.tx.recovery.ReversibleIterator;
 import org.vanilladb.core.util.CoreProperties;
 
@@ -36,29 +43,199 @@ import org.vanilladb.core.util.CoreProperties;
  * string values. The log manager does not understand the meaning of these
  * values, which are written and read by the
  * {@link org.vanilladb.core.storage.tx.recovery.RecoveryMgr recovery manager}.
+ * 
+ * <p>
+ * Appending a record does not lock the log. A transaction reserves the space
+ * of its record by advancing the end of the log atomically, and then copies
+ * the record into one of the {@link #NUM_LOG_BUFFERS} in-memory log pages
+ * concurrently with the other transactions. The pages are written to the log
+ * file in order, each up to the records that have been completely copied, by
+ * the transactions flushing the log or by a log-writer task once a page is
+ * filled.
+ * </p>
  */
 public class LogMgr implements Iterable<BasicLogRecord> {
+	private static Logger logger = Logger.getLogger(LogMgr.class.getName());
+
 	/**
 	 * The location where the pointer to the last integer in the page is. A
 	 * value of 0 means that the pointer is the first value in the page.
 	 */
 	public static final int LAST_POS = 0;
 	public static final String DEFAULT_LOG_FILE;
+	/**
+	 * The number of log pages in memory. A transaction whose record starts a
+	 * new page waits if the page it takes over has not been written yet.
+	 */
+	public static final int NUM_LOG_BUFFERS;
+	/**
+	 * Whether the committing transactions flush the log together. See
+	 * {@link #flushForCommit(LogSeqNum)}.
+	 */
+	public static final boolean GROUP_COMMIT;
+	/**
+	 * The longest time, in microseconds, the log flusher waits for more
+	 * committing transactions to join a batch.
+	 */
+	public static final long MAX_BATCH_DELAY;
+	/**
+	 * The number of waiting transactions that makes the log flusher write a
+	 * batch without waiting any longer.
+	 */
+	public static final int MAX_BATCH_SIZE;
 
-	// Optimization: store the size of pointer to other log record
-	private int pointerSize = Page.maxSize(INTEGER);
-	private Page myPage = new Page();
-	private BlockId currentBlk;
-	private int currentPos;
-	private LogSeqNum lastLsn = LogSeqNum.DEFAULT_VALUE;
-	private LogSeqNum lastFlushedLsn = LogSeqNum.DEFAULT_VALUE;
-
-	private final Lock logMgrLock = new ReentrantLock();
+	// The block number of a log page holding no block
+	private static final long FREE = -1;
 
 	static {
 		DEFAULT_LOG_FILE = CoreProperties.getLoader().getPropertyAsString(LogMgr.class.getName() + ".LOG_FILE",
 				"vanilladb.log");
+		NUM_LOG_BUFFERS = CoreProperties.getLoader().getPropertyAsInteger(
+				LogMgr.class.getName() + ".NUM_LOG_BUFFERS", 4);
+		GROUP_COMMIT = CoreProperties.getLoader().getPropertyAsBoolean(
+				LogMgr.class.getName() + ".GROUP_COMMIT", false);
+		MAX_BATCH_DELAY = CoreProperties.getLoader().getPropertyAsLong(
+				LogMgr.class.getName() + ".MAX_BATCH_DELAY", 100);
+		MAX_BATCH_SIZE = CoreProperties.getLoader().getPropertyAsInteger(
+				LogMgr.class.getName() + ".MAX_BATCH_SIZE", 64);
+	}
+
+	/**
+	 * An in-memory log page, which holds the block with the number equal to
+	 * its index modulo the number of pages.
+	 */
+	private static class LogBuffer {
+		private final Page page = new Page();
+		// The end of each copied record, indexed by the start of the record
+		private final AtomicIntegerArray recordEnds = new AtomicIntegerArray(BLOCK_SIZE);
+		private volatile long blkNum = FREE;
+		// The end of the last record once the block is filled, or -1
+		private volatile int sealedEnd = -1;
+		// The start of the first record appended to the page, and the end of
+		// the records copied so far, guarded by flushLock
+		private int firstPos, copiedEnd;
+	}
+
+	/**
+	 * The task that writes the filled log pages in the background, so that the
+	 * pages are free when the appending transactions need them again.
+	 */
+	private class LogWriter extends Task {
+
+		@Override
+		public void run() {
+			Thread.currentThread().setName("log-writer");
+			while (true) {
+				long blkNum;
+				synchronized (buffers) {
+					try {
+						while (lastSealedBlk < flushedLsn.blkNum())
+							buffers.wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+					blkNum = lastSealedBlk;
+				}
+
+				try {
+					writeLog(new LogSeqNum(blkNum + 1, firstRecordPos));
+				} catch (RuntimeException e) {
+					// The appending transactions write the pages by themselves
+					if (logger.isLoggable(Level.WARNING))
+						logger.warning("the log writer failed to write the log: " + e);
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * The task that writes the log for the transactions waiting in
+	 * {@link LogMgr#flushForCommit(LogSeqNum)}. A single write covers all the
+	 * commit records appended so far, so the transactions committing at about
+	 * the same time share one synchronous disk write.
+	 */
+	private class LogFlusher extends Task {
+
+		@Override
+		public void run() {
+			Thread.currentThread().setName("log-flusher");
+			try {
+				flushLoop();
+			} finally {
+				// The committing transactions write the log by themselves from
+				// now on
+				synchronized (groupCommitLock) {
+					flusherStopped = true;
+					groupCommitLock.notifyAll();
+				}
+				if (logger.isLoggable(Level.WARNING))
+					logger.warning("the log flusher stopped");
+			}
+		}
+
+		private void flushLoop() {
+			while (true) {
+				LogSeqNum lsn;
+				synchronized (groupCommitLock) {
+					try {
+						while (isFlushed(requestedLsn))
+							groupCommitLock.wait();
+						// Give more transactions a chance to join the batch
+						long deadline = System.nanoTime() + MAX_BATCH_DELAY * 1000;
+						long remaining;
+						while (numWaiting < MAX_BATCH_SIZE
+								&& (remaining = deadline - System.nanoTime()) > 0)
+							groupCommitLock.wait(remaining / 1000000, (int) (remaining % 1000000));
+					} catch (InterruptedException e) {
+						return;
+					}
+					lsn = requestedLsn;
+				}
+
+				RuntimeException failure = null;
+				try {
+					flush(lsn);
+				} catch (RuntimeException e) {
+					failure = e;
+					if (logger.isLoggable(Level.WARNING))
+						logger.warning("the log flusher failed to write the log: " + e);
+				}
+
+				synchronized (groupCommitLock) {
+					flushFailure = failure;
+					groupCommitLock.notifyAll();
+				}
+			}
+		}
 	}
+
+	// Optimization: store the size of pointer to other log record
+	private int pointerSize = Page.maxSize(INTEGER);
+	// The first record of a block starts after the pointer to the last record
+	// and the pointer to the first record
+	private int firstRecordPos = pointerSize * 2;
+	private final LogBuffer[] buffers;
+	// The end of the last reserved record, with the block number in the high
+	// 32 bits and the offset in the low 32 bits
+	private final AtomicLong tail = new AtomicLong();
+	// The log records before this LSN have been written to disk
+	private volatile LogSeqNum flushedLsn;
+
+	// Guards the writes of the log pages
+	private final Lock flushLock = new ReentrantLock();
+	private final Page flushPage = new Page();
+
+	// Guarded by buffers
+	private long lastSealedBlk = -1;
+	private boolean writerStarted;
+
+	// The state of group commit, guarded by groupCommitLock
+	private final Object groupCommitLock = new Object();
+	private LogSeqNum requestedLsn = LogSeqNum.DEFAULT_VALUE;
+	private int numWaiting;
+	private boolean flusherStarted, flusherStopped;
+	private RuntimeException flushFailure;
 	
 	private String logFile;
 
@@ -77,13 +254,22 @@ public class LogMgr implements Iterable<BasicLogRecord> {
 	
 	public LogMgr(String logFileName) {
 		logFile = logFileName;
+		buffers = new LogBuffer[Math.max(NUM_LOG_BUFFERS, 2)];
+		for (int i = 0; i < buffers.length; i++)
+			buffers[i] = new LogBuffer();
+
 		long logsize = VanillaDb.fileMgr().size(logFile);
 		if (logsize == 0)
-			appendNewBlock();
+			createFirstBlock();
 		else {
-			currentBlk = new BlockId(logFile, logsize - 1);
-			myPage.read(currentBlk);
-			currentPos = getLastRecordPosition() + pointerSize * 2;
+			// Continue appending to the last block
+			long blkNum = logsize - 1;
+			LogBuffer buf = bufferOf(blkNum);
+			buf.page.read(new BlockId(logFile, blkNum));
+			int pos = (Integer) buf.page.getVal(LAST_POS, INTEGER).asJavaVal() + pointerSize * 2;
+			initBuffer(buf, blkNum, pos);
+			tail.set((blkNum << 32) | pos);
+			flushedLsn = new LogSeqNum(blkNum, pos);
 		}
 	}
 
@@ -95,13 +281,50 @@ public class LogMgr implements Iterable<BasicLogRecord> {
 	 *            the LSN of a log record
 	 */
 	public void flush(LogSeqNum lsn) {
-		logMgrLock.lock();
-		try {
-			if (lsn.compareTo(lastFlushedLsn) >= 0)
-				flush();
-		} finally {
-			logMgrLock.unlock();
+		if (!isFlushed(lsn))
+			writeLog(new LogSeqNum(lsn.blkNum(), lsn.offset() + 1));
+	}
+
+	/**
+	 * Ensures that the commit or rollback record of a transaction with the
+	 * specified LSN has been written to disk. In the group commit mode, the
+	 * caller waits for the log flusher to write the log on behalf of all the
+	 * transactions committing meanwhile, instead of writing it by itself. If
+	 * the flusher fails to write the log or has stopped, the caller writes the
+	 * log by itself.
+	 * 
+	 * @param lsn
+	 *            the LSN of the commit or rollback record
+	 */
+	public void flushForCommit(LogSeqNum lsn) {
+		if (!GROUP_COMMIT) {
+			flush(lsn);
+			return;
+		}
+
+		boolean flushed = false;
+		synchronized (groupCommitLock) {
+			if (!flusherStarted) {
+				VanillaDb.taskMgr().runTask(new LogFlusher());
+				flusherStarted = true;
+			}
+			if (lsn.compareTo(requestedLsn) > 0)
+				requestedLsn = lsn;
+			numWaiting++;
+			groupCommitLock.notifyAll();
+			try {
+				while (!isFlushed(lsn) && flushFailure == null && !flusherStopped)
+					groupCommitLock.wait();
+				flushed = isFlushed(lsn);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				numWaiting--;
+			}
 		}
+		// Write the log by itself if the flusher cannot
+		if (!flushed)
+			flush(lsn);
 	}
 
 	/**
@@ -112,13 +335,20 @@ public class LogMgr implements Iterable<BasicLogRecord> {
 	 */
 	@Override
 	public ReversibleIterator<BasicLogRecord> iterator() {
-		logMgrLock.lock();
-		try {
-			flush();
-			return new LogIterator(currentBlk);
-		} finally {
-			logMgrLock.unlock();
-		}
+		writeLog(reservedEnd());
+		// An empty block at the end is not written yet
+		long lastBlkNum = VanillaDb.fileMgr().size(logFile) - 1;
+		return new LogIterator(new BlockId(logFile, lastBlkNum));
+	}
+
+	/**
+	 * Returns a reader of the log records at given LSNs. The records to be read
+	 * must have been flushed.
+	 * 
+	 * @return a reader of the log records
+	 */
+	public LogRecordReader recordReader() {
+		return new LogRecordReader(logFile);
 	}
 
 	/**
@@ -128,131 +358,306 @@ public class LogMgr implements Iterable<BasicLogRecord> {
 	 * previous log record. These integers allow log records to be read in
 	 * reverse order.
 	 * 
+	 * <p>
+	 * The space of the record is reserved without locking, so the records of
+	 * concurrent transactions are copied into the page in parallel. The record
+	 * may reach the disk once this method returns.
+	 * </p>
+	 * 
 	 * @param rec
 	 *            the list of values
 	 * @return the LSN of the log record
 	 */
 	public LogSeqNum append(Constant[] rec) {
-		logMgrLock.lock();
-		try {
-			// two integers that point to the previous and next log records
-			int recsize = pointerSize * 2;
-			for (Constant c : rec)
-				recsize += Page.size(c);
+		// two integers that point to the previous and next log records
+		int recsize = pointerSize * 2;
+		for (Constant c : rec)
+			recsize += Page.size(c);
+		if (firstRecordPos + recsize >= BLOCK_SIZE)
+			throw new BufferOverflowException();
 
-			// if the log record doesn't fit, move to the next block
-			if (currentPos + recsize >= BLOCK_SIZE) {
-				flush();
-				appendNewBlock();
-			}
-			
-			// Get the current LSN
-			LogSeqNum lsn = currentLSN();
-			
-			// Append a record
-			for (Constant c : rec)
-				appendVal(c);
-			finalizeRecord();
-			
-			// Remember this LSN
-			lastLsn = lsn;
-			
-			return lsn;
-		} finally {
-			logMgrLock.unlock();
+		long start = reserve(recsize);
+		long blkNum = start >>> 32;
+		int pos = (int) start;
+		LogBuffer buf = awaitBuffer(blkNum);
+
+		// Append a record
+		Page page = buf.page;
+		for (Constant c : rec) {
+			page.setVal(pos, c);
+			pos += Page.size(c);
 		}
+		finalizeRecord(page, (int) start, pos);
+		buf.recordEnds.set((int) start, pos + pointerSize * 2);
+
+		return new LogSeqNum(blkNum, (int) start);
 	}
 
 	/**
-	 * Remove the old log file and create a new one.
+	 * Remove the old log file and create a new one. No log record can be
+	 * appended meanwhile.
 	 */
 	public void removeAndCreateNewLog() {
-		logMgrLock.lock();
+		flushLock.lock();
 		try {
 			VanillaDb.fileMgr().delete(logFile);
-			
+
 			// Reset all the data
-			lastLsn = LogSeqNum.DEFAULT_VALUE;
-			lastFlushedLsn = LogSeqNum.DEFAULT_VALUE;
-			
-			// 'myPage', 'currentBlk' and 'currentPos' are reset in this method
-			appendNewBlock();
+			for (LogBuffer buf : buffers) {
+				for (int i = 0; i < BLOCK_SIZE; i++)
+					buf.recordEnds.set(i, 0);
+				buf.blkNum = FREE;
+			}
+			synchronized (buffers) {
+				lastSealedBlk = -1;
+			}
+			synchronized (groupCommitLock) {
+				requestedLsn = LogSeqNum.DEFAULT_VALUE;
+			}
+			createFirstBlock();
+			// The records written so far are gone with the old log
+			RecoveryMgr.clearLastLSNs();
 		} finally {
-			logMgrLock.unlock();
+			flushLock.unlock();
 		}
 	}
 
 	/**
-	 * Adds the specified value to the page at the position denoted by
-	 * currentPos. Then increments currentPos by the size of the value.
-	 * 
-	 * @param val
-	 *            the value to be added to the page
+	 * Starts the log with an empty block, and writes it to the log file.
 	 */
-	private void appendVal(Constant val) {
-		myPage.setVal(currentPos, val);
-		currentPos += Page.size(val);
+	private void createFirstBlock() {
+		LogBuffer buf = bufferOf(0);
+		initBuffer(buf, 0, firstRecordPos);
+		tail.set(firstRecordPos);
+		flushedLsn = new LogSeqNum(0, firstRecordPos);
+		flushLock.lock();
+		try {
+			writeBuffer(buf, 0);
+		} finally {
+			flushLock.unlock();
+		}
 	}
 
 	/**
-	 * Returns the LSN of the most recent log record. As implemented, the LSN is
-	 * the block number and the offset in the block where the record is stored.
+	 * Reserves space for a record of the specified size at the end of the log.
+	 * If the record does not fit in the last block, the space is reserved at
+	 * the start of a new block, and the caller prepares the page of the new
+	 * block.
 	 * 
-	 * @return the LSN of the most recent log record
+	 * @param recsize
+	 *            the size of the record
+	 * @return the block number in the high 32 bits and the offset in the low
+	 *         32 bits of the start of the record
 	 */
-	private LogSeqNum currentLSN() {
-		return new LogSeqNum(currentBlk.number(), currentPos);
+	private long reserve(int recsize) {
+		while (true) {
+			long end = tail.get();
+			int pos = (int) end;
+			// if the log record doesn't fit, move to the next block
+			if (pos + recsize >= BLOCK_SIZE) {
+				long blkNum = (end >>> 32) + 1;
+				long start = (blkNum << 32) | firstRecordPos;
+				if (tail.compareAndSet(end, start + recsize)) {
+					startBlock(blkNum, pos);
+					return start;
+				}
+			} else if (tail.compareAndSet(end, end + recsize))
+				return end;
+		}
 	}
 
 	/**
-	 * Writes the current page to the log file.
+	 * Seals the previous block with the specified end, and prepares a page for
+	 * the new block. If the page still holds an older block that has not been
+	 * written, the older block is written first.
 	 */
-	private void flush() {
-		myPage.write(currentBlk);
-		lastFlushedLsn = lastLsn;
+	private void startBlock(long blkNum, int lastEnd) {
+		LogBuffer last = awaitBuffer(blkNum - 1);
+		synchronized (buffers) {
+			last.sealedEnd = lastEnd;
+			lastSealedBlk = blkNum - 1;
+			if (!writerStarted) {
+				VanillaDb.taskMgr().runTask(new LogWriter());
+				writerStarted = true;
+			}
+			buffers.notifyAll();
+		}
+
+		LogBuffer buf = bufferOf(blkNum);
+		long oldBlkNum;
+		while ((oldBlkNum = buf.blkNum) != FREE) {
+			// Do not wait for the lock, since its holder may be waiting for the
+			// new block
+			if (flushLock.tryLock()) {
+				try {
+					writeLog(new LogSeqNum(oldBlkNum + 1, firstRecordPos));
+				} finally {
+					flushLock.unlock();
+				}
+			} else {
+				synchronized (buffers) {
+					if (buf.blkNum != FREE)
+						waitForBuffers(1);
+				}
+			}
+		}
+		initBuffer(buf, blkNum, firstRecordPos);
+	}
+
+	private void initBuffer(LogBuffer buf, long blkNum, int pos) {
+		buf.firstPos = buf.copiedEnd = pos;
+		buf.sealedEnd = -1;
+		synchronized (buffers) {
+			buf.blkNum = blkNum;
+			buffers.notifyAll();
+		}
+	}
+
+	private LogBuffer bufferOf(long blkNum) {
+		return buffers[(int) (blkNum % buffers.length)];
 	}
 
 	/**
-	 * Clear the current page, and append it to the log file.
+	 * Returns the page of the specified block, waiting until the page is
+	 * prepared.
 	 */
-	private void appendNewBlock() {
-		setLastRecordPosition(0);
-		currentPos = pointerSize * 2;
-		currentBlk = myPage.append(logFile);
+	private LogBuffer awaitBuffer(long blkNum) {
+		LogBuffer buf = bufferOf(blkNum);
+		if (buf.blkNum != blkNum) {
+			synchronized (buffers) {
+				while (buf.blkNum != blkNum)
+					waitForBuffers(0);
+			}
+		}
+		return buf;
+	}
+
+	private void waitForBuffers(long timeout) {
+		try {
+			buffers.wait(timeout);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
 	}
 
 	/**
-	 * Sets up a circular chain of pointers to the records in the page. There is
-	 * an integer added to the end of each log record whose value is the offset
-	 * of the previous log record. The first four bytes of the page contain an
-	 * integer whose value is the offset of the integer for the last log record
-	 * in the page.
+	 * Writes to disk the log records before the specified position, in the
+	 * order of the blocks. The last page written is written up to the records
+	 * that have been completely copied.
+	 * 
+	 * @param end
+	 *            the position in the log
 	 */
-	private void finalizeRecord() {
-		myPage.setVal(currentPos, new IntegerConstant(getLastRecordPosition()));
-		setPreviousNextRecordPosition(currentPos + pointerSize);
-		setLastRecordPosition(currentPos);
-		currentPos += pointerSize;
-		setNextRecordPosition(currentPos);
-
-		// leave for next pointer
-		currentPos += pointerSize;
+	private void writeLog(LogSeqNum end) {
+		LogSeqNum reserved = reservedEnd();
+		if (end.compareTo(reserved) > 0)
+			end = reserved;
+
+		flushLock.lock();
+		try {
+			while (flushedLsn.compareTo(end) < 0) {
+				long blkNum = flushedLsn.blkNum();
+				LogBuffer buf = awaitBuffer(blkNum);
+				if (blkNum < end.blkNum()) {
+					synchronized (buffers) {
+						while (buf.sealedEnd < 0)
+							waitForBuffers(0);
+					}
+					awaitCopied(buf, buf.sealedEnd);
+				} else
+					awaitCopied(buf, (int) end.offset());
+
+				writeBuffer(buf, blkNum);
+				if (buf.copiedEnd == buf.sealedEnd) {
+					flushedLsn = new LogSeqNum(blkNum + 1, firstRecordPos);
+					releaseBuffer(buf);
+				} else
+					flushedLsn = new LogSeqNum(blkNum, buf.copiedEnd);
+			}
+		} finally {
+			flushLock.unlock();
+		}
 	}
 
-	private int getLastRecordPosition() {
-		return (Integer) myPage.getVal(LAST_POS, INTEGER).asJavaVal();
+	/**
+	 * Waits until the records in the page are copied up to the specified
+	 * position. The records reserved at the same time are copied in any order,
+	 * so this follows the ends of the copied records from the first record
+	 * that is not known to be copied.
+	 */
+	private void awaitCopied(LogBuffer buf, int pos) {
+		int end = buf.copiedEnd;
+		while (end < pos) {
+			int next = buf.recordEnds.get(end);
+			if (next == 0)
+				Thread.yield();
+			else
+				end = next;
+		}
+		buf.copiedEnd = end;
 	}
 
-	private void setLastRecordPosition(int pos) {
-		myPage.setVal(LAST_POS, new IntegerConstant(pos));
+	/**
+	 * Writes the copied records in the page to the log file. The pointers to
+	 * the last record are set on a copy of the page, since the records being
+	 * copied may overwrite them in the page.
+	 */
+	private void writeBuffer(LogBuffer buf, long blkNum) {
+		flushPage.copyFrom(buf.page);
+		int lastRecordPos = buf.copiedEnd - pointerSize * 2;
+		flushPage.setVal(LAST_POS, new IntegerConstant(lastRecordPos));
+		setNextRecordPosition(flushPage, lastRecordPos + pointerSize);
+		flushPage.write(new BlockId(logFile, blkNum));
 	}
 
-	private void setNextRecordPosition(int pos) {
-		myPage.setVal(pos, new IntegerConstant(LAST_POS + pointerSize));
+	private void releaseBuffer(LogBuffer buf) {
+		int pos = buf.firstPos;
+		while (pos < buf.sealedEnd) {
+			int next = buf.recordEnds.get(pos);
+			buf.recordEnds.set(pos, 0);
+			pos = next;
+		}
+		synchronized (buffers) {
+			buf.blkNum = FREE;
+			buffers.notifyAll();
+		}
+	}
+
+	private boolean isFlushed(LogSeqNum lsn) {
+		return lsn.compareTo(flushedLsn) < 0;
+	}
+
+	/**
+	 * Returns the LSN at the end of the log records appended so far. The
+	 * records appended later all have larger LSNs.
+	 * 
+	 * @return the end of the log
+	 */
+	public LogSeqNum reservedEnd() {
+		long end = tail.get();
+		return new LogSeqNum(end >>> 32, (int) end);
+	}
+
+	/**
+	 * Sets up a circular chain of pointers to the records in the page. There is
+	 * an integer added to the end of each log record whose value is the offset
+	 * of the previous log record. The first four bytes of the page contain an
+	 * integer whose value is the offset of the integer for the last log record
+	 * in the page.
+	 * 
+	 * <p>
+	 * Since the previous record ends right before the record, each record sets
+	 * its own pointer to the previous record and the pointer of the previous
+	 * record to it, and leaves its pointer to the next record to the next
+	 * record. The pointers to the last record are set when the page is written.
+	 * </p>
+	 */
+	private void finalizeRecord(Page page, int start, int pos) {
+		page.setVal(pos, new IntegerConstant(start - pointerSize * 2));
+		page.setVal(start - pointerSize, new IntegerConstant(pos + pointerSize));
 	}
 
-	private void setPreviousNextRecordPosition(int pos) {
-		int lastPos = (Integer) myPage.getVal(LAST_POS, INTEGER).asJavaVal();
-		myPage.setVal(lastPos + pointerSize, new IntegerConstant(pos));
+	private void setNextRecordPosition(Page page, int pos) {
+		page.setVal(pos, new IntegerConstant(LAST_POS + pointerSize));
 	}
 }
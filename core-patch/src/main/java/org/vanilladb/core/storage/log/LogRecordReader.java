@@ -0,0 +1,59 @@
+/*******************************************************************************
+ * Copyright 2016, 2018 vanilladb.org contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.vanilladb.core.storage.log;
+
+import org.vanilladb.core.storage.file.BlockId;
+import org.vanilladb.core.storage.file.Page;
+
+/**
+ * A class that reads the log records at given LSNs, for following the
+ * pointers from a log record to another, such as the one to the previous
+ * record of the same transaction. The records to be read must have been
+ * flushed. The block last read is kept in memory, since the records followed
+ * are usually close to each other.
+ */
+public class LogRecordReader {
+	private String logFile;
+	private Page pg = new Page();
+	private BlockId blk;
+
+	/**
+	 * Creates a reader of the specified log file. This constructor is called
+	 * exclusively by {@link LogMgr#recordReader()}.
+	 * 
+	 * @param logFile
+	 *            the name of the log file
+	 */
+	LogRecordReader(String logFile) {
+		this.logFile = logFile;
+	}
+
+	/**
+	 * Returns the log record with the specified LSN. The record is valid until
+	 * the next call of this method.
+	 * 
+	 * @param lsn
+	 *            the LSN of a log record
+	 * @return the log record
+	 */
+	public BasicLogRecord read(LogSeqNum lsn) {
+		if (blk == null || blk.number() != lsn.blkNum()) {
+			blk = new BlockId(logFile, lsn.blkNum());
+			pg.read(blk);
+		}
+		return new BasicLogRecord(pg, lsn);
+	}
+}
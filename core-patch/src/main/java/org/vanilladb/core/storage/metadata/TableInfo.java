@@ -89,4 +89,21 @@ public class TableInfo {
 	public RecordFile open(Transaction tx, boolean doLog) {
 		return new RecordFile(this, tx, doLog);
 	}
+
+	/**
+	 * Opens the {@link RecordFile} described by this object, choosing whether
+	 * the insertions and deletions are logged as logical operations.
+	 * 
+	 * @param tx
+	 *            the context of executing transaction
+	 * @param doLog
+	 *            will the transaction log the modification
+	 * @param doLogicalLogging
+	 *            will the transaction log the insertions and deletions as
+	 *            logical operations
+	 * @return the opened record file
+	 */
+	public RecordFile open(Transaction tx, boolean doLog, boolean doLogicalLogging) {
+		return new RecordFile(this, tx, doLog, doLogicalLogging);
+	}
 }
@@ -0,0 +1,183 @@
+/*******************************************************************************
+ * Copyright 2016, 2017 vanilladb.org contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.vanilladb.core.storage.record;
+
+import static org.vanilladb.core.storage.record.RecordPage.EMPTY;
+import static org.vanilladb.core.storage.record.RecordPage.FLAG_SIZE;
+import static org.vanilladb.core.storage.record.RecordPage.INUSE;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.vanilladb.core.server.VanillaDb;
+import org.vanilladb.core.sql.Constant;
+import org.vanilladb.core.sql.IntegerConstant;
+import org.vanilladb.core.sql.SchemaIncompatibleException;
+import org.vanilladb.core.sql.Type;
+import org.vanilladb.core.storage.buffer.Buffer;
+import org.vanilladb.core.storage.buffer.PageFormatter;
+import org.vanilladb.core.storage.file.BlockId;
+import org.vanilladb.core.storage.file.Page;
+import org.vanilladb.core.storage.metadata.TableInfo;
+import org.vanilladb.core.storage.tx.Transaction;
+
+/**
+ * Appends records to the end of a table file a page at a time. The records of
+ * a page are buffered in memory and written by the formatter of a new block,
+ * so loading skips the free-slot search, the per-record locks and the logging
+ * of {@link RecordFile#insert()}. The indexes of the table are not maintained;
+ * they should be built after the table is loaded.
+ *
+ * <p>
+ * The loader is meant for populating a testbed: the pages are not logged, so
+ * they are not removed if the transaction rolls back. The empty slots left at
+ * the end of the last page before loading are not reused.
+ * </p>
+ */
+public class BulkLoader {
+	private TableInfo ti;
+	private Transaction tx;
+	private String fileName;
+	private String[] fields;
+	private Type[] types;
+	private int[] offsets;
+	private int slotSize, slotsPerPage;
+	private List<Constant[]> pending;
+	private RecordId tail;
+	private int loadedCount;
+
+	/**
+	 * A formatter that fills the slots of a new page with records, followed by
+	 * empty slots.
+	 */
+	private class LoadedPageFormatter extends PageFormatter {
+		@Override
+		public void format(Buffer buf) {
+			Constant inUse = new IntegerConstant(INUSE);
+			Constant empty = new IntegerConstant(EMPTY);
+			int slot = 0;
+			for (int pos = 0; pos + slotSize <= Buffer.BUFFER_SIZE; pos += slotSize, ++slot) {
+				Constant[] vals = slot < pending.size() ? pending.get(slot) : null;
+				setVal(buf, pos, vals != null ? inUse : empty);
+				for (int i = 0; i < fields.length; ++i)
+					setVal(buf, pos + FLAG_SIZE + offsets[i],
+							vals != null ? vals[i] : Constant.defaultInstance(types[i]));
+			}
+		}
+	}
+
+	/**
+	 * Creates a loader that appends records to the specified table.
+	 *
+	 * @param ti
+	 *            the metadata of the table
+	 * @param tx
+	 *            the loading transaction
+	 */
+	public BulkLoader(TableInfo ti, Transaction tx) {
+		if (tx.isReadOnly())
+			throw new UnsupportedOperationException();
+		this.ti = ti;
+		this.tx = tx;
+		fileName = ti.fileName();
+		fields = ti.schema().fields().toArray(new String[0]);
+		types = new Type[fields.length];
+		offsets = new int[fields.length];
+		Map<String, Integer> offsetMap = RecordPage.offsetMap(ti.schema());
+		for (int i = 0; i < fields.length; ++i) {
+			types[i] = ti.schema().type(fields[i]);
+			offsets[i] = offsetMap.get(fields[i]);
+		}
+		slotSize = RecordPage.slotSize(ti.schema());
+		slotsPerPage = Buffer.BUFFER_SIZE / slotSize;
+		pending = new ArrayList<Constant[]>(slotsPerPage);
+
+		// Lock the whole file, as the loader appends blocks without
+		// going through the header of the file for each record
+		tx.concurrencyMgr().modifyFile(fileName);
+		if (VanillaDb.fileMgr().size(fileName) == 0)
+			RecordFile.formatFileHeader(fileName, tx);
+	}
+
+	/**
+	 * Adds a record to the table. The record is written once a page of
+	 * records is collected.
+	 *
+	 * @param fldVals
+	 *            the values of all the fields of the record
+	 */
+	public void insert(Map<String, Constant> fldVals) {
+		Constant[] vals = new Constant[fields.length];
+		for (int i = 0; i < fields.length; ++i) {
+			Constant val = fldVals.get(fields[i]);
+			if (val == null)
+				throw new SchemaIncompatibleException();
+			val = val.castTo(types[i]);
+			if (Page.size(val) > Page.maxSize(types[i]))
+				throw new SchemaIncompatibleException();
+			vals[i] = val;
+		}
+		pending.add(vals);
+		if (pending.size() == slotsPerPage)
+			appendPage();
+	}
+
+	/**
+	 * Writes the page of the remaining records, and moves the tail slot of
+	 * the file to the last loaded record so that later insertions continue
+	 * after it. The statistics of the table are notified of the new records.
+	 */
+	public void close() {
+		if (!pending.isEmpty())
+			appendPage();
+		if (tail == null)
+			return;
+
+		ReentrantLock headerLatch = tx.concurrencyMgr().getLockForFileHeader(
+				new BlockId(fileName, 0));
+		headerLatch.lock();
+		try {
+			FileHeaderPage fhp = new FileHeaderPage(fileName, tx);
+			fhp.setTailSlot(tail);
+			fhp.close();
+		} finally {
+			headerLatch.unlock();
+		}
+		VanillaDb.statMgr().countRecordUpdates(ti.tableName(), loadedCount);
+		tail = null;
+		loadedCount = 0;
+	}
+
+	/**
+	 * Returns the number of records loaded since the last {@link #close()}.
+	 *
+	 * @return the number of loaded records
+	 */
+	public int loadedCount() {
+		return loadedCount + pending.size();
+	}
+
+	private void appendPage() {
+		Buffer buff = tx.bufferMgr().pinNew(fileName, new LoadedPageFormatter());
+		tx.concurrencyMgr().insertBlock(buff.block());
+		tail = new RecordId(buff.block(), pending.size() - 1);
+		tx.bufferMgr().unpin(buff);
+		loadedCount += pending.size();
+		pending.clear();
+	}
+}
@@ -16,16 +16,20 @@
 package org.vanilladb.core.storage.record;
 
 import java.util.concurrent.locks.ReentrantLock;
+
 import org.vanilladb.core.server.VanillaDb;
 import org.vanilladb.core.sql.Constant;
 import org.vanilladb.core.sql.Record;
 import org.vanilladb.core.sql.SchemaIncompatibleException;
 import org.vanilladb.core.sql.Type;
+import org.vanilladb.core.sql.VectorView;
 import org.vanilladb.core.storage.buffer.Buffer;
+import org.vanilladb.core.storage.buffer.BufferPriority;
 import org.vanilladb.core.storage.file.BlockId;
 import org.vanilladb.core.storage.file.Page;
 import org.vanilladb.core.storage.metadata.TableInfo;
 import org.vanilladb.core.storage.tx.Transaction;
+import org.vanilladb.core.util.CoreProperties;
 
 /**
  * Manages a file of records. There are methods for iterating through the
@@ -42,6 +46,19 @@ import org.vanilladb.core.storage.tx.Transaction;
  * </p>
  */
 public class RecordFile implements Record {
+	/**
+	 * The number of blocks above which a sequential scan over a file pins its
+	 * blocks with {@link BufferPriority#SCAN}, so that the scan does not evict
+	 * the frequently accessed blocks from the buffer pool. Smaller files, such
+	 * as the catalogs, are cached as usual.
+	 */
+	public static final long SCAN_RESISTANT_BLOCKS;
+
+	static {
+		SCAN_RESISTANT_BLOCKS = CoreProperties.getLoader().getPropertyAsLong(
+				RecordFile.class.getName() + ".SCAN_RESISTANT_BLOCKS", 256);
+	}
+
 	private BlockId headerBlk;
 	private TableInfo ti;
 	private Transaction tx;
@@ -50,7 +67,7 @@ public class RecordFile implements Record {
 	private FileHeaderPage fhp;
 	private ReentrantLock fhpLatch;
 	private long currentBlkNum;
-	private boolean doLog;
+	private boolean doLog, doLogicalLogging;
 	private boolean isBeforeFirsted;
 
 	/**
@@ -68,9 +85,33 @@ public class RecordFile implements Record {
 	 *            logging
 	 */
 	public RecordFile(TableInfo ti, Transaction tx, boolean doLog) {
+		this(ti, tx, doLog, doLog);
+	}
+
+	/**
+	 * Constructs an object to manage a file of records, choosing whether the
+	 * insertions and deletions are also logged as logical operations. Without
+	 * logical logging, they are undone physically, which is only safe if the
+	 * transaction holds the lock of the whole file. To obtain an instance of
+	 * this class, call {@link TableInfo#open(Transaction, boolean, boolean)}
+	 * instead.
+	 * 
+	 * @param ti
+	 *            the table metadata
+	 * @param tx
+	 *            the transaction
+	 * @param doLog
+	 *            true if the underlying record modification should perform
+	 *            logging
+	 * @param doLogicalLogging
+	 *            true if the insertions and deletions should be logged as
+	 *            logical operations
+	 */
+	public RecordFile(TableInfo ti, Transaction tx, boolean doLog, boolean doLogicalLogging) {
 		this.ti = ti;
 		this.tx = tx;
 		this.doLog = doLog;
+		this.doLogicalLogging = doLog && doLogicalLogging;
 		fileName = ti.fileName();
 		headerBlk = new BlockId(fileName, 0);
 	}
@@ -132,12 +173,12 @@ public class RecordFile implements Record {
 			throw new IllegalStateException("You must call beforeFirst() before iterating table '"
 					+ ti.tableName() + "'");
 		
-		if (currentBlkNum == 0 && !moveTo(1))
+		if (currentBlkNum == 0 && !moveTo(1, true))
 			return false;
 		while (true) {
 			if (rp.next())
 				return true;
-			if (!moveTo(currentBlkNum + 1))
+			if (!moveTo(currentBlkNum + 1, true))
 				return false;
 		}
 	}
@@ -155,6 +196,20 @@ public class RecordFile implements Record {
 		return rp.getVal(fldName);
 	}
 
+	/**
+	 * Returns a read-only view of the vector in the specified field of the
+	 * current record, without copying it out of the page. The view is only
+	 * valid until the next call of {@link #next()} or a move to another record.
+	 * 
+	 * @param fldName
+	 *            the name of the vector field
+	 * 
+	 * @return a view of the vector in that field
+	 */
+	public VectorView getVectorView(String fldName) {
+		return rp.getVectorView(fldName);
+	}
+
 	/**
 	 * Sets a value of the specified field in the current record. The type of
 	 * the value must be equal to that of the specified field.
@@ -190,7 +245,7 @@ public class RecordFile implements Record {
 		try {
 			// Log that this logical operation starts
 			RecordId deletedRid = currentRecordId();
-			if (doLog)
+			if (doLogicalLogging)
 				tx.recoveryMgr().logLogicalStart();
 	
 			// Delete the current record
@@ -198,7 +253,7 @@ public class RecordFile implements Record {
 			fhp.setLastDeletedSlot(currentRecordId());
 	
 			// Log that this logical operation ends
-			if (doLog)
+			if (doLogicalLogging)
 				tx.recoveryMgr().logRecordFileDeletionEnd(ti.tableName(), deletedRid.block().number(), deletedRid.id());
 		} finally {
 			// Close the header (release the header latch)
@@ -241,7 +296,7 @@ public class RecordFile implements Record {
 		
 		try {
 			// Log that this logical operation starts
-			if (doLog)
+			if (doLogicalLogging)
 				tx.recoveryMgr().logLogicalStart();
 	
 			if (fhp.hasDeletedSlots()) {
@@ -272,7 +327,7 @@ public class RecordFile implements Record {
 			}
 	
 			// Log that this logical operation ends
-			if (doLog) {
+			if (doLogicalLogging) {
 				RecordId insertedRid = currentRecordId();
 				tx.recoveryMgr().logRecordFileInsertionEnd(ti.tableName(), insertedRid.block().number(), insertedRid.id());
 			}
@@ -304,7 +359,7 @@ public class RecordFile implements Record {
 
 		try {
 			// Log that this logical operation starts
-			if (doLog)
+			if (doLogicalLogging)
 				tx.recoveryMgr().logLogicalStart();
 	
 			// Mark the specified slot as in used
@@ -336,7 +391,7 @@ public class RecordFile implements Record {
 			}
 	
 			// Log that this logical operation ends
-			if (doLog)
+			if (doLogicalLogging)
 				tx.recoveryMgr().logRecordFileInsertionEnd(ti.tableName(), rid.block().number(), rid.id());
 		} finally {
 			// Close the header (release the header latch)
@@ -379,14 +434,21 @@ public class RecordFile implements Record {
 	}
 
 	private boolean moveTo(long b) {
+		return moveTo(b, false);
+	}
+
+	private boolean moveTo(long b, boolean sequential) {
 		if (rp != null)
 			rp.close();
 		
-		if (b >= fileSize()) // block b not allocated yet
+		long size = fileSize();
+		if (b >= size) // block b not allocated yet
 			return false;
 		currentBlkNum = b;
 		BlockId blk = new BlockId(fileName, currentBlkNum);
-		rp = new RecordPage(blk, ti, tx, doLog);
+		BufferPriority priority = sequential && size > SCAN_RESISTANT_BLOCKS
+				? BufferPriority.SCAN : BufferPriority.NORMAL;
+		rp = new RecordPage(blk, ti, tx, doLog, priority);
 		return true;
 	}
 
@@ -27,7 +27,9 @@ import org.vanilladb.core.sql.IntegerConstant;
 import org.vanilladb.core.sql.Record;
 import org.vanilladb.core.sql.Schema;
 import org.vanilladb.core.sql.Type;
+import org.vanilladb.core.sql.VectorView;
 import org.vanilladb.core.storage.buffer.Buffer;
+import org.vanilladb.core.storage.buffer.BufferPriority;
 import org.vanilladb.core.storage.file.BlockId;
 import org.vanilladb.core.storage.file.Page;
 import org.vanilladb.core.storage.log.LogSeqNum;
@@ -138,11 +140,32 @@ public class RecordPage implements Record {
 	 *            will it log the modification
 	 */
 	public RecordPage(BlockId blk, TableInfo ti, Transaction tx, boolean doLog) {
+		this(blk, ti, tx, doLog, BufferPriority.NORMAL);
+	}
+
+	/**
+	 * Creates the record manager for the specified block, pinning the block
+	 * with the given priority hint. The current record is set to be prior to
+	 * the first one.
+	 * 
+	 * @param blk
+	 *            a block ID
+	 * @param ti
+	 *            the table's metadata
+	 * @param tx
+	 *            the transaction
+	 * @param doLog
+	 *            will it log the modification
+	 * @param priority
+	 *            the priority hint of pinning the block
+	 */
+	public RecordPage(BlockId blk, TableInfo ti, Transaction tx, boolean doLog,
+			BufferPriority priority) {
 		this.blk = blk;
 		this.tx = tx;
 		this.ti = ti;
 		this.doLog = doLog;
-		currentBuff = tx.bufferMgr().pin(blk);
+		currentBuff = tx.bufferMgr().pin(blk, priority);
 
 		// Optimization: Reduce the cost of prepare the schema information
 		Schema sch = ti.schema();
@@ -189,6 +212,22 @@ public class RecordPage implements Record {
 		return getVal(position, ti.schema().type(fldName));
 	}
 
+	/**
+	 * Returns a read-only view of the vector stored in the specified field of
+	 * this record. The view is valid until this page moves to another block.
+	 * 
+	 * @param fldName
+	 *            the name of the vector field
+	 * 
+	 * @return a view of the vector in that field
+	 */
+	public VectorView getVectorView(String fldName) {
+		int position = fieldPos(fldName);
+		if (!isTempTable())
+			tx.concurrencyMgr().readRecord(new RecordId(blk, currentSlot));
+		return currentBuff.getVectorView(position, ti.schema().type(fldName).getArgument());
+	}
+
 	/**
 	 * Stores a value at the specified field of this record.
 	 * 
@@ -160,6 +160,27 @@ public class TransactionMgr implements TransactionLifecycleListener {
 		}
 	}
 
+	/**
+	 * Creates a fuzzy checkpoint record. Unlike
+	 * {@link #createCheckpoint(Transaction)}, the method neither holds off
+	 * the other transactions nor flushes the buffer pool. It records the
+	 * active transactions and the point from which recovery must redo the
+	 * log, derived from the dirty page table.
+	 * 
+	 * @param checkpointTx
+	 *            the transaction that performs checkpointing
+	 */
+	public void createFuzzyCheckpoint(Transaction checkpointTx) {
+		// Recovery redoes the log from no later than this point
+		LogSeqNum beginLsn = VanillaDb.logMgr().reservedEnd();
+		List<Long> txNums;
+		synchronized (this) {
+			txNums = new LinkedList<Long>(activeTxs);
+		}
+		LogSeqNum lsn = checkpointTx.recoveryMgr().fuzzyCheckpoint(checkpointTx, txNums, beginLsn);
+		VanillaDb.logMgr().flush(lsn);
+	}
+
 	public Transaction newTransaction(int isolationLevel, boolean readOnly) {
 		// Dispatch new transaction number
 		long txNum = -1;
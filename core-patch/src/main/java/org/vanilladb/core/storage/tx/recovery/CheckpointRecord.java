@@ -35,6 +35,9 @@ import org.vanilladb.core.storage.tx.Transaction;
 class CheckpointRecord implements LogRecord {
 	private List<Long> txNums;
 	private LogSeqNum lsn;
+	// The LSN from which the log must be redone, or the default value if all
+	// the dirty buffers were flushed before writing this record
+	private LogSeqNum redoLSN = LogSeqNum.DEFAULT_VALUE;
 	/**
 	 * Creates a quiescent checkpoint record.
 	 */
@@ -50,6 +53,21 @@ class CheckpointRecord implements LogRecord {
 		
 	}
 
+	/**
+	 * Creates a fuzzy checkpoint record. The buffers are not flushed before
+	 * writing a fuzzy checkpoint, so the record keeps the LSN from which the
+	 * log must be redone.
+	 * 
+	 * @param txNums
+	 *            the active transactions
+	 * @param redoLSN
+	 *            the LSN of the first log record to be redone
+	 */
+	public CheckpointRecord(List<Long> txNums, LogSeqNum redoLSN) {
+		this.txNums = txNums;
+		this.redoLSN = redoLSN;
+	}
+
 	/**
 	 * Creates a log record by reading no other values from the basic log
 	 * record.
@@ -58,8 +76,10 @@ class CheckpointRecord implements LogRecord {
 	 *            the basic log record
 	 */
 	public CheckpointRecord(BasicLogRecord rec) {
-		int txCount = (Integer) rec.nextVal(INTEGER).asJavaVal();
 		this.lsn = rec.getLSN();
+		this.redoLSN = new LogSeqNum((Long) rec.nextVal(BIGINT).asJavaVal(),
+				(Long) rec.nextVal(BIGINT).asJavaVal());
+		int txCount = (Integer) rec.nextVal(INTEGER).asJavaVal();
 		this.txNums = new ArrayList<Long>();
 		for (int i = 0; i < txCount; i++) {
 			txNums.add((Long) rec.nextVal(BIGINT).asJavaVal());
@@ -68,15 +88,15 @@ class CheckpointRecord implements LogRecord {
 
 	/**
 	 * Writes a checkpoint record to the log. This log record contains the
-	 * {@link LogRecord#OP_CHECKPOINT} operator ID, number of active transctions
-	 * during checkpointing and a list of active transaction ids.
+	 * {@link LogRecord#OP_CHECKPOINT} operator ID, the LSN from which the log
+	 * must be redone, number of active transctions during checkpointing and a
+	 * list of active transaction ids.
 	 * 
 	 * @return the LSN of the log record
 	 */
 	@Override
 	public LogSeqNum writeToLog() {
-		List<Constant> rec = buildRecord();
-		return logMgr.append(rec.toArray(new Constant[rec.size()]));
+		return RecoveryMgr.writeToLog(this);
 	}
 
 	@Override
@@ -128,6 +148,18 @@ class CheckpointRecord implements LogRecord {
 		return this.txNums;
 	}
 
+	/**
+	 * Returns the LSN of the first log record to be redone during recovery,
+	 * which is the LSN of this record unless it is a fuzzy checkpoint.
+	 * 
+	 * @return the LSN from which the log must be redone
+	 */
+	public LogSeqNum redoLSN() {
+		if (redoLSN.equals(LogSeqNum.DEFAULT_VALUE))
+			return lsn;
+		return redoLSN;
+	}
+
 	public boolean isContainTxNum(long txNum) {
 		return this.txNums.contains(txNum);
 	}
@@ -136,6 +168,8 @@ class CheckpointRecord implements LogRecord {
 	public List<Constant> buildRecord() {
 		List<Constant> rec = new LinkedList<Constant>();
 		rec.add(new IntegerConstant(op()));
+		rec.add(new BigIntConstant(redoLSN.blkNum()));
+		rec.add(new BigIntConstant(redoLSN.offset()));
 		rec.add(new IntegerConstant(txNums.size()));
 		int recLength = txNums.size();
 		for (int i = 0; i < recLength; i++)
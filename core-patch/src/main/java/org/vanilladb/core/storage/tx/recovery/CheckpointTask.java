@@ -21,11 +21,14 @@ import java.util.logging.Logger;
 
 import org.vanilladb.core.server.VanillaDb;
 import org.vanilladb.core.server.task.Task;
+import org.vanilladb.core.storage.buffer.PageCleaner;
 import org.vanilladb.core.storage.tx.Transaction;
 import org.vanilladb.core.util.CoreProperties;
 
 /**
- * The task performs non-quiescent checkpointing.
+ * The task performs non-quiescent checkpointing. In the fuzzy mode, the
+ * checkpoints do not flush the buffer pool; a {@link PageCleaner} is started
+ * along with the task to write the dirty buffers incrementally instead.
  */
 public class CheckpointTask extends Task {
 	private static Logger logger = Logger.getLogger(CheckpointTask.class
@@ -35,6 +38,7 @@ public class CheckpointTask extends Task {
 	private static final int METHOD_PERIODIC = 0, METHOD_MONITOR = 1;
 	private static final int MY_METHOD;
 	private static final long PERIOD;
+	private static final boolean FUZZY;
 	private long lastTxNum;
 
 	static {
@@ -45,6 +49,8 @@ public class CheckpointTask extends Task {
 				CheckpointTask.class.getName() + ".MY_METHOD", METHOD_PERIODIC);
 		PERIOD = CoreProperties.getLoader().getPropertyAsLong(
 				CheckpointTask.class.getName() + ".PERIOD", 300000);
+		FUZZY = CoreProperties.getLoader().getPropertyAsBoolean(
+				CheckpointTask.class.getName() + ".FUZZY", false);
 	}
 
 	public CheckpointTask() {
@@ -61,22 +67,31 @@ public class CheckpointTask extends Task {
 			if (VanillaDb.txMgr().getNextTxNum() - lastTxNum > TX_COUNT_TO_CHECKPOINT) {
 				Transaction tx = VanillaDb.txMgr().newTransaction(
 						Connection.TRANSACTION_SERIALIZABLE, false);
-				VanillaDb.txMgr().createCheckpoint(tx);
+				checkpoint(tx);
 				tx.commit();
 				lastTxNum = VanillaDb.txMgr().getNextTxNum();
 			}
 		} else if (MY_METHOD == METHOD_PERIODIC) {
 			Transaction tx = VanillaDb.txMgr().newTransaction(
 					Connection.TRANSACTION_SERIALIZABLE, false);
-			VanillaDb.txMgr().createCheckpoint(tx);
+			checkpoint(tx);
 			tx.commit();
 		}
 		if (logger.isLoggable(Level.INFO))
 			logger.info("A checkpoint created");
 	}
 
+	private void checkpoint(Transaction tx) {
+		if (FUZZY)
+			VanillaDb.txMgr().createFuzzyCheckpoint(tx);
+		else
+			VanillaDb.txMgr().createCheckpoint(tx);
+	}
+
 	@Override
 	public void run() {
+		if (FUZZY)
+			VanillaDb.taskMgr().runTask(new PageCleaner());
 		while (true) {
 			createCheckpoint();
 			try {
@@ -63,8 +63,7 @@ class CommitRecord implements LogRecord {
 	 */
 	@Override
 	public LogSeqNum writeToLog() {
-		List<Constant> rec = buildRecord();
-		return logMgr.append(rec.toArray(new Constant[rec.size()]));
+		return RecoveryMgr.writeToLog(this);
 	}
 
 	@Override
@@ -83,8 +83,7 @@ public class IndexDeleteEndRecord extends LogicalEndRecord implements LogRecord
 
 	@Override
 	public LogSeqNum writeToLog() {
-		List<Constant> rec = buildRecord();
-		return logMgr.append(rec.toArray(new Constant[rec.size()]));
+		return RecoveryMgr.writeToLog(this);
 	}
 
 	@Override
@@ -37,7 +37,7 @@ import org.vanilladb.core.storage.log.BasicLogRecord;
 import org.vanilladb.core.storage.log.LogSeqNum;
 import org.vanilladb.core.storage.tx.Transaction;
 
-public class IndexPageDeleteRecord implements LogRecord {
+public class IndexPageDeleteRecord implements LogRecord, PageLogRecord {
 	private long txNum;
 	private BlockId indexBlkId;
 	private int slotId;
@@ -77,9 +77,7 @@ public class IndexPageDeleteRecord implements LogRecord {
 
 	@Override
 	public LogSeqNum writeToLog() {
-		List<Constant> rec = buildRecord();
-		return logMgr.append(rec.toArray(new Constant[rec.size()]));
-
+		return RecoveryMgr.writeToLog(this);
 	}
 
 	@Override
@@ -169,6 +167,11 @@ public class IndexPageDeleteRecord implements LogRecord {
 		return rec;
 	}
 
+	@Override
+	public BlockId getBlockId() {
+		return indexBlkId;
+	}
+
 	@Override
 	public LogSeqNum getLSN() {
 
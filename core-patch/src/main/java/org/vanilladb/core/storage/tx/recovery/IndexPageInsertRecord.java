@@ -37,7 +37,7 @@ import org.vanilladb.core.storage.log.BasicLogRecord;
 import org.vanilladb.core.storage.log.LogSeqNum;
 import org.vanilladb.core.storage.tx.Transaction;
 
-public class IndexPageInsertRecord implements LogRecord {
+public class IndexPageInsertRecord implements LogRecord, PageLogRecord {
 	private long txNum;
 	private BlockId indexBlkId;
 	private int slotId;
@@ -79,9 +79,7 @@ public class IndexPageInsertRecord implements LogRecord {
 
 	@Override
 	public LogSeqNum writeToLog() {
-		List<Constant> rec = buildRecord();
-		return logMgr.append(rec.toArray(new Constant[rec.size()]));
-
+		return RecoveryMgr.writeToLog(this);
 	}
 
 	@Override
@@ -174,6 +172,11 @@ public class IndexPageInsertRecord implements LogRecord {
 		return rec;
 	}
 
+	@Override
+	public BlockId getBlockId() {
+		return indexBlkId;
+	}
+
 	@Override
 	public LogSeqNum getLSN() {
 
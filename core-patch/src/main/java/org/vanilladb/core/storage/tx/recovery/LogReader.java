@@ -94,6 +94,9 @@ public class LogReader {
 
 	private LogRecord readRecord(BasicLogRecord rec) {
 		int op = (Integer) rec.nextVal(INTEGER).asJavaVal();
+		// skip the LSN of the previous record of the transaction
+		rec.nextVal(Type.BIGINT);
+		rec.nextVal(Type.BIGINT);
 		switch (op) {
 		case OP_CHECKPOINT:
 			return new CheckpointRecord(rec);
@@ -15,6 +15,7 @@
  *******************************************************************************/
 package org.vanilladb.core.storage.tx.recovery;
 
+import static org.vanilladb.core.sql.Type.BIGINT;
 import static org.vanilladb.core.sql.Type.INTEGER;
 import static org.vanilladb.core.storage.tx.recovery.LogRecord.OP_CHECKPOINT;
 import static org.vanilladb.core.storage.tx.recovery.LogRecord.OP_COMMIT;
@@ -35,6 +36,7 @@ import static org.vanilladb.core.storage.tx.recovery.LogRecord.OP_START;
 
 import org.vanilladb.core.server.VanillaDb;
 import org.vanilladb.core.storage.log.BasicLogRecord;
+import org.vanilladb.core.storage.log.LogSeqNum;
 
 /**
  * A class that provides the ability to read records from the log in reverse
@@ -52,53 +54,12 @@ class LogRecordIterator implements ReversibleIterator<LogRecord> {
 
 	/**
 	 * Constructs a log record from the values in the current basic log record.
-	 * The method first reads an integer, which denotes the type of the log
-	 * record. Based on that type, the method calls the appropriate LogRecord
-	 * constructor to read the remaining values.
 	 * 
 	 * @return the next log record, or null if no more records
 	 */
-	
 	@Override
 	public LogRecord next() {
-		BasicLogRecord rec = iter.next();
-		int op = (Integer) rec.nextVal(INTEGER).asJavaVal();
-		switch (op) {
-		case OP_CHECKPOINT:
-			return new CheckpointRecord(rec);
-		case OP_START:
-			return new StartRecord(rec);
-		case OP_COMMIT:
-			return new CommitRecord(rec);
-		case OP_ROLLBACK:
-			return new RollbackRecord(rec);
-		case OP_SET_VALUE:
-			return new SetValueRecord(rec);
-		case OP_LOGICAL_START:
-			return new LogicalStartRecord(rec);
-		case OP_LOGICAL_ABORT:
-			return new LogicalAbortRecord(rec);
-		case OP_RECORD_FILE_INSERT_END:
-			return new RecordFileInsertEndRecord(rec);
-		case OP_RECORD_FILE_DELETE_END:
-			return new RecordFileDeleteEndRecord(rec);
-		case OP_INDEX_FILE_INSERT_END:
-			return new IndexInsertEndRecord(rec);
-		case OP_INDEX_FILE_DELETE_END:
-			return new IndexDeleteEndRecord(rec);
-		case OP_INDEX_PAGE_INSERT:
-			return new IndexPageInsertRecord(rec);
-		case OP_INDEX_PAGE_DELETE:
-			return new IndexPageDeleteRecord(rec);
-		case OP_SET_VALUE_CLR:
-			return new SetValueClr(rec);
-		case OP_INDEX_PAGE_INSERT_CLR:
-			return new IndexPageInsertClr(rec);
-		case OP_INDEX_PAGE_DELETE_CLR:
-			return new IndexPageDeleteClr(rec);
-		default:
-			throw new UnsupportedOperationException();
-		}
+		return readRecord(iter.next());
 	}
 
 	@Override
@@ -113,8 +74,23 @@ class LogRecordIterator implements ReversibleIterator<LogRecord> {
 
 	@Override
 	public LogRecord previous() {
-		BasicLogRecord rec = iter.previous();
+		return readRecord(iter.previous());
+	}
+
+	/**
+	 * Constructs a log record from the values in the specified basic log
+	 * record. The method first reads an integer, which denotes the type of the
+	 * log record, and skips the LSN of the previous record of the same
+	 * transaction. Based on that type, the method calls the appropriate
+	 * LogRecord constructor to read the remaining values.
+	 * 
+	 * @param rec
+	 *            the basic log record
+	 * @return the log record
+	 */
+	static LogRecord readRecord(BasicLogRecord rec) {
 		int op = (Integer) rec.nextVal(INTEGER).asJavaVal();
+		readLSN(rec);
 		switch (op) {
 		case OP_CHECKPOINT:
 			return new CheckpointRecord(rec);
@@ -152,4 +128,22 @@ class LogRecordIterator implements ReversibleIterator<LogRecord> {
 			throw new UnsupportedOperationException();
 		}
 	}
+
+	/**
+	 * Returns the LSN of the previous log record of the transaction that
+	 * wrote the specified basic log record.
+	 * 
+	 * @param rec
+	 *            the basic log record
+	 * @return the LSN of the previous record, or
+	 *         {@link LogSeqNum#DEFAULT_VALUE} if this is the first record
+	 */
+	static LogSeqNum readPrevLSN(BasicLogRecord rec) {
+		rec.nextVal(INTEGER);
+		return readLSN(rec);
+	}
+
+	private static LogSeqNum readLSN(BasicLogRecord rec) {
+		return new LogSeqNum((Long) rec.nextVal(BIGINT).asJavaVal(), (Long) rec.nextVal(BIGINT).asJavaVal());
+	}
 }
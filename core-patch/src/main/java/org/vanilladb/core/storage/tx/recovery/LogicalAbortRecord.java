@@ -46,8 +46,7 @@ public class LogicalAbortRecord extends LogicalEndRecord implements LogRecord {
 
 	@Override
 	public LogSeqNum writeToLog() {
-		List<Constant> rec = buildRecord();
-		return logMgr.append(rec.toArray(new Constant[rec.size()]));
+		return RecoveryMgr.writeToLog(this);
 	}
 
 	@Override
@@ -0,0 +1,311 @@
+/*******************************************************************************
+ * Copyright 2016, 2017 vanilladb.org contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.vanilladb.core.storage.tx.recovery;
+
+import static org.vanilladb.core.storage.tx.recovery.LogRecord.OP_COMMIT;
+import static org.vanilladb.core.storage.tx.recovery.LogRecord.OP_ROLLBACK;
+import static org.vanilladb.core.storage.tx.recovery.LogRecord.OP_START;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+
+import org.vanilladb.core.server.VanillaDb;
+import org.vanilladb.core.server.task.Task;
+import org.vanilladb.core.storage.log.LogSeqNum;
+import org.vanilladb.core.storage.tx.Transaction;
+
+/**
+ * Recovers the system with multiple worker threads.
+ * 
+ * <p>
+ * In the redo phase, a single thread scans the log forward and hands every
+ * {@link PageLogRecord page record} to the worker owning the page, so the
+ * records of a page are still redone in LSN order while different pages are
+ * redone in parallel.
+ * </p>
+ * 
+ * <p>
+ * In the undo phase, the uncompleted transactions are grouped by the files
+ * touched by their log records. The groups share no file, so they are rolled
+ * back concurrently, each by a transaction of its own following the chains of
+ * the log records of the group.
+ * </p>
+ */
+class ParallelRecovery {
+	// The number of records handed to a redo worker at a time
+	private static final int BATCH_SIZE = 64;
+	private static final int MAX_PENDING_BATCHES = 64;
+	// The file assumed for the logical operations that left no page records,
+	// e.g., those on the structures written without logging
+	private static final String UNLOGGED_FILES = "";
+
+	private final int numWorkers;
+	private volatile RuntimeException failure;
+
+	ParallelRecovery(int numWorkers) {
+		this.numWorkers = numWorkers;
+	}
+
+	/**
+	 * Redoes the log records from the current position of the iterator to
+	 * the end of the log.
+	 * 
+	 * @param tx
+	 *            the recovering transaction
+	 * @param iter
+	 *            the iterator positioned at the point to redo from
+	 */
+	void redo(Transaction tx, ReversibleIterator<LogRecord> iter) {
+		List<BlockingQueue<List<LogRecord>>> queues = new ArrayList<BlockingQueue<List<LogRecord>>>();
+		List<List<LogRecord>> batches = new ArrayList<List<LogRecord>>();
+		CountDownLatch done = new CountDownLatch(numWorkers);
+		for (int i = 0; i < numWorkers; i++) {
+			BlockingQueue<List<LogRecord>> queue = new ArrayBlockingQueue<List<LogRecord>>(MAX_PENDING_BATCHES);
+			queues.add(queue);
+			batches.add(new ArrayList<LogRecord>(BATCH_SIZE));
+			VanillaDb.taskMgr().runTask(new RedoWorker(queue, done));
+		}
+
+		try {
+			while (iter.hasPrevious() && failure == null) {
+				LogRecord rec = iter.previous();
+				if (rec instanceof PageLogRecord) {
+					int worker = Math.floorMod(((PageLogRecord) rec).getBlockId().hashCode(), numWorkers);
+					List<LogRecord> batch = batches.get(worker);
+					batch.add(rec);
+					if (batch.size() == BATCH_SIZE) {
+						queues.get(worker).put(batch);
+						batches.set(worker, new ArrayList<LogRecord>(BATCH_SIZE));
+					}
+				} else
+					rec.redo(tx);
+			}
+			// Hand over the rest and then an empty batch to stop the workers
+			for (int i = 0; i < numWorkers; i++) {
+				if (!batches.get(i).isEmpty())
+					queues.get(i).put(batches.get(i));
+				queues.get(i).put(new ArrayList<LogRecord>());
+			}
+			done.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("interrupted during redo");
+		}
+		if (failure != null)
+			throw failure;
+	}
+
+	/**
+	 * Rolls back the specified uncompleted transactions.
+	 * 
+	 * @param txNums
+	 *            the uncompleted transactions
+	 */
+	void undo(Set<Long> txNums) {
+		Map<Long, LogSeqNum> lastLSNs = findLastLSNs(txNums);
+		List<List<Long>> groups = groupByFiles(lastLSNs);
+		CountDownLatch done = new CountDownLatch(groups.size());
+		for (List<Long> group : groups)
+			VanillaDb.taskMgr().runTask(new UndoWorker(group, lastLSNs, done));
+		try {
+			done.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("interrupted during undo");
+		}
+		if (failure != null)
+			throw failure;
+	}
+
+	/**
+	 * Finds the last log record of each transaction by scanning the log
+	 * backward. The records compensating them continue the chains of the
+	 * transactions from there. A transaction whose last record is its COMMIT
+	 * or ROLLBACK record has finished, e.g., right before a checkpoint
+	 * listing it as active, and is not undone.
+	 */
+	private Map<Long, LogSeqNum> findLastLSNs(Set<Long> txNums) {
+		Map<Long, LogSeqNum> lastLSNs = new HashMap<Long, LogSeqNum>();
+		Set<Long> pending = new HashSet<Long>(txNums);
+		ReversibleIterator<LogRecord> iter = new LogRecordIterator();
+		while (!pending.isEmpty() && iter.hasNext()) {
+			LogRecord rec = iter.next();
+			long txNum = rec.txNumber();
+			if (!pending.remove(txNum))
+				continue;
+			if (rec.op() == OP_COMMIT || rec.op() == OP_ROLLBACK)
+				continue;
+			lastLSNs.put(txNum, rec.getLSN());
+			RecoveryMgr.resumeChain(txNum, rec.getLSN());
+		}
+		return lastLSNs;
+	}
+
+	/**
+	 * Groups the transactions so that the transactions touching a common file
+	 * are in the same group.
+	 */
+	private List<List<Long>> groupByFiles(Map<Long, LogSeqNum> lastLSNs) {
+		Map<Long, Long> parents = new HashMap<Long, Long>();
+		Map<String, Long> fileOwners = new HashMap<String, Long>();
+		for (Map.Entry<Long, LogSeqNum> entry : lastLSNs.entrySet()) {
+			long txNum = entry.getKey();
+			parents.put(txNum, txNum);
+			for (String fileName : filesOf(entry.getValue())) {
+				Long owner = fileOwners.putIfAbsent(fileName, txNum);
+				if (owner != null)
+					parents.put(find(parents, txNum), find(parents, owner));
+			}
+		}
+
+		Map<Long, List<Long>> groups = new HashMap<Long, List<Long>>();
+		for (long txNum : parents.keySet())
+			groups.computeIfAbsent(find(parents, txNum), k -> new ArrayList<Long>()).add(txNum);
+		return new ArrayList<List<Long>>(groups.values());
+	}
+
+	private long find(Map<Long, Long> parents, long txNum) {
+		long root = txNum;
+		while (parents.get(root) != root)
+			root = parents.get(root);
+		parents.put(txNum, root);
+		return root;
+	}
+
+	/**
+	 * Returns the files touched by the log records of a transaction. A
+	 * logical operation leaving no page record in between its start and end
+	 * records is taken to touch the same files as every other such operation.
+	 */
+	private Set<String> filesOf(LogSeqNum lastLSN) {
+		Set<String> files = new HashSet<String>();
+		TxLogRecordIterator iter = new TxLogRecordIterator(lastLSN);
+		LogSeqNum logicalStartLSN = null;
+		boolean hasPageRecord = false;
+		while (iter.hasNext()) {
+			LogRecord rec = iter.next();
+			if (logicalStartLSN != null && rec.getLSN().compareTo(logicalStartLSN) <= 0) {
+				if (!hasPageRecord)
+					files.add(UNLOGGED_FILES);
+				logicalStartLSN = null;
+			}
+			if (rec instanceof PageLogRecord) {
+				files.add(((PageLogRecord) rec).getBlockId().fileName());
+				hasPageRecord = true;
+			} else if (rec instanceof LogicalEndRecord && logicalStartLSN == null) {
+				logicalStartLSN = ((LogicalEndRecord) rec).getlogicalStartLSN();
+				hasPageRecord = false;
+			}
+			if (rec.op() == OP_START)
+				break;
+		}
+		if (logicalStartLSN != null && !hasPageRecord)
+			files.add(UNLOGGED_FILES);
+		return files;
+	}
+
+	private class RedoWorker extends Task {
+		private BlockingQueue<List<LogRecord>> queue;
+		private CountDownLatch done;
+
+		RedoWorker(BlockingQueue<List<LogRecord>> queue, CountDownLatch done) {
+			this.queue = queue;
+			this.done = done;
+		}
+
+		@Override
+		public void run() {
+			Thread.currentThread().setName("recovery-redo");
+			// Redo writes no log record
+			Transaction tx = VanillaDb.txMgr().newTransaction(Connection.TRANSACTION_SERIALIZABLE, true);
+			try {
+				while (true) {
+					List<LogRecord> batch = queue.take();
+					if (batch.isEmpty())
+						break;
+					// Keep draining the queue after a failure to not block the
+					// reader
+					if (failure == null)
+						for (LogRecord rec : batch)
+							rec.redo(tx);
+				}
+			} catch (InterruptedException e) {
+				failure = new RuntimeException("interrupted during redo");
+			} catch (RuntimeException e) {
+				failure = e;
+				drain();
+			} finally {
+				tx.commit();
+				done.countDown();
+			}
+		}
+
+		private void drain() {
+			try {
+				while (!queue.take().isEmpty())
+					;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private class UndoWorker extends Task {
+		private List<Long> txNums;
+		private Map<Long, LogSeqNum> lastLSNs;
+		private CountDownLatch done;
+
+		UndoWorker(List<Long> txNums, Map<Long, LogSeqNum> lastLSNs, CountDownLatch done) {
+			this.txNums = txNums;
+			this.lastLSNs = lastLSNs;
+			this.done = done;
+		}
+
+		@Override
+		public void run() {
+			Thread.currentThread().setName("recovery-undo");
+			Transaction tx = VanillaDb.txMgr().newTransaction(Connection.TRANSACTION_SERIALIZABLE, false);
+			try {
+				List<TxLogRecordIterator> iters = new ArrayList<TxLogRecordIterator>();
+				for (long txNum : txNums)
+					iters.add(new TxLogRecordIterator(lastLSNs.get(txNum)));
+				// Undo the records of the group from the latest one, as the
+				// serial recovery does
+				while (!iters.isEmpty() && failure == null) {
+					TxLogRecordIterator latest = iters.get(0);
+					for (TxLogRecordIterator iter : iters)
+						if (iter.nextLSN().compareTo(latest.nextLSN()) > 0)
+							latest = iter;
+					if (!latest.hasNext() || !RecoveryMgr.undoNext(latest, tx))
+						iters.remove(latest);
+				}
+				tx.commit();
+			} catch (RuntimeException e) {
+				failure = e;
+			} finally {
+				done.countDown();
+			}
+		}
+	}
+}
@@ -62,8 +62,7 @@ public class RecordFileDeleteEndRecord extends LogicalEndRecord implements LogRe
 
 	@Override
 	public LogSeqNum writeToLog() {
-		List<Constant> rec = buildRecord();
-		return logMgr.append(rec.toArray(new Constant[rec.size()]));
+		return RecoveryMgr.writeToLog(this);
 	}
 
 	@Override
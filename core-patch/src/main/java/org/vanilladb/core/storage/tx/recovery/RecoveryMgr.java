@@ -20,11 +20,13 @@ import static org.vanilladb.core.storage.tx.recovery.LogRecord.OP_COMMIT;
 import static org.vanilladb.core.storage.tx.recovery.LogRecord.OP_ROLLBACK;
 import static org.vanilladb.core.storage.tx.recovery.LogRecord.OP_START;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.vanilladb.core.server.VanillaDb;
 import org.vanilladb.core.sql.Constant;
@@ -35,18 +37,88 @@ import org.vanilladb.core.storage.index.SearchKeyType;
 import org.vanilladb.core.storage.log.LogSeqNum;
 import org.vanilladb.core.storage.tx.Transaction;
 import org.vanilladb.core.storage.tx.TransactionLifecycleListener;
+import org.vanilladb.core.util.CoreProperties;
 
 /**
  * The recovery manager. Each transaction has its own recovery manager.
  */
 public class RecoveryMgr implements TransactionLifecycleListener {
 
+	/**
+	 * The number of threads recovering the system. The system is recovered
+	 * by a single thread if the number is not greater than 1.
+	 */
+	public static final int NUM_RECOVERY_WORKERS;
+
+	static {
+		NUM_RECOVERY_WORKERS = CoreProperties.getLoader().getPropertyAsInteger(
+				RecoveryMgr.class.getName() + ".NUM_RECOVERY_WORKERS", 1);
+	}
+
 	private static boolean enableLogging = true;
 
 	public static void enableLogging(boolean log) {
 		enableLogging = log;
 	}
 
+	// The LSN of the last log record of each transaction writing the log
+	private static final Map<Long, LogSeqNum> txLastLSNs = new ConcurrentHashMap<Long, LogSeqNum>();
+
+	/**
+	 * Writes the specified record to the log. The LSN of the previous record
+	 * of the same transaction is stored right after the operation ID of the
+	 * record, so that the records of a transaction can be undone without
+	 * scanning the records of the other transactions.
+	 * 
+	 * @param rec
+	 *            the log record
+	 * @return the LSN of the log record
+	 */
+	static LogSeqNum writeToLog(LogRecord rec) {
+		long txNum = rec.txNumber();
+		LogSeqNum prevLSN = LogSeqNum.DEFAULT_VALUE;
+		if (txNum >= 0)
+			prevLSN = txLastLSNs.getOrDefault(txNum, LogSeqNum.DEFAULT_VALUE);
+
+		List<Constant> vals = rec.buildRecord();
+		vals.addAll(1, Arrays.asList(prevLSN.toConstants()));
+		LogSeqNum lsn = VanillaDb.logMgr().append(vals.toArray(new Constant[vals.size()]));
+
+		if (txNum >= 0)
+			txLastLSNs.put(txNum, lsn);
+		return lsn;
+	}
+
+	/**
+	 * Returns the LSN of the last log record written by the specified
+	 * transaction, or null if the transaction has not written any record.
+	 * 
+	 * @param txNum
+	 *            the id of the transaction
+	 * @return the LSN of the last log record of the transaction
+	 */
+	public static LogSeqNum lastLsnOf(long txNum) {
+		return txLastLSNs.get(txNum);
+	}
+
+	/**
+	 * Forgets the last log records of all transactions. This method should
+	 * be called when the log is removed, so that the next record of an active
+	 * transaction does not chain to a record in the removed log.
+	 */
+	public static void clearLastLSNs() {
+		txLastLSNs.clear();
+	}
+
+	/**
+	 * Continues the chain of the log records of a transaction found in the
+	 * log during recovery, so that the records compensating its records are
+	 * chained after them.
+	 */
+	static void resumeChain(long txNum, LogSeqNum lastLSN) {
+		txLastLSNs.putIfAbsent(txNum, lastLSN);
+	}
+
 	/**
 	 * Goes through the log, rolling back all uncompleted transactions. Flushes
 	 * all modified blocks. Finally, writes a quiescent checkpoint record to the
@@ -94,7 +166,8 @@ public class RecoveryMgr implements TransactionLifecycleListener {
 	public void onTxCommit(Transaction tx) {
 		if (!tx.isReadOnly() && enableLogging) {
 			LogSeqNum lsn = new CommitRecord(txNum).writeToLog();
-			VanillaDb.logMgr().flush(lsn);
+			VanillaDb.logMgr().flushForCommit(lsn);
+			txLastLSNs.remove(txNum);
 		}
 	}
 
@@ -107,7 +180,8 @@ public class RecoveryMgr implements TransactionLifecycleListener {
 		if (!tx.isReadOnly() && enableLogging) {
 			rollback(tx);
 			LogSeqNum lsn = new RollbackRecord(txNum).writeToLog();
-			VanillaDb.logMgr().flush(lsn);
+			VanillaDb.logMgr().flushForCommit(lsn);
+			txLastLSNs.remove(txNum);
 		}
 	}
 
@@ -128,6 +202,34 @@ public class RecoveryMgr implements TransactionLifecycleListener {
 		return new CheckpointRecord(txNums).writeToLog();
 	}
 
+	/**
+	 * Writes a fuzzy checkpoint record to the log. The record keeps the point
+	 * from which the log must be redone, which is the earliest of the
+	 * beginning of the checkpoint, the last log records of the transactions
+	 * and the recovery LSNs in the dirty page table.
+	 * 
+	 * @param tx
+	 *            the transaction that performs checkpointing
+	 * @param txNums
+	 *            the transactions that are being executed when writing the
+	 *            checkpoint, taken after the beginning of the checkpoint
+	 * @param beginLSN
+	 *            the end of the log when the checkpoint began
+	 * @return the LSN of the log record.
+	 */
+	public LogSeqNum fuzzyCheckpoint(Transaction tx, List<Long> txNums, LogSeqNum beginLSN) {
+		LogSeqNum redoLSN = beginLSN;
+		// A transaction may have logged a modification that has not been
+		// applied to the buffer when the dirty page table is taken
+		for (LogSeqNum lsn : txLastLSNs.values())
+			if (lsn.compareTo(redoLSN) < 0)
+				redoLSN = lsn;
+		for (LogSeqNum recLsn : tx.bufferMgr().dirtyPageTable().values())
+			if (recLsn.compareTo(redoLSN) < 0)
+				redoLSN = recLsn;
+		return new CheckpointRecord(txNums, redoLSN).writeToLog();
+	}
+
 	/**
 	 * Writes a set value record to the log.
 	 * 
@@ -267,70 +369,58 @@ public class RecoveryMgr implements TransactionLifecycleListener {
 	}
 
 	/**
-	 * Rolls back the transaction. The method iterates through the log records,
-	 * calling {@link LogRecord#undo(Transaction)} for each log record it finds
-	 * for the transaction, until it finds the transaction's START record.
+	 * Rolls back the transaction. The method follows the chain of the log
+	 * records of the transaction backwards, calling
+	 * {@link LogRecord#undo(Transaction)} for each log record, until it finds
+	 * the transaction's START record.
 	 */
 	void rollback(Transaction tx) {
-		ReversibleIterator<LogRecord> iter = new LogRecordIterator();
-		LogSeqNum txUnDoNextLSN = null;
-		while (iter.hasNext()) {
-			LogRecord rec = iter.next();
-			if (rec.txNumber() == txNum) {
-				if (txUnDoNextLSN != null) {
-					if (txUnDoNextLSN.compareTo(rec.getLSN()) != 1)
-						continue;
-				}
-				if (rec.op() == OP_START)
-					return;
-				else if (rec instanceof LogicalEndRecord) {
-
-					// Undo this Logical operation;
-					rec.undo(tx);
-					/*
-					 * Extract the logicalStartLSN form rec by casting it as a
-					 * LogicalEndRecord
-					 */
-					LogSeqNum logicalStartLSN = ((LogicalEndRecord) rec).getlogicalStartLSN();
-
-					/*
-					 * Save the Logical Start LSN to skip the log records
-					 * between the end record and the start record
-					 */
-					txUnDoNextLSN = logicalStartLSN;
-
-				} else
-					rec.undo(tx);
-			}
-		}
+		rollbackPartially(tx, Integer.MAX_VALUE);
 	}
 
 	void rollbackPartially(Transaction tx, int stepsInUndo) {
-		ReversibleIterator<LogRecord> iter = new LogRecordIterator();
-		LogSeqNum txUnDoNextLSN = null;
+		LogSeqNum lastLSN = txLastLSNs.get(txNum);
+		if (lastLSN == null)
+			return;
+		TxLogRecordIterator iter = new TxLogRecordIterator(lastLSN);
 		while (iter.hasNext() && stepsInUndo >= 0) {
-			LogRecord rec = iter.next();
 			stepsInUndo--;
-			if (rec.txNumber() == txNum) {
-
-				if (txUnDoNextLSN != null) {
-					if (txUnDoNextLSN.compareTo(rec.getLSN()) != 1)
-						continue;
-				}
-				if (rec.op() == OP_START)
-					return;
-				else if (rec instanceof LogicalEndRecord) {
-
-					rec.undo(tx);
-
-					LogSeqNum logicalStartLSN = ((LogicalEndRecord) rec).getlogicalStartLSN();
+			if (!undoNext(iter, tx))
+				return;
+		}
+	}
 
-					txUnDoNextLSN = logicalStartLSN;
+	/**
+	 * Undoes the next log record of a transaction, skipping the records that
+	 * need no undo. Returns false if the START record of the transaction is
+	 * reached.
+	 * 
+	 * @param iter
+	 *            the iterator over the log records of the transaction
+	 * @param tx
+	 *            the transaction performing the undo
+	 * @return false if the transaction has been rolled back
+	 */
+	static boolean undoNext(TxLogRecordIterator iter, Transaction tx) {
+		LogRecord rec = iter.next();
+		if (rec.op() == OP_START)
+			return false;
+		else if (rec instanceof LogicalEndRecord) {
+
+			// Undo this Logical operation;
+			rec.undo(tx);
+			/*
+			 * Skip the log records between the end record and the start
+			 * record
+			 */
+			iter.skipFrom(((LogicalEndRecord) rec).getlogicalStartLSN());
 
-				} else
-					rec.undo(tx);
-			}
-		}
+		} else if (rec instanceof CompesationLogRecord) {
+			// Skip the records have been rolled back
+			iter.skipFrom(((CompesationLogRecord) rec).getUndoNextLSN());
+		} else
+			rec.undo(tx);
+		return true;
 	}
 
 	/**
@@ -341,47 +431,28 @@ public class RecoveryMgr implements TransactionLifecycleListener {
 	 * all the transactions which were executing when the checkpoint took place,
 	 * or when the end of the log is reached. The method then iterates backward
 	 * and redoes all finished transactions. TODO fix comments...
+	 * 
+	 * <p>
+	 * If {@link #NUM_RECOVERY_WORKERS} is greater than 1, the redo and undo
+	 * phases are done by multiple threads. See {@link ParallelRecovery}.
+	 * </p>
 	 */
 	void recoverSystem(Transaction tx) {
-		Set<Long> finishedTxs = new HashSet<Long>();
 		Set<Long> unCompletedTxs = new HashSet<Long>();
-
-		List<Long> txsOnCheckpointing = null;
 		ReversibleIterator<LogRecord> iter = new LogRecordIterator();
 		/*
-		 * analyze phase: Find the earliest unfinished txNum
+		 * analyze phase: Find the unfinished txs and the point to redo from
 		 */
-		// analyze phase
-		while (iter.hasNext()) {
-			LogRecord rec = iter.next();
-
-			int op = rec.op();
-			if (op == OP_CHECKPOINT) {
-				// Since we flush all dirtyPage at checkpoint, therefore no need
-				// to find the start record of active txNum
-				txsOnCheckpointing = ((CheckpointRecord) rec).activeTxNums();
-				for (long acTxn : txsOnCheckpointing) {
-					// txNum give us info of possible unFinshedTxs,
-					// Check if those weren't in finishedTxs, and add it to the
-					// uncompletedTxs
-					if (!finishedTxs.contains(acTxn))
-						unCompletedTxs.add(acTxn);
-				}
-				// Start Redo From checkpoint
-				break;
-			}
-
-			if (op == OP_COMMIT) {
-				finishedTxs.add(rec.txNumber());
-			} else if (op == OP_ROLLBACK) {
-				finishedTxs.add(rec.txNumber());
-			} else if (op == OP_START && !finishedTxs.contains(rec.txNumber())) {
-				unCompletedTxs.add(rec.txNumber());
-			}
-
+		analyze(iter, unCompletedTxs);
+
+		if (NUM_RECOVERY_WORKERS > 1) {
+			ParallelRecovery recovery = new ParallelRecovery(NUM_RECOVERY_WORKERS);
+			recovery.redo(tx, iter);
+			unCompletedTxs.remove(tx.getTransactionNumber());
+			recovery.undo(unCompletedTxs);
+			return;
 		}
 
-		finishedTxs = null;
 		/*
 		 * redo phase: Repeating History
 		 */
@@ -406,8 +477,19 @@ public class RecoveryMgr implements TransactionLifecycleListener {
 			LogRecord rec = iter.next();
 
 			int op = rec.op();
-			if (!unCompletedTxs.contains(rec.txNumber()) || op == OP_COMMIT || op == OP_ROLLBACK)
+			if (!unCompletedTxs.contains(rec.txNumber()))
+				continue;
+			resumeChain(rec.txNumber(), rec.getLSN());
+			/*
+			 * A transaction on the checkpoint may have finished before the
+			 * records scanned by the analysis
+			 */
+			if (op == OP_COMMIT || op == OP_ROLLBACK) {
+				unCompletedTxs.remove(rec.txNumber());
+				if (unCompletedTxs.size() == 0)
+					break;
 				continue;
+			}
 			/*
 			 * Use UnDoNextLSN to skip unnecessary physical record which have
 			 * been redo its undo by CLR or records have been rolled back
@@ -456,39 +538,13 @@ public class RecoveryMgr implements TransactionLifecycleListener {
 	}
 
 	void recoverSystemPartially(Transaction tx, int stepsInUndo) {
-		Set<Long> finishedTxs = new HashSet<Long>();
 		Set<Long> unCompletedTxs = new HashSet<Long>();
-
-		List<Long> txsOnCheckpointing = null;
 		ReversibleIterator<LogRecord> iter = new LogRecordIterator();
 		/*
-		 * analyze phase: Find the earliest unfinished txNum
+		 * analyze phase: Find the unfinished txs and the point to redo from
 		 */
-		while (iter.hasNext()) {
-			LogRecord rec = iter.next();
-
-			int op = rec.op();
-			if (op == OP_CHECKPOINT) {
-				txsOnCheckpointing = ((CheckpointRecord) rec).activeTxNums();
-				for (long acTxn : txsOnCheckpointing) {
-
-					if (!finishedTxs.contains(acTxn))
-						unCompletedTxs.add(acTxn);
-				}
-				break;
-			}
+		analyze(iter, unCompletedTxs);
 
-			if (op == OP_COMMIT) {
-				finishedTxs.add(rec.txNumber());
-			} else if (op == OP_ROLLBACK) {
-				finishedTxs.add(rec.txNumber());
-			} else if (op == OP_START && !finishedTxs.contains(rec.txNumber())) {
-				unCompletedTxs.add(rec.txNumber());
-			}
-
-		}
-
-		finishedTxs = null;
 		/*
 		 * redo phase: Repeating History
 		 */
@@ -513,8 +569,19 @@ public class RecoveryMgr implements TransactionLifecycleListener {
 			// System.out.println(rec.getLSN() + rec.toString());
 			stepsInUndo--;
 			int op = rec.op();
-			if (!unCompletedTxs.contains(rec.txNumber()) || op == OP_COMMIT || op == OP_ROLLBACK)
+			if (!unCompletedTxs.contains(rec.txNumber()))
+				continue;
+			resumeChain(rec.txNumber(), rec.getLSN());
+			/*
+			 * A transaction on the checkpoint may have finished before the
+			 * records scanned by the analysis
+			 */
+			if (op == OP_COMMIT || op == OP_ROLLBACK) {
+				unCompletedTxs.remove(rec.txNumber());
+				if (unCompletedTxs.size() == 0)
+					break;
 				continue;
+			}
 
 			if (txUnDoNextLSN.containsKey(rec.txNumber())) {
 				if (txUnDoNextLSN.get(rec.txNumber()).compareTo(rec.getLSN()) != 1)
@@ -544,6 +611,49 @@ public class RecoveryMgr implements TransactionLifecycleListener {
 		}
 	}
 
+	/**
+	 * Finds the uncompleted transactions by scanning the log backward until
+	 * the last checkpoint, and further until the point from which the log
+	 * must be redone if the checkpoint is fuzzy. The iterator is left at the
+	 * point, so the log can be redone by moving it forward.
+	 */
+	private void analyze(ReversibleIterator<LogRecord> iter, Set<Long> unCompletedTxs) {
+		Set<Long> finishedTxs = new HashSet<Long>();
+		LogSeqNum redoLSN = null;
+		while (iter.hasNext()) {
+			LogRecord rec = iter.next();
+
+			int op = rec.op();
+			if (op == OP_CHECKPOINT && redoLSN == null) {
+				CheckpointRecord ckpt = (CheckpointRecord) rec;
+				for (long acTxn : ckpt.activeTxNums()) {
+					// txNum give us info of possible unFinshedTxs,
+					// Check if those weren't in finishedTxs, and add it to the
+					// uncompletedTxs
+					if (!finishedTxs.contains(acTxn))
+						unCompletedTxs.add(acTxn);
+				}
+				// All the pages modified before the redo LSN are on disk
+				redoLSN = ckpt.redoLSN();
+			}
+
+			if (op == OP_COMMIT || op == OP_ROLLBACK) {
+				finishedTxs.add(rec.txNumber());
+				// A transaction on the checkpoint may have finished right
+				// before the checkpoint record was written
+				unCompletedTxs.remove(rec.txNumber());
+			} else if (rec.txNumber() >= 0 && !finishedTxs.contains(rec.txNumber())) {
+				// A transaction started during a fuzzy checkpoint may be
+				// missing from the checkpoint
+				unCompletedTxs.add(rec.txNumber());
+			}
+
+			// Start Redo From the redo LSN
+			if (redoLSN != null && rec.getLSN().compareTo(redoLSN) <= 0)
+				break;
+		}
+	}
+
 	/**
 	 * Determines whether a block comes from a temporary file or not.
 	 */
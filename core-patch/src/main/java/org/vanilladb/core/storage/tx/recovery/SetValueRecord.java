@@ -34,7 +34,7 @@ import org.vanilladb.core.storage.log.BasicLogRecord;
 import org.vanilladb.core.storage.log.LogSeqNum;
 import org.vanilladb.core.storage.tx.Transaction;
 
-class SetValueRecord implements LogRecord {
+class SetValueRecord implements LogRecord, PageLogRecord {
 	private long txNum;
 	private int offset;
 	private Type type;
@@ -97,10 +97,7 @@ class SetValueRecord implements LogRecord {
 	 */
 	@Override
 	public LogSeqNum writeToLog() {
-
-		List<Constant> rec = buildRecord();
-		return logMgr.append(rec.toArray(new Constant[rec.size()]));
-
+		return RecoveryMgr.writeToLog(this);
 	}
 
 	@Override
@@ -132,7 +129,7 @@ class SetValueRecord implements LogRecord {
 		LogSeqNum lsn = tx.recoveryMgr().logSetValClr(this.txNum, buff, offset, val, this.lsn);
 		VanillaDb.logMgr().flush(lsn);
 		
-		buff.setVal(offset, val, tx.getTransactionNumber(), null);
+		buff.setVal(offset, val, tx.getTransactionNumber(), lsn);
 		tx.bufferMgr().unpin(buff);
 		// Note that UndoNextLSN should be set to this log record's lsn in order
 		// to let RecoveryMgr to skip this log record. Since this record should
@@ -172,6 +169,11 @@ class SetValueRecord implements LogRecord {
 		return rec;
 	}
 
+	@Override
+	public BlockId getBlockId() {
+		return blk;
+	}
+
 	@Override
 	public LogSeqNum getLSN() {
 		return lsn;
@@ -0,0 +1,83 @@
+/*******************************************************************************
+ * Copyright 2016, 2017 vanilladb.org contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.vanilladb.core.storage.tx.recovery;
+
+import java.util.Iterator;
+
+import org.vanilladb.core.server.VanillaDb;
+import org.vanilladb.core.storage.log.LogRecordReader;
+import org.vanilladb.core.storage.log.LogSeqNum;
+
+/**
+ * A class that provides the ability to read the log records of a transaction
+ * in reverse order. Unlike {@link LogRecordIterator}, this class jumps from a
+ * record to the previous record of the same transaction, without reading the
+ * records of the other transactions in between.
+ */
+class TxLogRecordIterator implements Iterator<LogRecord> {
+	private LogRecordReader reader = VanillaDb.logMgr().recordReader();
+	private LogSeqNum nextLSN;
+
+	/**
+	 * Creates an iterator positioned before the specified log record.
+	 * 
+	 * @param lastLSN
+	 *            the LSN of the last log record of the transaction
+	 */
+	TxLogRecordIterator(LogSeqNum lastLSN) {
+		VanillaDb.logMgr().flush(lastLSN);
+		nextLSN = lastLSN;
+	}
+
+	@Override
+	public boolean hasNext() {
+		return nextLSN.blkNum() >= 0;
+	}
+
+	@Override
+	public LogRecord next() {
+		LogSeqNum lsn = nextLSN;
+		nextLSN = LogRecordIterator.readPrevLSN(reader.read(lsn));
+		return LogRecordIterator.readRecord(reader.read(lsn));
+	}
+
+	/**
+	 * Returns the LSN of the record to be returned by {@link #next()}.
+	 * 
+	 * @return the LSN of the next record
+	 */
+	LogSeqNum nextLSN() {
+		return nextLSN;
+	}
+
+	/**
+	 * Skips the log records of the transaction from the specified one on, e.g.,
+	 * the records already compensated. The next record returned is the one
+	 * before the specified record.
+	 * 
+	 * @param lsn
+	 *            the LSN of a log record of the transaction
+	 */
+	void skipFrom(LogSeqNum lsn) {
+		if (lsn.compareTo(nextLSN) <= 0)
+			nextLSN = LogRecordIterator.readPrevLSN(reader.read(lsn));
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+}